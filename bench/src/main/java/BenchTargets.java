@@ -0,0 +1,101 @@
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import warpstudio.bench.Targets;
+
+public class BenchTargets implements Targets, PlaybackScheduler.Output {
+    private static final int CELL_WIDTH = 60;
+    private static final int CELL_HEIGHT = 30;
+    private static final int[] ROUTING = {0};
+
+    private final PianoRollRenderer renderer = new PianoRollRenderer(PitchTable.NAMES, 16);
+    private final PlaybackScheduler scheduler = new PlaybackScheduler(this, 120, Double.MAX_VALUE, (from, to, offset, out) -> {});
+    private final List<Note> hits = new ArrayList<>();
+    private final List<Note> removed = new ArrayList<>();
+    private final List<Note> deselected = new ArrayList<>();
+    private final SelectionModel selection = new SelectionModel();
+    private int scheduled;
+    private NoteStore notes;
+    private Note[] all;
+    private double lengthBeats;
+
+    @Override public void load(int noteCount, long seed) {
+        SplittableRandom rnd = new SplittableRandom(seed);
+        lengthBeats = Math.max(16, noteCount / 4);
+        all = new Note[noteCount];
+        for (int i = 0; i < noteCount; i++) {
+            all[i] = new Note(rnd.nextInt(PitchTable.rows()), Math.floor(rnd.nextDouble() * lengthBeats * 2) / 2, 0.5 + rnd.nextInt(4) * 0.5);
+        }
+        notes = new NoteStore(PitchTable.rows());
+        notes.addAll(all);
+        notes.publish();
+        selection.clear();
+        for (int i = 0; i < noteCount; i += 8) selection.add(all[i]);
+        renderer.setCellSize(CELL_WIDTH, CELL_HEIGHT, false);
+        renderer.setColumns((int) lengthBeats);
+    }
+
+    @Override public int cellWidth() { return CELL_WIDTH; }
+    @Override public int cellHeight() { return CELL_HEIGHT; }
+    @Override public int rows() { return PitchTable.rows(); }
+    @Override public double lengthBeats() { return lengthBeats; }
+
+    @Override public Object noteAtPixel(int x, int y) { return renderer.noteAt(notes, x, y, -1, hits); }
+
+    @Override public Object noteAtCell(int row, int col) { return notes.firstOverlapping(row, col, col + 1); }
+
+    @Override public int scanWindow(double fromBeat, double toBeat) {
+        scheduled = 0;
+        PlaybackScheduler.collect(notes.snapshot(), ROUTING, fromBeat, toBeat, 0.0, scheduler);
+        return scheduled;
+    }
+
+    @Override public long getMicrosecondPosition() { return 0L; }
+    @Override public void scheduleNote(int channel, int midi, int velocity, long onMicros, long offMicros) { scheduled += midi; }
+    @Override public void scheduleMetronomeTick(boolean accent, long atMicros) {}
+
+    // Same steps as the piano roll's removeOverlapping after a drop or resize.
+    @Override public int removeOverlapping(int index) {
+        Note n = all[index];
+        removed.clear();
+        notes.overlapping(n.row, n.start, n.start + n.length, removed);
+        removed.removeIf(o -> o == n || o.track != n.track);
+        for (Note o : removed) if (selection.contains(o)) deselected.add(o);
+        if (!removed.isEmpty()) { notes.removeAll(removed); selection.removeAll(removed); }
+        return removed.size();
+    }
+
+    @Override public void restoreRemoved() {
+        for (Note o : removed) notes.add(o);
+        selection.addAll(deselected);
+        removed.clear();
+        deselected.clear();
+    }
+
+    @Override public int noteNameToMidi(int row) { return MidiManager.noteNameToMidi(PitchTable.NAMES[row]); }
+    @Override public int pitchTableMidi(int row) { return PitchTable.midiForRow(row); }
+
+    @Override public void paint(BufferedImage image, int x, int y) {
+        Graphics2D g2 = image.createGraphics();
+        g2.translate(-x, -y);
+        renderer.paint(g2, new Rectangle(x, y, image.getWidth(), image.getHeight()), notes.snapshot(), n -> false, null, -1.0);
+        g2.dispose();
+    }
+
+    @Override public void saveProject(Path file) throws IOException { ProjectFile.save(file, 120, notes.publish()); }
+
+    @Override public int loadProject(Path file) throws IOException { return ProjectFile.load(file).notes.size(); }
+
+    // What File > Open does before the first edit: map the columns, build the Notes, index them, publish.
+    @Override public int openProject(Path file) throws IOException {
+        Note[] loaded = ProjectFile.load(file).notes.toNotes();
+        NoteStore store = new NoteStore(PitchTable.rows());
+        store.addAll(loaded);
+        return store.publish().size();
+    }
+}
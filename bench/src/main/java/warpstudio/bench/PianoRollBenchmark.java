@@ -0,0 +1,75 @@
+package warpstudio.bench;
+
+import java.awt.image.BufferedImage;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true"})
+public class PianoRollBenchmark {
+    private static final int PROBES = 1024;
+    private static final int VIEW_WIDTH = 1000;
+    private static final int VIEW_HEIGHT = 700;
+
+    @Param({"100", "1000", "10000", "100000"})
+    public int noteCount;
+
+    private Targets targets;
+    private int[] probeX, probeY, probeRow, probeCol, probeIndex;
+    private double[] probeBeat;
+    private BufferedImage image;
+    private int viewX;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        targets = Targets.create();
+        targets.load(noteCount, 42L);
+        SplittableRandom rnd = new SplittableRandom(7L);
+        probeX = new int[PROBES]; probeY = new int[PROBES]; probeRow = new int[PROBES]; probeCol = new int[PROBES];
+        probeIndex = new int[PROBES]; probeBeat = new double[PROBES];
+        int width = (int) (targets.lengthBeats() * targets.cellWidth());
+        int height = targets.rows() * targets.cellHeight();
+        for (int i = 0; i < PROBES; i++) {
+            probeX[i] = 100 + rnd.nextInt(width);
+            probeY[i] = rnd.nextInt(height);
+            probeRow[i] = rnd.nextInt(targets.rows());
+            probeCol[i] = rnd.nextInt((int) targets.lengthBeats());
+            probeIndex[i] = rnd.nextInt(noteCount);
+            probeBeat[i] = rnd.nextDouble() * targets.lengthBeats();
+        }
+        image = new BufferedImage(VIEW_WIDTH, VIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        viewX = Math.max(0, width / 2 - VIEW_WIDTH / 2);
+    }
+
+    private int probe() { return next = (next + 1) & (PROBES - 1); }
+
+    @Benchmark
+    public Object hitTestPixel() { int i = probe(); return targets.noteAtPixel(probeX[i], probeY[i]); }
+
+    @Benchmark
+    public Object hitTestCell() { int i = probe(); return targets.noteAtCell(probeRow[i], probeCol[i]); }
+
+    @Benchmark
+    public int playbackWindow() { int i = probe(); return targets.scanWindow(probeBeat[i], probeBeat[i] + 0.105); }
+
+    @Benchmark
+    public int overlapRemoval() { return targets.removeOverlapping(probeIndex[probe()]); }
+
+    @TearDown(Level.Invocation)
+    public void restoreOverlapping() { targets.restoreRemoved(); }
+
+    @Benchmark
+    public int noteNameToMidi() { return targets.noteNameToMidi(probeRow[probe()]); }
+
+    @Benchmark
+    public int pitchTable() { return targets.pitchTableMidi(probeRow[probe()]); }
+
+    @Benchmark
+    public BufferedImage paint() { targets.paint(image, viewX, 0); return image; }
+}
@@ -0,0 +1,38 @@
+package warpstudio.bench;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Xmx2g"})
+public class ProjectLoadBenchmark {
+    @Param({"100000", "1000000"})
+    public int noteCount;
+
+    private Targets targets;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        targets = Targets.create();
+        targets.load(noteCount, 42L);
+        file = Files.createTempFile("bench", ".wsp");
+        targets.saveProject(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException { Files.deleteIfExists(file); }
+
+    @Benchmark
+    public int mappedLoad() throws IOException { return targets.loadProject(file); }
+
+    @Benchmark
+    public int timeToEditable() throws IOException { return targets.openProject(file); }
+}
@@ -0,0 +1,32 @@
+package warpstudio.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Path;
+
+public interface Targets {
+    void load(int noteCount, long seed);
+    int cellWidth();
+    int cellHeight();
+    int rows();
+    double lengthBeats();
+    Object noteAtPixel(int x, int y);
+    Object noteAtCell(int row, int col);
+    int scanWindow(double fromBeat, double toBeat);
+    int removeOverlapping(int index);
+    void restoreRemoved();
+    int noteNameToMidi(int row);
+    int pitchTableMidi(int row);
+    void paint(BufferedImage image, int x, int y);
+    void saveProject(Path file) throws IOException;
+    int loadProject(Path file) throws IOException;
+    int openProject(Path file) throws IOException;
+
+    static Targets create() {
+        try {
+            return (Targets) Class.forName("BenchTargets").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("BenchTargets is missing from the benchmark classpath", e);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+public final class ArrangementSnapshot {
+    public static final ArrangementSnapshot EMPTY = new ArrangementSnapshot(0, new Note[0]);
+
+    final long version;
+    final int size;
+    final Note[] notes;
+    final int[] tracks;
+    final int[] rows;
+    final double[] starts;
+    final double[] lengths;
+    final int[] velocities;
+    final double maxLength;
+    final double endBeat;
+
+    ArrangementSnapshot(long version, Note[] sortedByStart) {
+        this.version = version;
+        this.size = sortedByStart.length;
+        this.notes = sortedByStart;
+        this.tracks = new int[size];
+        this.rows = new int[size];
+        this.starts = new double[size];
+        this.lengths = new double[size];
+        this.velocities = new int[size];
+        double longest = 0.0, end = 0.0;
+        for (int i = 0; i < size; i++) {
+            Note n = sortedByStart[i];
+            tracks[i] = n.track;
+            rows[i] = n.row;
+            starts[i] = n.start;
+            lengths[i] = n.length;
+            velocities[i] = n.velocity;
+            if (n.length > longest) longest = n.length;
+            if (n.start + n.length > end) end = n.start + n.length;
+        }
+        this.maxLength = longest;
+        this.endBeat = end;
+    }
+
+    public long version() { return version; }
+    public int size() { return size; }
+    public double endBeat() { return endBeat; }
+
+    public int firstStartingAtOrAfter(double beat) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < beat) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+}
@@ -0,0 +1,99 @@
+import java.util.Arrays;
+
+public class AuditionEngine implements Runnable {
+    public interface Sink {
+        void play(int channel, int program, int midi, int velocity, int durationMs);
+    }
+
+    public static final int MAX_PREVIEWS = 8;
+    private static final int MAX_PENDING = 64;
+    private static final long DEBOUNCE_NANOS = 8_000_000L;
+    private static final long RETRIGGER_NANOS = 40_000_000L;
+    private static final int VELOCITY = 90;
+
+    private final Sink sink;
+    private final int[] pendingKey = new int[MAX_PENDING];
+    private final int[] pendingDuration = new int[MAX_PENDING];
+    private int pendingCount = 0;
+    private long pendingSince;
+    private final int[] batchKey = new int[MAX_PENDING];
+    private final int[] batchDuration = new int[MAX_PENDING];
+    private final long[] lastStart = new long[16 * 128];
+    private final long[] liveUntil = new long[MAX_PREVIEWS];
+
+    private volatile long requested = 0;
+    private volatile long played = 0;
+    private volatile long capped = 0;
+
+    public AuditionEngine(Sink sink) {
+        this.sink = sink;
+        long now = System.nanoTime();
+        Arrays.fill(lastStart, now - RETRIGGER_NANOS);
+        Arrays.fill(liveUntil, now);
+        Thread t = new Thread(this, "audition");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public static AuditionEngine create(MidiManager midiManager) {
+        Sink synth = (ch, program, midi, velocity, durationMs) -> midiManager.playPreviewNote(ch, midi, velocity, durationMs);
+        if (!"pcm".equalsIgnoreCase(System.getProperty("warpstudio.preview", "synth"))) return new AuditionEngine(synth);
+        try {
+            return new AuditionEngine(new PcmAuditionSink(synth));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new AuditionEngine(synth);
+        }
+    }
+
+    public long getRequested() { return requested; }
+    public long getPlayed() { return played; }
+    public long getCapped() { return capped; }
+
+    public void preview(int[] channels, int[] programs, int[] midiNotes, int count, int durationMs) {
+        synchronized (this) {
+            if (pendingCount == 0) pendingSince = System.nanoTime();
+            for (int i = 0; i < count; i++) {
+                int key = (channels[i] & 0x0F) << 14 | (programs[i] & 0x7F) << 7 | (midiNotes[i] & 0x7F);
+                int j = 0;
+                while (j < pendingCount && pendingKey[j] != key) j++;
+                if (j < pendingCount) { pendingDuration[j] = Math.max(pendingDuration[j], durationMs); continue; }
+                if (pendingCount == MAX_PENDING) { System.arraycopy(pendingKey, 1, pendingKey, 0, --pendingCount); System.arraycopy(pendingDuration, 1, pendingDuration, 0, pendingCount); }
+                pendingKey[pendingCount] = key;
+                pendingDuration[pendingCount++] = durationMs;
+            }
+            requested += count;
+            notifyAll();
+        }
+    }
+
+    @Override public void run() {
+        while (true) {
+            int n;
+            synchronized (this) {
+                try {
+                    while (pendingCount == 0) wait();
+                    long wait = pendingSince + DEBOUNCE_NANOS - System.nanoTime();
+                    if (wait > 0) { wait(wait / 1_000_000L, (int) (wait % 1_000_000L)); continue; }
+                } catch (InterruptedException e) { return; }
+                n = Math.min(pendingCount, MAX_PREVIEWS);
+                System.arraycopy(pendingKey, pendingCount - n, batchKey, 0, n);
+                System.arraycopy(pendingDuration, pendingCount - n, batchDuration, 0, n);
+                pendingCount = 0;
+            }
+            long now = System.nanoTime();
+            for (int i = 0; i < n; i++) {
+                int key = batchKey[i];
+                int voice = (key >>> 14) << 7 | (key & 0x7F);
+                if (now - lastStart[voice] < RETRIGGER_NANOS) continue;
+                int slot = 0;
+                while (slot < MAX_PREVIEWS && liveUntil[slot] - now > 0) slot++;
+                if (slot == MAX_PREVIEWS) { capped++; continue; }
+                liveUntil[slot] = now + batchDuration[i] * 1_000_000L;
+                lastStart[voice] = now;
+                sink.play(key >>> 14, key >>> 7 & 0x7F, key & 0x7F, VELOCITY, batchDuration[i]);
+                played++;
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class BatchRenderer {
+    private static final String USAGE = String.join(System.lineSeparator(),
+        "Usage: java -jar warp-studio.jar --batch [options] <file.wsp|file.mid>...",
+        "  --out <dir>          output directory (default: next to each input)",
+        "  --format <fmt>       wav, mid or wsp (default: wav)",
+        "  --threads <n>        worker threads (default: available processors)",
+        "  --bpm <n>            override the file tempo",
+        "  --transpose <n>      shift every note by n semitones",
+        "  --quantize <beats>   snap starts and ends to a grid, e.g. 0.25",
+        "  --bars <n>           render length in 4/4 bars (default: content end)");
+
+    private String format = "wav";
+    private Path outDir;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int bpm = -1;
+    private int transpose = 0;
+    private double quantize = 0.0;
+    private int bars = -1;
+    private final List<Path> inputs = new ArrayList<>();
+
+    public static int run(String[] args) {
+        BatchRenderer batch = new BatchRenderer();
+        try {
+            batch.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(USAGE);
+            return 2;
+        }
+        return batch.renderAll();
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String a = args[i];
+            switch (a) {
+                case "--batch": break;
+                case "--out": outDir = Paths.get(value(args, ++i, a)); break;
+                case "--format": format = value(args, ++i, a).toLowerCase(Locale.ROOT); break;
+                case "--threads": threads = Math.max(1, intValue(args, ++i, a)); break;
+                case "--bpm": bpm = intValue(args, ++i, a); break;
+                case "--transpose": transpose = intValue(args, ++i, a); break;
+                case "--quantize": quantize = Double.parseDouble(value(args, ++i, a)); break;
+                case "--bars": bars = intValue(args, ++i, a); break;
+                default:
+                    if (a.startsWith("--")) throw new IllegalArgumentException("Unknown option: " + a);
+                    inputs.add(Paths.get(a));
+            }
+        }
+        if (inputs.isEmpty()) throw new IllegalArgumentException("No input files");
+        if (!format.equals("wav") && !format.equals("mid") && !format.equals("wsp")) throw new IllegalArgumentException("Unknown format: " + format);
+        if (bpm != -1 && (bpm < 20 || bpm > 300)) throw new IllegalArgumentException("BPM must be between 20 and 300");
+        Map<Path, Path> targets = new HashMap<>();
+        for (Path in : inputs) {
+            Path other = targets.put(outputFor(in), in);
+            if (other != null) throw new IllegalArgumentException(other + " and " + in + " would both write " + outputFor(in) + "; render them into separate --out directories");
+        }
+    }
+
+    private Path outputFor(Path in) {
+        String name = in.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        Path dir = (outDir != null ? outDir : in.toAbsolutePath().getParent()).toAbsolutePath().normalize();
+        Path out = dir.resolve(base + "." + format);
+        if (out.equals(in.toAbsolutePath().normalize())) out = dir.resolve(base + ".out." + format);
+        return out;
+    }
+
+    private static String value(String[] args, int i, String option) {
+        if (i >= args.length) throw new IllegalArgumentException(option + " needs a value");
+        return args[i];
+    }
+
+    private static int intValue(String[] args, int i, String option) {
+        try {
+            return Integer.parseInt(value(args, i, option));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(option + " needs an integer value");
+        }
+    }
+
+    private int renderAll() {
+        long t0 = System.nanoTime();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, inputs.size()));
+        List<Future<String>> results = new ArrayList<>();
+        for (Path in : inputs) results.add(pool.submit(() -> renderOne(in)));
+        pool.shutdown();
+        int failed = 0;
+        for (int i = 0; i < results.size(); i++) {
+            try {
+                System.out.println(results.get(i).get());
+            } catch (ExecutionException e) {
+                failed++;
+                System.err.println(inputs.get(i) + ": FAILED " + e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                pool.shutdownNow();
+                return 1;
+            }
+        }
+        System.out.printf("%d file(s), %d failed, %.2fs on %d thread(s)%n", inputs.size(), failed, (System.nanoTime() - t0) / 1e9, Math.min(threads, inputs.size()));
+        return failed == 0 ? 0 : 1;
+    }
+
+    private String renderOne(Path in) throws Exception {
+        String name = in.getFileName().toString();
+        boolean midiInput = name.toLowerCase(Locale.ROOT).endsWith(".mid") || name.toLowerCase(Locale.ROOT).endsWith(".midi");
+        ProjectFile.Project project = midiInput ? MidiFileIO.read(in) : ProjectFile.load(in);
+        // The transforms and the exporters work on plain notes, so clip instances are expanded first.
+        boolean keepClips = transpose == 0 && quantize <= 0.0 && format.equals("wsp");
+        NoteBuffer notes = keepClips ? project.notes : project.flatten();
+        TempoMap tempo = bpm > 0 ? project.tempo.withInitialTempo(bpm) : project.tempo;
+        int dropped = transpose != 0 ? notes.transpose(transpose) : 0;
+        if (quantize > 0.0) notes.quantize(quantize);
+        double lengthBeats = bars > 0 ? bars * 4.0 : Math.max(4.0, Math.ceil(notes.endBeat() / 4.0) * 4.0);
+
+        Path out = outputFor(in);
+        Files.createDirectories(out.getParent());
+
+        String detail;
+        switch (format) {
+            case "mid": MidiFileIO.write(out, tempo, project.tracks, notes, 1); detail = notes.size() + " notes"; break;
+            case "wsp":
+                ProjectFile.save(out, keepClips ? new ProjectFile.Project(tempo, notes, project.tracks, project.clips, project.instances) : new ProjectFile.Project(tempo, notes, project.tracks, new Clip[0], new ClipInstance[0]));
+                detail = notes.size() + " notes" + (keepClips && project.instances.length > 0 ? ", " + project.instances.length + " clip instances" : "");
+                break;
+            default: detail = OfflineRenderer.render(notes, tempo, lengthBeats, out).toString();
+        }
+        return in + " -> " + out + ": " + detail + (dropped > 0 ? " (" + dropped + " notes transposed out of range)" : "");
+    }
+}
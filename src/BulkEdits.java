@@ -0,0 +1,163 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public final class BulkEdits {
+    private static final int CHUNK = 8192;
+    private static final int RESOLVE_PPQ = 480;
+
+    public interface RangeOp { void apply(NoteBuffer b, int from, int to); }
+
+    public static final class Result {
+        public final Note[] notes;
+        public final NoteBuffer values;
+        public final boolean[] dropped;
+        public final List<Note> removedOthers;
+        public final long elapsedNanos;
+
+        Result(Note[] notes, NoteBuffer values, boolean[] dropped, List<Note> removedOthers, long elapsedNanos) {
+            this.notes = notes;
+            this.values = values;
+            this.dropped = dropped;
+            this.removedOthers = removedOthers;
+            this.elapsedNanos = elapsedNanos;
+        }
+    }
+
+    private BulkEdits() {}
+
+    public static NoteBuffer capture(Note[] notes) {
+        NoteBuffer b = new NoteBuffer(notes.length);
+        for (Note n : notes) b.add(n.track, n.row, n.start, n.length, n.velocity);
+        return b;
+    }
+
+    public static RangeOp quantize(double grid, double strength) {
+        double s = Math.max(0.0, Math.min(1.0, strength));
+        return (b, from, to) -> {
+            for (int i = from; i < to; i++) {
+                double start = b.starts[i], end = start + b.lengths[i];
+                double qStart = start + (Math.round(start / grid) * grid - start) * s;
+                double qEnd = end + (Math.round(end / grid) * grid - end) * s;
+                b.starts[i] = Math.max(0.0, qStart);
+                b.lengths[i] = Math.max(Note.MIN_LENGTH, qEnd - b.starts[i]);
+            }
+        };
+    }
+
+    public static RangeOp transpose(int semitones) {
+        int last = PitchTable.rows() - 1;
+        return (b, from, to) -> {
+            for (int i = from; i < to; i++) b.rows[i] = Math.max(0, Math.min(last, b.rows[i] - semitones));
+        };
+    }
+
+    public static RangeOp humanize(double timingBeats, int velocityRange, long seed) {
+        return (b, from, to) -> {
+            for (int i = from; i < to; i++) {
+                long h = mix(seed + i);
+                double jitter = ((h >>> 11) * 0x1.0p-53 * 2.0 - 1.0) * timingBeats;
+                int dv = velocityRange == 0 ? 0 : (int) Math.floorMod(mix(h), 2L * velocityRange + 1) - velocityRange;
+                b.starts[i] = Math.max(0.0, b.starts[i] + jitter);
+                b.velocities[i] = clampVelocity(b.velocities[i] + dv);
+            }
+        };
+    }
+
+    public static RangeOp scaleVelocity(double factor, int offset) {
+        return (b, from, to) -> {
+            for (int i = from; i < to; i++) b.velocities[i] = clampVelocity((int) Math.round(b.velocities[i] * factor) + offset);
+        };
+    }
+
+    public static void apply(NoteBuffer b, RangeOp op) {
+        if (b.size <= CHUNK) op.apply(b, 0, b.size);
+        else ForkJoinPool.commonPool().invoke(new Pass(b, op, 0, b.size));
+    }
+
+    public static Result run(Note[] selection, NoteBuffer values, ArrangementSnapshot snap, RangeOp op) {
+        long t0 = System.nanoTime();
+        apply(values, op);
+        boolean[] dropped = new boolean[selection.length];
+        List<Note> removed = resolve(selection, values, dropped, snap);
+        return new Result(selection, values, dropped, removed, System.nanoTime() - t0);
+    }
+
+    static List<Note> resolve(Note[] selection, NoteBuffer values, boolean[] dropped, ArrangementSnapshot snap) {
+        BitSet selected = new BitSet();
+        for (Note n : selection) selected.set(n.id);
+        int others = 0;
+        for (int i = 0; i < snap.size; i++) if (!selected.get(snap.notes[i].id)) others++;
+        int total = selection.length + others;
+        int[] track = new int[total], row = new int[total];
+        double[] start = new double[total], end = new double[total];
+        Note[] ref = new Note[total];
+        for (int i = 0; i < selection.length; i++) {
+            track[i] = values.tracks[i]; row[i] = values.rows[i]; start[i] = values.starts[i]; end[i] = values.starts[i] + values.lengths[i];
+        }
+        for (int i = 0, j = selection.length; i < snap.size; i++) {
+            if (selected.get(snap.notes[i].id)) continue;
+            track[j] = snap.tracks[i]; row[j] = snap.rows[i]; start[j] = snap.starts[i]; end[j] = snap.starts[i] + snap.lengths[i]; ref[j] = snap.notes[i];
+            j++;
+        }
+        long[] keys = new long[total];
+        for (int i = 0; i < total; i++) {
+            long ticks = Math.min((1L << 25) - 1, Math.round(start[i] * RESOLVE_PPQ));
+            long other = i < selection.length ? 0 : 1;
+            keys[i] = ((long) (track[i] & 0xF) << 59) | ((long) (row[i] & 0x7F) << 52) | (ticks << 27) | (other << 26) | i;
+        }
+        Arrays.parallelSort(keys);
+        List<Note> removed = new ArrayList<>();
+        int[] open = new int[16];
+        int openCount = 0, lastSel = -1;
+        long prevGroup = -1;
+        for (long key : keys) {
+            int i = (int) (key & ((1L << 26) - 1));
+            long group = key >>> 52;
+            if (group != prevGroup) { prevGroup = group; openCount = 0; lastSel = -1; }
+            int kept = 0;
+            for (int k = 0; k < openCount; k++) if (end[open[k]] > start[i]) open[kept++] = open[k];
+            openCount = kept;
+            boolean overlapsSel = lastSel >= 0 && end[lastSel] > start[i];
+            if (i < selection.length) {
+                if (overlapsSel && start[i] <= start[lastSel]) { dropped[i] = true; continue; }
+                if (overlapsSel) { values.lengths[lastSel] = start[i] - start[lastSel]; end[lastSel] = start[i]; }
+                for (int k = 0; k < openCount; k++) removed.add(ref[open[k]]);
+                openCount = 0;
+                lastSel = i;
+            } else if (overlapsSel) {
+                removed.add(ref[i]);
+            } else {
+                if (openCount == open.length) open = Arrays.copyOf(open, openCount * 2);
+                open[openCount++] = i;
+            }
+        }
+        return removed;
+    }
+
+    private static int clampVelocity(int v) { return Math.max(1, Math.min(127, v)); }
+
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private static final class Pass extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final NoteBuffer b;
+        private final RangeOp op;
+        private final int from, to;
+
+        Pass(NoteBuffer b, RangeOp op, int from, int to) { this.b = b; this.op = op; this.from = from; this.to = to; }
+
+        @Override protected void compute() {
+            if (to - from <= CHUNK) { op.apply(b, from, to); return; }
+            int mid = (from + to) >>> 1;
+            invokeAll(new Pass(b, op, from, mid), new Pass(b, op, mid, to));
+        }
+    }
+}
@@ -0,0 +1,71 @@
+import java.util.Arrays;
+import java.util.Collection;
+
+public final class Clip {
+    final String name;
+    final int size;
+    final int[] rows;
+    final double[] starts;
+    final double[] lengths;
+    final int[] velocities;
+    final double length;
+    final double maxLength;
+    final int minRow;
+    final int maxRow;
+
+    private Clip(String name, int[] rows, double[] starts, double[] lengths, int[] velocities, double length) {
+        this.name = name;
+        this.size = rows.length;
+        this.rows = rows;
+        this.starts = starts;
+        this.lengths = lengths;
+        this.velocities = velocities;
+        double longest = 0.0, end = 0.0;
+        int lo = Integer.MAX_VALUE, hi = Integer.MIN_VALUE;
+        for (int i = 0; i < size; i++) {
+            longest = Math.max(longest, lengths[i]);
+            end = Math.max(end, starts[i] + lengths[i]);
+            lo = Math.min(lo, rows[i]);
+            hi = Math.max(hi, rows[i]);
+        }
+        this.length = Math.max(length, end);
+        this.maxLength = longest;
+        this.minRow = size > 0 ? lo : 0;
+        this.maxRow = size > 0 ? hi : -1;
+    }
+
+    public static Clip of(String name, Collection<Note> notes, double origin, int beatsPerBar) {
+        Note[] sorted = notes.toArray(new Note[0]);
+        Arrays.sort(sorted, (a, b) -> Double.compare(a.start, b.start));
+        int[] rows = new int[sorted.length], velocities = new int[sorted.length];
+        double[] starts = new double[sorted.length], lengths = new double[sorted.length];
+        double end = 0.0;
+        for (int i = 0; i < sorted.length; i++) {
+            Note n = sorted[i];
+            rows[i] = n.row; starts[i] = n.start - origin; lengths[i] = n.length; velocities[i] = n.velocity;
+            end = Math.max(end, starts[i] + lengths[i]);
+        }
+        return new Clip(name, rows, starts, lengths, velocities, Math.max(1, Math.ceil(end / beatsPerBar)) * beatsPerBar);
+    }
+
+    /** Rebuilds a clip from saved columns; starts must already be in order. */
+    static Clip restore(String name, int[] rows, double[] starts, double[] lengths, int[] velocities, double length) {
+        for (int i = 1; i < starts.length; i++) if (starts[i] < starts[i - 1]) throw new IllegalArgumentException("Clip notes out of order: " + name);
+        return new Clip(name, rows, starts, lengths, velocities, length);
+    }
+
+    public String name() { return name; }
+    public int size() { return size; }
+    public double length() { return length; }
+
+    public int firstStartingAtOrAfter(double beat) {
+        int lo = 0, hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] < beat) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    @Override public String toString() { return name + " (" + size + " notes, " + (int) length + " beats)"; }
+}
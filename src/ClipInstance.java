@@ -0,0 +1,16 @@
+public final class ClipInstance {
+    final Clip clip;
+    final int track;
+    final double start;
+    final int transpose;
+
+    public ClipInstance(Clip clip, int track, double start, int transpose) {
+        this.clip = clip;
+        this.track = track;
+        this.start = Math.max(0.0, start);
+        this.transpose = transpose;
+    }
+
+    public double end() { return start + clip.length; }
+    public int rowFor(int clipRow) { return clipRow - transpose; }
+}
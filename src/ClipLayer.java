@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class ClipLayer {
+    public interface NoteVisitor {
+        void note(ClipInstance instance, int row, double start, double length, int velocity);
+    }
+
+    public interface Listener {
+        void clipAdded(Clip clip);
+        void added(ClipInstance instance);
+        void removed(ClipInstance instance);
+        void cleared();
+    }
+
+    private static final class View {
+        static final View EMPTY = new View(new ClipInstance[0]);
+        final ClipInstance[] items;
+        final double[] starts;
+        final double reach;
+        final double endBeat;
+
+        View(ClipInstance[] sortedByStart) {
+            items = sortedByStart;
+            starts = new double[items.length];
+            double longest = 0.0, end = 0.0;
+            for (int i = 0; i < items.length; i++) {
+                starts[i] = items[i].start;
+                longest = Math.max(longest, items[i].clip.length);
+                end = Math.max(end, items[i].end());
+            }
+            reach = longest;
+            endBeat = end;
+        }
+
+        int firstStartingAtOrAfter(double beat) {
+            int lo = 0, hi = starts.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (starts[mid] < beat) lo = mid + 1; else hi = mid;
+            }
+            return lo;
+        }
+    }
+
+    private final int rowCount;
+    private final List<Clip> clips = new ArrayList<>();
+    private volatile View view = View.EMPTY;
+    private Listener listener;
+
+    public ClipLayer(int rowCount) { this.rowCount = rowCount; }
+
+    public synchronized void setListener(Listener listener) { this.listener = listener; }
+
+    public synchronized void addClip(Clip clip) {
+        if (clips.contains(clip)) return;
+        clips.add(clip);
+        if (listener != null) listener.clipAdded(clip);
+    }
+
+    public synchronized void removeClip(Clip clip) { clips.remove(clip); }
+    public synchronized Clip[] clips() { return clips.toArray(new Clip[0]); }
+
+    public ClipInstance[] instances() { return view.items.clone(); }
+    public int instanceCount() { return view.items.length; }
+    public double endBeat() { return view.endBeat; }
+
+    public synchronized void add(ClipInstance instance) {
+        View v = view;
+        ClipInstance[] items = v.items;
+        int at = v.firstStartingAtOrAfter(instance.start);
+        ClipInstance[] next = new ClipInstance[items.length + 1];
+        System.arraycopy(items, 0, next, 0, at);
+        next[at] = instance;
+        System.arraycopy(items, at, next, at + 1, items.length - at);
+        view = new View(next);
+        if (listener != null) listener.added(instance);
+    }
+
+    public synchronized boolean remove(ClipInstance instance) {
+        ClipInstance[] items = view.items;
+        for (int i = 0; i < items.length; i++) {
+            if (items[i] != instance) continue;
+            ClipInstance[] next = new ClipInstance[items.length - 1];
+            System.arraycopy(items, 0, next, 0, i);
+            System.arraycopy(items, i + 1, next, i, items.length - i - 1);
+            view = new View(next);
+            if (listener != null) listener.removed(instance);
+            return true;
+        }
+        return false;
+    }
+
+    public synchronized void clear() {
+        clips.clear();
+        view = View.EMPTY;
+        if (listener != null) listener.cleared();
+    }
+
+    public List<ClipInstance> overlapping(int track, double fromBeat, double toBeat) {
+        View v = view;
+        List<ClipInstance> out = new ArrayList<>();
+        for (int i = v.firstStartingAtOrAfter(fromBeat - v.reach); i < v.items.length && v.starts[i] < toBeat; i++) {
+            ClipInstance c = v.items[i];
+            if (c.end() > fromBeat && (track < 0 || c.track == track)) out.add(c);
+        }
+        return out;
+    }
+
+    public void visitStarting(double fromBeat, double toBeat, NoteVisitor visitor) {
+        View v = view;
+        for (int i = v.firstStartingAtOrAfter(fromBeat - v.reach); i < v.items.length && v.starts[i] < toBeat; i++) {
+            ClipInstance c = v.items[i];
+            if (c.end() <= fromBeat) continue;
+            Clip clip = c.clip;
+            double localTo = toBeat - c.start;
+            for (int j = clip.firstStartingAtOrAfter(fromBeat - c.start); j < clip.size && clip.starts[j] < localTo; j++) emit(c, j, visitor);
+        }
+    }
+
+    public void visitOverlapping(double fromBeat, double toBeat, NoteVisitor visitor) {
+        View v = view;
+        for (int i = v.firstStartingAtOrAfter(fromBeat - v.reach); i < v.items.length && v.starts[i] < toBeat; i++) {
+            ClipInstance c = v.items[i];
+            if (c.end() <= fromBeat) continue;
+            Clip clip = c.clip;
+            double localFrom = fromBeat - c.start, localTo = toBeat - c.start;
+            for (int j = clip.firstStartingAtOrAfter(localFrom - clip.maxLength); j < clip.size && clip.starts[j] < localTo; j++) {
+                if (clip.starts[j] + clip.lengths[j] > localFrom) emit(c, j, visitor);
+            }
+        }
+    }
+
+    public void expandInto(NoteBuffer out) {
+        for (ClipInstance c : view.items) {
+            Clip clip = c.clip;
+            for (int j = 0; j < clip.size; j++) {
+                int row = c.rowFor(clip.rows[j]);
+                if (row >= 0 && row < rowCount) out.add(c.track, row, c.start + clip.starts[j], clip.lengths[j], clip.velocities[j]);
+            }
+        }
+    }
+
+    private void emit(ClipInstance c, int j, NoteVisitor visitor) {
+        Clip clip = c.clip;
+        int row = c.rowFor(clip.rows[j]);
+        if (row >= 0 && row < rowCount) visitor.note(c, row, c.start + clip.starts[j], clip.lengths[j], clip.velocities[j]);
+    }
+}
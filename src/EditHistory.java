@@ -0,0 +1,313 @@
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+public class EditHistory implements NoteStore.EditListener {
+    private static final int ENTRY_OVERHEAD = 64;
+    private static final int NOTE_BYTES = 48;
+
+    private abstract static class Entry {
+        long bytes;
+        abstract void undo(NoteStore store);
+        abstract void redo(NoteStore store);
+    }
+
+    private static final class Group {
+        final Note[] notes;
+        final int hash;
+        final long bytes;
+        int refs = 0;
+
+        Group(Note[] sortedById) {
+            notes = sortedById;
+            int h = 1;
+            for (Note n : notes) h = 31 * h + n.id;
+            hash = h;
+            bytes = ENTRY_OVERHEAD + 8L * notes.length;
+        }
+
+        @Override public int hashCode() { return hash; }
+        @Override public boolean equals(Object o) { return o instanceof Group && Arrays.equals(notes, ((Group) o).notes); }
+    }
+
+    private static final class Translate extends Entry {
+        final Group group;
+        final int dRow;
+        final double dStart;
+
+        Translate(Group group, int dRow, double dStart) {
+            this.group = group;
+            this.dRow = dRow;
+            this.dStart = dStart;
+            this.bytes = ENTRY_OVERHEAD;
+        }
+
+        @Override void undo(NoteStore store) { for (Note n : group.notes) store.move(n, n.row - dRow, n.start - dStart); }
+        @Override void redo(NoteStore store) { for (Note n : group.notes) store.move(n, n.row + dRow, n.start + dStart); }
+    }
+
+    private static final class Delta extends Entry {
+        static final byte ADDED = 0, REMOVED = 1, CHANGED = 2;
+        final Note[] notes;
+        final byte[] kind;
+        final int[] oldRow, newRow;
+        final double[] oldStart, newStart, oldLength, newLength;
+        final byte[] oldVelocity, newVelocity;
+
+        Delta(int count) {
+            notes = new Note[count];
+            kind = new byte[count];
+            oldRow = new int[count]; newRow = new int[count];
+            oldStart = new double[count]; newStart = new double[count];
+            oldLength = new double[count]; newLength = new double[count];
+            oldVelocity = new byte[count]; newVelocity = new byte[count];
+            bytes = ENTRY_OVERHEAD + count * (8L + 1 + 8 + 32 + 2);
+        }
+
+        @Override void undo(NoteStore store) {
+            for (int i = notes.length - 1; i >= 0; i--) {
+                Note n = notes[i];
+                if (kind[i] == ADDED) store.remove(n);
+                else if (kind[i] == CHANGED) store.set(n, oldRow[i], oldStart[i], oldLength[i], oldVelocity[i]);
+            }
+            for (int i = 0; i < notes.length; i++) if (kind[i] == REMOVED) restore(store, notes[i], oldRow[i], oldStart[i], oldLength[i], oldVelocity[i]);
+        }
+
+        @Override void redo(NoteStore store) {
+            for (int i = 0; i < notes.length; i++) if (kind[i] == REMOVED) store.remove(notes[i]);
+            for (int i = 0; i < notes.length; i++) {
+                Note n = notes[i];
+                if (kind[i] == ADDED) restore(store, n, newRow[i], newStart[i], newLength[i], newVelocity[i]);
+                else if (kind[i] == CHANGED) store.set(n, newRow[i], newStart[i], newLength[i], newVelocity[i]);
+            }
+        }
+
+        private static void restore(NoteStore store, Note n, int row, double start, double length, int velocity) {
+            n.row = row;
+            n.start = start;
+            n.length = length;
+            n.velocity = velocity;
+            store.add(n);
+        }
+    }
+
+    private static final class Composite extends Entry {
+        final Entry notes;
+        final Runnable[] undos, redos;
+
+        Composite(Entry notes, List<Runnable> undos, List<Runnable> redos) {
+            this.notes = notes;
+            this.undos = undos.toArray(new Runnable[0]);
+            this.redos = redos.toArray(new Runnable[0]);
+            this.bytes = (notes != null ? notes.bytes : ENTRY_OVERHEAD) + 32L * this.undos.length;
+        }
+
+        @Override void undo(NoteStore store) {
+            for (int i = undos.length - 1; i >= 0; i--) undos[i].run();
+            if (notes != null) notes.undo(store);
+        }
+
+        @Override void redo(NoteStore store) {
+            if (notes != null) notes.redo(store);
+            for (Runnable r : redos) r.run();
+        }
+    }
+
+    private final NoteStore store;
+    private final ArrayDeque<Entry> undo = new ArrayDeque<>();
+    private final ArrayDeque<Entry> redo = new ArrayDeque<>();
+    private final HashMap<Group, Group> groups = new HashMap<>();
+    private long maxBytes;
+    private long bytes = 0;
+    private boolean applying = false;
+    private int depth = 0;
+
+    private final IdentityHashMap<Note, Integer> touchedIndex = new IdentityHashMap<>();
+    private final List<Note> touched = new ArrayList<>();
+    private final List<Runnable> undoActions = new ArrayList<>();
+    private final List<Runnable> redoActions = new ArrayList<>();
+    private boolean[] wasPresent = new boolean[64];
+    private int[] beforeRow = new int[64];
+    private double[] beforeStart = new double[64];
+    private double[] beforeLength = new double[64];
+    private byte[] beforeVelocity = new byte[64];
+
+    public EditHistory(NoteStore store, long maxBytes) {
+        this.store = store;
+        this.maxBytes = maxBytes;
+        store.setEditListener(this);
+    }
+
+    public void setMaxBytes(long maxBytes) { this.maxBytes = maxBytes; evict(); }
+    public long getMaxBytes() { return maxBytes; }
+    public long bytesUsed() { return bytes; }
+    public int undoDepth() { return undo.size(); }
+    public int redoDepth() { return redo.size(); }
+    public boolean canUndo() { return !undo.isEmpty(); }
+    public boolean canRedo() { return !redo.isEmpty(); }
+
+    public void begin() { depth++; }
+
+    public void commit() {
+        if (depth == 0) return;
+        if (--depth == 0) seal();
+    }
+
+    public void transaction(Runnable edit) {
+        begin();
+        try { edit.run(); } finally { commit(); }
+    }
+
+    public void clear() {
+        undo.clear();
+        redo.clear();
+        groups.clear();
+        bytes = 0;
+        resetTransaction();
+    }
+
+    public void runUntracked(Runnable edit) {
+        boolean was = applying;
+        applying = true;
+        try { edit.run(); } finally { applying = was; }
+    }
+
+    public boolean undo() {
+        if (depth > 0 || undo.isEmpty()) return false;
+        Entry e = undo.pop();
+        runUntracked(() -> e.undo(store));
+        redo.push(e);
+        return true;
+    }
+
+    public boolean redo() {
+        if (depth > 0 || redo.isEmpty()) return false;
+        Entry e = redo.pop();
+        runUntracked(() -> e.redo(store));
+        undo.push(e);
+        return true;
+    }
+
+    public void record(Runnable undo, Runnable redo) {
+        if (applying) return;
+        undoActions.add(undo);
+        redoActions.add(redo);
+        if (depth == 0) seal();
+    }
+
+    @Override public void added(Note n) { touch(n, false, n.row, n.start, n.length, n.velocity); }
+    @Override public void removed(Note n) { touch(n, true, n.row, n.start, n.length, n.velocity); }
+    @Override public void changed(Note n, int oldRow, double oldStart, double oldLength, int oldVelocity) { touch(n, true, oldRow, oldStart, oldLength, oldVelocity); }
+
+    private void touch(Note n, boolean present, int row, double start, double length, int velocity) {
+        if (applying) return;
+        if (!touchedIndex.containsKey(n)) {
+            int i = touched.size();
+            if (i == wasPresent.length) {
+                int cap = i * 2;
+                wasPresent = Arrays.copyOf(wasPresent, cap);
+                beforeRow = Arrays.copyOf(beforeRow, cap);
+                beforeStart = Arrays.copyOf(beforeStart, cap);
+                beforeLength = Arrays.copyOf(beforeLength, cap);
+                beforeVelocity = Arrays.copyOf(beforeVelocity, cap);
+            }
+            touchedIndex.put(n, i);
+            touched.add(n);
+            wasPresent[i] = present;
+            beforeRow[i] = row;
+            beforeStart[i] = start;
+            beforeLength[i] = length;
+            beforeVelocity[i] = (byte) velocity;
+        }
+        if (depth == 0) seal();
+    }
+
+    private void seal() {
+        Entry e = buildEntry();
+        if (!undoActions.isEmpty()) e = new Composite(e, undoActions, redoActions);
+        resetTransaction();
+        if (e == null) return;
+        undo.push(e);
+        bytes += e.bytes;
+        for (Entry r : redo) discard(r);
+        redo.clear();
+        evict();
+    }
+
+    private Entry buildEntry() {
+        int count = touched.size();
+        if (count == 0) return null;
+        Translate t = asTranslate(count);
+        if (t != null) return t;
+        int kept = 0;
+        byte[] kinds = new byte[count];
+        for (int i = 0; i < count; i++) {
+            Note n = touched.get(i);
+            boolean present = store.contains(n);
+            if (wasPresent[i] && !present) kinds[i] = Delta.REMOVED;
+            else if (!wasPresent[i] && present) kinds[i] = Delta.ADDED;
+            else if (present && (n.row != beforeRow[i] || n.start != beforeStart[i] || n.length != beforeLength[i] || n.velocity != beforeVelocity[i])) kinds[i] = Delta.CHANGED;
+            else { kinds[i] = -1; continue; }
+            kept++;
+        }
+        if (kept == 0) return null;
+        Delta d = new Delta(kept);
+        for (int i = 0, j = 0; i < count; i++) {
+            if (kinds[i] < 0) continue;
+            Note n = touched.get(i);
+            d.notes[j] = n;
+            d.kind[j] = kinds[i];
+            d.oldRow[j] = beforeRow[i]; d.oldStart[j] = beforeStart[i]; d.oldLength[j] = beforeLength[i]; d.oldVelocity[j] = beforeVelocity[i];
+            d.newRow[j] = n.row; d.newStart[j] = n.start; d.newLength[j] = n.length; d.newVelocity[j] = (byte) n.velocity;
+            if (kinds[i] == Delta.REMOVED) d.bytes += NOTE_BYTES;
+            j++;
+        }
+        return d;
+    }
+
+    private Translate asTranslate(int count) {
+        Note first = touched.get(0);
+        if (!wasPresent[0] || !store.contains(first)) return null;
+        int dRow = first.row - beforeRow[0];
+        double dStart = first.start - beforeStart[0];
+        if (dRow == 0 && dStart == 0.0) return null;
+        for (int i = 0; i < count; i++) {
+            Note n = touched.get(i);
+            if (!wasPresent[i] || !store.contains(n) || n.length != beforeLength[i] || n.velocity != beforeVelocity[i]) return null;
+            if (n.row - dRow != beforeRow[i] || n.start - dStart != beforeStart[i] || beforeStart[i] + dStart != n.start) return null;
+        }
+        Note[] notes = touched.toArray(new Note[0]);
+        Arrays.sort(notes, (a, b) -> Integer.compare(a.id, b.id));
+        Group key = new Group(notes);
+        Group group = groups.get(key);
+        if (group == null) { group = key; groups.put(key, key); bytes += key.bytes; }
+        group.refs++;
+        return new Translate(group, dRow, dStart);
+    }
+
+    private void resetTransaction() {
+        touchedIndex.clear();
+        touched.clear();
+        undoActions.clear();
+        redoActions.clear();
+    }
+
+    private void evict() {
+        while (bytes > maxBytes) {
+            if (!redo.isEmpty()) discard(redo.removeLast());
+            else if (undo.size() > 1) discard(undo.removeLast());
+            else break;
+        }
+    }
+
+    private void discard(Entry e) {
+        bytes -= e.bytes;
+        if (e instanceof Composite) e = ((Composite) e).notes;
+        if (!(e instanceof Translate)) return;
+        Group group = ((Translate) e).group;
+        if (--group.refs == 0) { groups.remove(group); bytes -= group.bytes; }
+    }
+}
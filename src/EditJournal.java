@@ -0,0 +1,333 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class EditJournal implements NoteStore.EditListener, ClipLayer.Listener {
+    public static final int MAGIC = 0x4A4C5357;
+    public static final short VERSION = 1;
+    private static final int HEADER_BYTES = 8;
+    private static final int RECORD_BYTES = 28;
+    private static final byte ADD = 1, REMOVE = 2, CHANGE = 3, TEMPO = 4, TRACKS = 5, TEMPO_MAP = 6, CLIP = 7, CLIP_ADD = 8, CLIP_REMOVE = 9, CLIPS_CLEARED = 10;
+    private static final long GROUP_COMMIT_NANOS = 200_000_000L;
+    private static final long COMPACT_BYTES = Long.getLong("warpstudio.journalCompactMB", 4L) * 1024 * 1024;
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    private static final class Compaction {
+        final ArrangementSnapshot snap;
+        final int bpm;
+        final byte[] tracks, tempoMap, clips;
+        Compaction(ArrangementSnapshot snap, int bpm, byte[] tracks, byte[] tempoMap, byte[] clips) { this.snap = snap; this.bpm = bpm; this.tracks = tracks; this.tempoMap = tempoMap; this.clips = clips; }
+    }
+
+    private final Path file;
+    private final ArrayDeque<Object> queue = new ArrayDeque<>();
+    private byte[] pending = new byte[RECORD_BYTES * 256];
+    private int pendingBytes = 0;
+    private byte[] trackState, tempoState;
+    // Clips and instances get journal-local ids; a clip's notes are written once, instances refer to it by id.
+    private final IdentityHashMap<Clip, Integer> clipIds = new IdentityHashMap<>();
+    private final IdentityHashMap<ClipInstance, Integer> instanceIds = new IdentityHashMap<>();
+    private int nextClipId = 0, nextInstanceId = 0;
+    private boolean closed = false;
+    private FileChannel channel;
+    private volatile long fileBytes = 0;
+    private volatile long recordsWritten = 0;
+    private volatile long commits = 0;
+    private final Thread writer;
+
+    public EditJournal(Path file, ArrangementSnapshot initial, int bpm) {
+        this.file = file;
+        queue.add(new Compaction(initial, bpm, null, null, null));
+        writer = new Thread(this::writeLoop, "journal-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    public static Path defaultFile() {
+        String configured = System.getProperty("warpstudio.journal");
+        if (configured != null) return configured.isEmpty() || configured.equals("off") ? null : Path.of(configured);
+        return Path.of(System.getProperty("user.home"), ".warpstudio", "session.wsj");
+    }
+
+    public long getFileBytes() { return fileBytes; }
+    public long getRecordsWritten() { return recordsWritten; }
+    public long getCommits() { return commits; }
+    public boolean wantsCompaction() { return fileBytes > COMPACT_BYTES; }
+
+    @Override public void added(Note n) { append(ADD, n.id, n.track, n.row, n.start, n.length, n.velocity); }
+    @Override public void removed(Note n) { append(REMOVE, n.id, n.track, n.row, n.start, n.length, n.velocity); }
+    @Override public void changed(Note n, int oldRow, double oldStart, double oldLength, int oldVelocity) { append(CHANGE, n.id, n.track, n.row, n.start, n.length, n.velocity); }
+
+    public void tempo(int bpm) { append(TEMPO, 0, 0, bpm, 0.0, 0.0, 0); }
+
+    public void tracks(Track[] tracks) {
+        byte[] payload = ProjectFile.encodeTracks(tracks);
+        synchronized (this) {
+            trackState = payload;
+            append(blob(TRACKS, payload));
+        }
+    }
+
+    public void tempoMap(TempoMap map) {
+        byte[] payload = map.format().getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            tempoState = payload;
+            append(blob(TEMPO_MAP, payload));
+        }
+    }
+
+    @Override public synchronized void clipAdded(Clip clip) {
+        if (clipIds.containsKey(clip)) return;
+        clipIds.put(clip, nextClipId);
+        append(blob(CLIP, nextClipId++, ProjectFile.encodeClip(clip)));
+    }
+
+    @Override public synchronized void added(ClipInstance c) {
+        clipAdded(c.clip);
+        instanceIds.put(c, nextInstanceId);
+        append(CLIP_ADD, nextInstanceId++, c.track, clipIds.get(c.clip), c.start, c.transpose, 0);
+    }
+
+    @Override public synchronized void removed(ClipInstance c) {
+        Integer id = instanceIds.remove(c);
+        if (id != null) append(CLIP_REMOVE, id, 0, 0, 0.0, 0.0, 0);
+    }
+
+    @Override public synchronized void cleared() {
+        clipIds.clear();
+        instanceIds.clear();
+        append(CLIPS_CLEARED, 0, 0, 0, 0.0, 0.0, 0);
+    }
+
+    /** Replaces the journaled clips, for a layer that was filled before the journal was listening. */
+    public synchronized void clips(Clip[] clips, ClipInstance[] instances) {
+        cleared();
+        for (Clip c : clips) clipAdded(c);
+        for (ClipInstance c : instances) added(c);
+    }
+
+    /** Every live clip definition, then every live instance, as they'd be journaled from scratch. */
+    private byte[] clipRecords() {
+        if (clipIds.isEmpty()) return null;
+        Clip[] byId = new Clip[nextClipId];
+        for (Map.Entry<Clip, Integer> e : clipIds.entrySet()) byId[e.getValue()] = e.getKey();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int id = 0; id < byId.length; id++) if (byId[id] != null) out.writeBytes(blob(CLIP, id, ProjectFile.encodeClip(byId[id])));
+        ByteBuffer r = ByteBuffer.allocate(RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (Map.Entry<ClipInstance, Integer> e : instanceIds.entrySet()) {
+            ClipInstance c = e.getKey();
+            r.clear();
+            r.put(CLIP_ADD).put((byte) c.track).put((byte) 0).put((byte) 0).putInt(e.getValue()).putInt(clipIds.get(c.clip)).putDouble(c.start).putDouble(c.transpose);
+            out.writeBytes(r.array());
+        }
+        return out.toByteArray();
+    }
+
+    public void compact(ArrangementSnapshot snap, int bpm) {
+        synchronized (this) {
+            if (closed) return;
+            flushPending();
+            queue.add(new Compaction(snap, bpm, trackState, tempoState, clipRecords()));
+            notifyAll();
+        }
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            notifyAll();
+        }
+        try { writer.join(2000); } catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+    }
+
+    private void append(byte kind, int id, int track, int row, double start, double length, int velocity) {
+        synchronized (this) {
+            if (closed) return;
+            if (pendingBytes + RECORD_BYTES > pending.length) pending = Arrays.copyOf(pending, pending.length * 2);
+            ByteBuffer r = ByteBuffer.wrap(pending, pendingBytes, RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            r.put(kind).put((byte) track).put((byte) velocity).put((byte) 0).putInt(id).putInt(row).putDouble(start).putDouble(length);
+            if (pendingBytes == 0) notifyAll();
+            pendingBytes += RECORD_BYTES;
+        }
+    }
+
+    private synchronized void append(byte[] records) {
+        if (closed) return;
+        while (pendingBytes + records.length > pending.length) pending = Arrays.copyOf(pending, pending.length * 2);
+        System.arraycopy(records, 0, pending, pendingBytes, records.length);
+        if (pendingBytes == 0) notifyAll();
+        pendingBytes += records.length;
+    }
+
+    /** A header record whose row field holds the payload length, then the payload padded to whole records. */
+    private static byte[] blob(byte kind, byte[] payload) { return blob(kind, 0, payload); }
+
+    private static byte[] blob(byte kind, int id, byte[] payload) {
+        int padded = (payload.length + RECORD_BYTES - 1) / RECORD_BYTES * RECORD_BYTES;
+        byte[] r = new byte[RECORD_BYTES + padded];
+        ByteBuffer.wrap(r).order(ByteOrder.LITTLE_ENDIAN).put(kind).put((byte) 0).put((byte) 0).put((byte) 0).putInt(id).putInt(payload.length);
+        System.arraycopy(payload, 0, r, RECORD_BYTES, payload.length);
+        return r;
+    }
+
+    private void flushPending() {
+        if (pendingBytes == 0) return;
+        queue.add(Arrays.copyOf(pending, pendingBytes));
+        pendingBytes = 0;
+    }
+
+    private void writeLoop() {
+        Object[] batch;
+        while (true) {
+            boolean last;
+            synchronized (this) {
+                try {
+                    while (!closed && queue.isEmpty() && pendingBytes == 0) wait();
+                    long deadline = System.nanoTime() + GROUP_COMMIT_NANOS;
+                    for (long wait; !closed && (wait = deadline - System.nanoTime()) > 0; ) wait(wait / 1_000_000L + 1);
+                } catch (InterruptedException e) { closed = true; }
+                flushPending();
+                batch = queue.toArray();
+                queue.clear();
+                last = closed;
+            }
+            try {
+                for (Object item : batch) {
+                    if (item instanceof Compaction) rewrite((Compaction) item);
+                    else write((byte[]) item);
+                }
+                if (batch.length > 0 && channel != null) { channel.force(false); commits++; }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            if (last) break;
+        }
+        try { if (channel != null) channel.close(); } catch (IOException e) { e.printStackTrace(); }
+    }
+
+    private void write(byte[] records) throws IOException {
+        if (channel == null) return;
+        ByteBuffer buf = ByteBuffer.wrap(records);
+        while (buf.hasRemaining()) channel.write(buf);
+        fileBytes += records.length;
+        recordsWritten += records.length / RECORD_BYTES;
+    }
+
+    private void rewrite(Compaction c) throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        ArrangementSnapshot snap = c.snap;
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocate(CHUNK_BYTES - CHUNK_BYTES % RECORD_BYTES + HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putShort(VERSION).putShort((short) 0);
+            buf.put(TEMPO).put((byte) 0).put((byte) 0).put((byte) 0).putInt(0).putInt(c.bpm).putDouble(0.0).putDouble(0.0);
+            if (c.tracks != null) put(out, buf, blob(TRACKS, c.tracks));
+            if (c.tempoMap != null) put(out, buf, blob(TEMPO_MAP, c.tempoMap));
+            if (c.clips != null) put(out, buf, c.clips);
+            for (int i = 0; i < snap.size; i++) {
+                if (buf.remaining() < RECORD_BYTES) drain(out, buf);
+                buf.put(ADD).put((byte) snap.tracks[i]).put((byte) snap.velocities[i]).put((byte) 0).putInt(snap.notes[i].id).putInt(snap.rows[i]).putDouble(snap.starts[i]).putDouble(snap.lengths[i]);
+            }
+            drain(out, buf);
+            out.force(false);
+        }
+        if (channel != null) channel.close();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        fileBytes = channel.size();
+    }
+
+    private static void put(FileChannel out, ByteBuffer buf, byte[] records) throws IOException {
+        for (int i = 0; i < records.length; i += RECORD_BYTES) {
+            if (buf.remaining() < RECORD_BYTES) drain(out, buf);
+            buf.put(records, i, RECORD_BYTES);
+        }
+    }
+
+    private static void drain(FileChannel out, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) out.write(buf);
+        buf.clear();
+    }
+
+    public static ProjectFile.Project replay(Path file) throws IOException {
+        if (file == null || !Files.isRegularFile(file)) return null;
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining() && ch.read(header) > 0) {}
+            header.flip();
+            if (header.remaining() < HEADER_BYTES || header.getInt() != MAGIC) throw new IOException("Not a Warp Studio journal: " + file);
+            short version = header.getShort();
+            if (version > VERSION) throw new IOException("Journal version " + version + " is newer than supported version " + VERSION);
+            Map<Integer, Note> live = new HashMap<>();
+            int bpm = 120;
+            TempoMap map = null;
+            Track[] tracks = new Track[0];
+            Map<Integer, Clip> clips = new TreeMap<>();
+            Map<Integer, ClipInstance> instances = new LinkedHashMap<>();
+            ByteBuffer buf = ByteBuffer.allocate(CHUNK_BYTES - CHUNK_BYTES % RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            replay:
+            while (ch.read(buf) > 0 || buf.position() >= RECORD_BYTES) {
+                buf.flip();
+                while (buf.remaining() >= RECORD_BYTES) {
+                    byte kind = buf.get();
+                    int track = buf.get(), velocity = buf.get() & 0x7F;
+                    buf.get();
+                    int id = buf.getInt(), row = buf.getInt();
+                    double start = buf.getDouble(), length = buf.getDouble();
+                    if (kind == TEMPO) { bpm = row; if (map != null) map = map.withInitialTempo(row); continue; }
+                    if (kind == CLIP_ADD) { Clip clip = clips.get(row); if (clip != null) instances.put(id, new ClipInstance(clip, track, start, (int) length)); continue; }
+                    if (kind == CLIP_REMOVE) { instances.remove(id); continue; }
+                    if (kind == CLIPS_CLEARED) { clips.clear(); instances.clear(); continue; }
+                    if (kind == TRACKS || kind == TEMPO_MAP || kind == CLIP) {
+                        ByteBuffer payload = payload(ch, buf, row);
+                        if (payload == null) break replay;
+                        try {
+                            if (kind == TRACKS) tracks = ProjectFile.decodeTracks(payload);
+                            else if (kind == CLIP) clips.put(id, ProjectFile.decodeClip(payload));
+                            else map = TempoMap.parse(StandardCharsets.UTF_8.decode(payload).toString());
+                        } catch (RuntimeException e) {
+                            throw new IOException("Corrupt record in journal: " + file, e);
+                        }
+                        continue;
+                    }
+                    if (kind == REMOVE) { live.remove(id); continue; }
+                    Note n = live.get(id);
+                    if (n == null) { if (kind != ADD && kind != CHANGE) continue; n = new Note(track, row, start, length); live.put(id, n); }
+                    n.track = track; n.row = row; n.start = start; n.length = length; n.velocity = velocity;
+                }
+                buf.compact();
+            }
+            NoteBuffer notes = new NoteBuffer(live.size());
+            for (Note n : live.values()) notes.add(n.track, n.row, n.start, n.length, n.velocity);
+            return new ProjectFile.Project(map != null ? map : TempoMap.constant(bpm), notes, tracks,
+                clips.values().toArray(new Clip[0]), instances.values().toArray(new ClipInstance[0]));
+        }
+    }
+
+    /** Reads a blob payload that may run past the buffered chunk; null when the file ends inside it. */
+    private static ByteBuffer payload(FileChannel ch, ByteBuffer buf, int length) throws IOException {
+        if (length < 0) throw new IOException("Corrupt record in journal");
+        byte[] padded = new byte[(length + RECORD_BYTES - 1) / RECORD_BYTES * RECORD_BYTES];
+        int buffered = Math.min(buf.remaining(), padded.length);
+        buf.get(padded, 0, buffered);
+        ByteBuffer rest = ByteBuffer.wrap(padded, buffered, padded.length - buffered);
+        while (rest.hasRemaining() && ch.read(rest) > 0) {}
+        return rest.hasRemaining() ? null : ByteBuffer.wrap(padded, 0, length);
+    }
+}
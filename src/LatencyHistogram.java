@@ -0,0 +1,92 @@
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class LatencyHistogram {
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_MAGNITUDE = 40;
+    private static final int OVERFLOW = (MAX_MAGNITUDE + 2) * SUB_COUNT;
+    private static final int BUCKETS = OVERFLOW + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    public void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet(indexOf(nanos));
+        count.incrementAndGet();
+        sum.addAndGet(nanos);
+        if (nanos < min.get()) min.accumulateAndGet(nanos, Math::min);
+        if (nanos > max.get()) max.accumulateAndGet(nanos, Math::max);
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    public long count() { return count.get(); }
+    public long min() { return count() == 0 ? 0 : min.get(); }
+    public long max() { return count() == 0 ? 0 : max.get(); }
+    public double mean() { long n = count(); return n == 0 ? 0.0 : sum.get() / (double) n; }
+
+    public long percentile(double p) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long c : snapshot) total += c;
+        if (total == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(p / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) return Math.min(highestEquivalent(i), max());
+        }
+        return max();
+    }
+
+    public void writeDistribution(PrintWriter out, String name) {
+        long[] snapshot = snapshot();
+        long total = 0;
+        for (long c : snapshot) total += c;
+        out.printf("# %s: %s%n", name, this);
+        out.printf("%14s %12s %12s%n", "Value(ms)", "Percentile", "TotalCount");
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (snapshot[i] == 0) continue;
+            seen += snapshot[i];
+            out.printf("%14.4f %12.6f %12d%n", highestEquivalent(i) / 1e6, seen / (double) total, seen);
+        }
+        out.println();
+    }
+
+    @Override public String toString() {
+        return String.format("n=%d mean=%.3fms p50=%.3fms p99=%.3fms p99.9=%.3fms max=%.3fms", count(), mean() / 1e6, percentile(50) / 1e6, percentile(99) / 1e6, percentile(99.9) / 1e6, max() / 1e6);
+    }
+
+    private long[] snapshot() {
+        long[] out = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) out[i] = counts.get(i);
+        return out;
+    }
+
+    static int indexOf(long value) {
+        int magnitude = Math.max(0, 63 - Long.numberOfLeadingZeros(value) - SUB_BITS);
+        if (magnitude > MAX_MAGNITUDE) return OVERFLOW;
+        return (magnitude << SUB_BITS) + (int) (value >>> magnitude);
+    }
+
+    static long highestEquivalent(int index) {
+        if (index < 2 * SUB_COUNT) return index;
+        if (index >= OVERFLOW) return Long.MAX_VALUE;
+        int magnitude = (index >> SUB_BITS) - 1;
+        long sub = (index & (SUB_COUNT - 1)) + SUB_COUNT;
+        return ((sub + 1) << magnitude) - 1;
+    }
+}
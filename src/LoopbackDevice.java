@@ -0,0 +1,18 @@
+import javax.sound.midi.*;
+
+public class LoopbackDevice implements Transmitter {
+    private volatile Receiver receiver;
+
+    @Override public void setReceiver(Receiver receiver) { this.receiver = receiver; }
+    @Override public Receiver getReceiver() { return receiver; }
+    @Override public void close() { receiver = null; }
+
+    public void noteOn(int channel, int midi, int velocity) { send(ShortMessage.NOTE_ON, channel, midi, velocity); }
+    public void noteOff(int channel, int midi) { send(ShortMessage.NOTE_OFF, channel, midi, 0); }
+
+    public void send(int command, int channel, int data1, int data2) {
+        Receiver r = receiver;
+        if (r == null) return;
+        try { r.send(new ShortMessage(command, channel, data1, data2), -1); } catch (InvalidMidiDataException e) { throw new IllegalArgumentException(e); }
+    }
+}
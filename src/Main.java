@@ -1,5 +1,9 @@
 public class Main {
     public static void main(String[] args) {
+        if (java.util.Arrays.asList(args).contains("--batch")) {
+            System.setProperty("java.awt.headless", "true");
+            System.exit(BatchRenderer.run(args));
+        }
         javax.swing.SwingUtilities.invokeLater(() -> new MainFrame());
     }
 }
@@ -5,33 +5,61 @@ import java.util.List;
 import javax.swing.*;
 
 public class MainFrame extends JFrame {
-    private final int NUM_MEASURES = 16;
+    private static final int BEATS_PER_BAR = 4;
+    private static final int MIN_TIMELINE_BARS = 4;
+    private static final int MAX_TIMELINE_BEATS = 10000 * BEATS_PER_BAR;
+    private static final int MAX_BULK_RETRIES = 3;
+    private int timelineBeats = MIN_TIMELINE_BARS * BEATS_PER_BAR;
     private String[] NOTES;
-    private final List<Note> notes = new ArrayList<>();
-    private final List<Note> selectedNotes = new ArrayList<>();
+    private NoteStore notes;
+    private final SelectionModel selectedNotes = new SelectionModel();
     private final List<Note> clipboard = new ArrayList<>();
+    private final LatencyHistogram bulkPass = new LatencyHistogram();
+    private final LatencyHistogram bulkApply = new LatencyHistogram();
 
     private PianoRollPanel pianoRoll;
     private MidiManager midiManager;
+    private AuditionEngine audition;
+    private TrackList tracks;
+    private EditHistory history;
+    private ClipLayer clipLayer;
+    private EditJournal journal;
+    private volatile int currentTrack = 0;
     private volatile boolean isPlaying = false;
-    private int playCycle = 0;
+    private volatile PlaybackScheduler scheduler;
     private final int DEFAULT_BPM = 120;
-    private int BPM = DEFAULT_BPM;
-    private int msPerBeat = 60000 / BPM;
+    private TempoMap tempoMap = TempoMap.constant(DEFAULT_BPM);
 
     private JButton playBtn;
     private JButton stopBtn;
     private JSpinner bpmSpinner;
+    private JSpinner barsSpinner;
     private JToggleButton previewToggle;
     private JToggleButton loopBtn;
     private volatile boolean loopEnabled = false;
 
     private JScrollPane scrollPane;
     private JToggleButton metronomeToggle;
+    private JComboBox<Track> trackCombo;
+    private JSpinner programSpinner;
+    private JSpinner volumeSpinner;
+    private JToggleButton muteToggle;
+    private JToggleButton soloToggle;
+    private JToggleButton metricsToggle;
+    private JComponent metricsOverlay;
+    private Timer metricsTimer;
+    private MidiRecorder recorder;
+    private JComboBox<Object> inputCombo;
+    private JToggleButton recordToggle;
+    private Timer recordTimer;
+    private int recordTrack = -1;
 
     public MainFrame() {
-        NOTES = buildNoteNames(1, 6);
-        reverseArray(NOTES);
+        NOTES = PitchTable.NAMES;
+        notes = new NoteStore(NOTES.length);
+        notes.setChangeListener(() -> SwingUtilities.invokeLater(this::arrangementChanged));
+        history = new EditHistory(notes, Long.getLong("warpstudio.undoMemoryMB", 64L) * 1024 * 1024);
+        clipLayer = new ClipLayer(NOTES.length);
 
         setTitle("Mini Piano Roll");
         setSize(1000, 700);
@@ -39,6 +67,78 @@ public class MainFrame extends JFrame {
         setLayout(new BorderLayout());
 
         try { midiManager = new MidiManager(); } catch (Exception e) { e.printStackTrace(); }
+        if (midiManager != null) audition = AuditionEngine.create(midiManager);
+        tracks = new TrackList(midiManager);
+        tracks.add("Track 1", 0);
+
+        JMenuBar menuBar = new JMenuBar();
+        JMenu fileMenu = new JMenu("File");
+        JMenuItem openItem = new JMenuItem("Open Project...");
+        JMenuItem saveItem = new JMenuItem("Save Project...");
+        JMenuItem importMidiItem = new JMenuItem("Import MIDI...");
+        JMenuItem exportMidiItem = new JMenuItem("Export MIDI...");
+        JMenuItem exportWavItem = new JMenuItem("Export WAV...");
+        JMenuItem dumpMetricsItem = new JMenuItem("Dump Metrics...");
+        fileMenu.add(openItem);
+        fileMenu.add(saveItem);
+        fileMenu.addSeparator();
+        fileMenu.add(importMidiItem);
+        fileMenu.add(exportMidiItem);
+        fileMenu.add(exportWavItem);
+        fileMenu.addSeparator();
+        fileMenu.add(dumpMetricsItem);
+        menuBar.add(fileMenu);
+        JMenu editMenu = new JMenu("Edit");
+        JMenuItem undoItem = new JMenuItem("Undo");
+        JMenuItem redoItem = new JMenuItem("Redo");
+        editMenu.add(undoItem);
+        editMenu.add(redoItem);
+        editMenu.addSeparator();
+        JMenu transformMenu = new JMenu("Transform Selection");
+        JMenuItem quantizeItem = new JMenuItem("Quantize...");
+        JMenuItem transposeItem = new JMenuItem("Transpose...");
+        JMenuItem humanizeItem = new JMenuItem("Humanize...");
+        JMenuItem velocityItem = new JMenuItem("Scale Velocity...");
+        transformMenu.add(quantizeItem);
+        transformMenu.add(transposeItem);
+        transformMenu.add(humanizeItem);
+        transformMenu.add(velocityItem);
+        editMenu.add(transformMenu);
+        JMenu clipMenu = new JMenu("Clips");
+        JMenuItem makeClipItem = new JMenuItem("Make Clip from Selection");
+        JMenuItem placeClipItem = new JMenuItem("Place Clip...");
+        JMenuItem removeClipsItem = new JMenuItem("Remove Clips in Range...");
+        clipMenu.add(makeClipItem);
+        clipMenu.add(placeClipItem);
+        clipMenu.add(removeClipsItem);
+        editMenu.add(clipMenu);
+        JMenuItem tempoItem = new JMenuItem("Tempo & Meter...");
+        editMenu.add(tempoItem);
+        tempoItem.addActionListener(e -> editTempoMap());
+        makeClipItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_G, InputEvent.CTRL_DOWN_MASK));
+        makeClipItem.addActionListener(e -> makeClip());
+        placeClipItem.addActionListener(e -> placeClip());
+        removeClipsItem.addActionListener(e -> removeClips());
+        quantizeItem.addActionListener(e -> { double[] v = askNumbers("Quantize", new String[] {"Grid (beats):", "Strength (%):"}, new String[] {"0.25", "100"}); if (v != null && v[0] > 0) runBulkEdit(BulkEdits.quantize(v[0], v[1] / 100.0)); });
+        transposeItem.addActionListener(e -> { double[] v = askNumbers("Transpose", new String[] {"Semitones:"}, new String[] {"12"}); if (v != null) runBulkEdit(BulkEdits.transpose((int) v[0])); });
+        humanizeItem.addActionListener(e -> { double[] v = askNumbers("Humanize", new String[] {"Timing (beats):", "Velocity (+/-):"}, new String[] {"0.02", "10"}); if (v != null) runBulkEdit(BulkEdits.humanize(v[0], (int) v[1], System.nanoTime())); });
+        velocityItem.addActionListener(e -> { double[] v = askNumbers("Scale Velocity", new String[] {"Factor (%):", "Offset:"}, new String[] {"100", "0"}); if (v != null) runBulkEdit(BulkEdits.scaleVelocity(v[0] / 100.0, (int) v[1])); });
+        menuBar.add(editMenu);
+        undoItem.addActionListener(e -> undoRedo(true));
+        redoItem.addActionListener(e -> undoRedo(false));
+        undoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK));
+        redoItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_Y, InputEvent.CTRL_DOWN_MASK));
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_Z, InputEvent.CTRL_DOWN_MASK | InputEvent.SHIFT_DOWN_MASK), "redo");
+        getRootPane().getActionMap().put("redo", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { undoRedo(false); } });
+        setJMenuBar(menuBar);
+        openItem.addActionListener(e -> openProject());
+        saveItem.addActionListener(e -> saveProject());
+        importMidiItem.addActionListener(e -> importMidi());
+        exportMidiItem.addActionListener(e -> exportMidi());
+        exportWavItem.addActionListener(e -> exportWav());
+        dumpMetricsItem.addActionListener(e -> dumpMetrics());
+        openItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_O, InputEvent.CTRL_DOWN_MASK));
+        saveItem.setAccelerator(KeyStroke.getKeyStroke(KeyEvent.VK_S, InputEvent.CTRL_DOWN_MASK));
 
         JToolBar toolbar = new JToolBar();
         toolbar.setFloatable(false);
@@ -51,9 +151,15 @@ public class MainFrame extends JFrame {
 
         toolbar.addSeparator();
         toolbar.add(new JLabel("BPM:"));
-        bpmSpinner = new JSpinner(new SpinnerNumberModel(BPM, 20, 300, 1));
+        bpmSpinner = new JSpinner(new SpinnerNumberModel(DEFAULT_BPM, 20, 300, 1));
         toolbar.add(bpmSpinner);
 
+        toolbar.addSeparator();
+        toolbar.add(new JLabel("Bars:"));
+        barsSpinner = new JSpinner(new SpinnerNumberModel(MIN_TIMELINE_BARS, 1, MAX_TIMELINE_BEATS / BEATS_PER_BAR, 1));
+        toolbar.add(barsSpinner);
+        barsSpinner.addChangeListener(e -> updateTimeline());
+
         JSlider zoomSlider = new JSlider(20, 120, 60);
         zoomSlider.setPreferredSize(new Dimension(150, 20));
         toolbar.addSeparator();
@@ -71,24 +177,77 @@ public class MainFrame extends JFrame {
         metronomeToggle = new JToggleButton("Metronome");
         toolbar.addSeparator();
         toolbar.add(metronomeToggle);
+        metronomeToggle.addActionListener(e -> { PlaybackScheduler s = scheduler; if (s != null) s.setMetronome(metronomeToggle.isSelected()); });
 
         loopBtn = new JToggleButton("Loop");
         toolbar.addSeparator();
         toolbar.add(loopBtn);
-        loopBtn.addActionListener(e -> loopEnabled = loopBtn.isSelected());
+        loopBtn.addActionListener(e -> { loopEnabled = loopBtn.isSelected(); PlaybackScheduler s = scheduler; if (s != null) s.setLoop(loopEnabled); });
+
+        metricsToggle = new JToggleButton("Metrics");
+        toolbar.addSeparator();
+        toolbar.add(metricsToggle);
+        metricsToggle.addActionListener(e -> setMetricsVisible(metricsToggle.isSelected()));
+
+        JToolBar trackBar = new JToolBar();
+        trackBar.setFloatable(false);
+        trackBar.add(new JLabel("Track:"));
+        trackCombo = new JComboBox<>(tracks.toArray());
+        trackCombo.setMaximumSize(new Dimension(160, 28));
+        trackBar.add(trackCombo);
+        JButton addTrackBtn = new JButton("Add Track");
+        trackBar.add(addTrackBtn);
+        trackBar.addSeparator();
+        trackBar.add(new JLabel("Program:"));
+        programSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 127, 1));
+        trackBar.add(programSpinner);
+        trackBar.add(new JLabel("Volume:"));
+        volumeSpinner = new JSpinner(new SpinnerNumberModel(100, 0, 127, 1));
+        trackBar.add(volumeSpinner);
+        trackBar.addSeparator();
+        muteToggle = new JToggleButton("Mute");
+        soloToggle = new JToggleButton("Solo");
+        trackBar.add(muteToggle);
+        trackBar.add(soloToggle);
+        trackCombo.addActionListener(e -> selectTrack(trackCombo.getSelectedIndex()));
+        addTrackBtn.addActionListener(e -> addTrack());
+        programSpinner.addChangeListener(e -> { tracks.setProgram(tracks.get(currentTrack), (Integer) programSpinner.getValue()); tracksChanged(); });
+        volumeSpinner.addChangeListener(e -> { tracks.setVolume(tracks.get(currentTrack), (Integer) volumeSpinner.getValue()); tracksChanged(); });
+        muteToggle.addActionListener(e -> { tracks.setMute(tracks.get(currentTrack), muteToggle.isSelected()); tracksChanged(); });
+        soloToggle.addActionListener(e -> { tracks.setSolo(tracks.get(currentTrack), soloToggle.isSelected()); tracksChanged(); });
 
-        add(toolbar, BorderLayout.NORTH);
+        recorder = new MidiRecorder(midiManager);
+        trackBar.addSeparator();
+        trackBar.add(new JLabel("Input:"));
+        inputCombo = new JComboBox<>();
+        inputCombo.addItem("(none)");
+        for (javax.sound.midi.MidiDevice.Info info : MidiRecorder.inputs()) inputCombo.addItem(info);
+        inputCombo.setMaximumSize(new Dimension(200, 28));
+        trackBar.add(inputCombo);
+        recordToggle = new JToggleButton("Record");
+        trackBar.add(recordToggle);
+        inputCombo.addActionListener(e -> connectInput());
+        recordToggle.addActionListener(e -> { if (recordToggle.isSelected()) startRecording(); else stopRecording(); });
+        recordTimer = new Timer(30, e -> mergeRecorded(false));
+
+        JPanel bars = new JPanel(new GridLayout(2, 1));
+        bars.add(toolbar);
+        bars.add(trackBar);
+        add(bars, BorderLayout.NORTH);
 
         pianoRoll = new PianoRollPanel();
+        pianoRoll.setClips(clipLayer);
         scrollPane = new JScrollPane(pianoRoll, JScrollPane.VERTICAL_SCROLLBAR_NEVER, JScrollPane.HORIZONTAL_SCROLLBAR_AS_NEEDED);
         scrollPane.getVerticalScrollBar().setUnitIncrement(16);
+        scrollPane.getHorizontalScrollBar().setUnitIncrement(16);
+        scrollPane.getViewport().setScrollMode(JViewport.BLIT_SCROLL_MODE);
         add(scrollPane, BorderLayout.CENTER);
 
         pianoRoll.addMouseWheelListener(e -> handleMouseWheel(e));
 
         playBtn.addActionListener(e -> startPlayback((Integer) bpmSpinner.getValue()));
         stopBtn.addActionListener(e -> stopPlayback());
-        clearBtn.addActionListener(e -> { synchronized (notes) { notes.clear(); selectedNotes.clear(); } pianoRoll.revalidate(); pianoRoll.repaint(); });
+        clearBtn.addActionListener(e -> { synchronized (notes) { history.transaction(notes::clear); selectedNotes.clear(); } pianoRoll.revalidate(); pianoRoll.repaint(); });
         zoomSlider.addChangeListener(e -> { pianoRoll.setCellWidth(zoomSlider.getValue()); pianoRoll.revalidate(); pianoRoll.repaint(); });
 
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke("SPACE"), "togglePlay");
@@ -100,33 +259,41 @@ public class MainFrame extends JFrame {
         getRootPane().getActionMap().put("bpmDown", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { bpmSpinner.setValue((Integer)bpmSpinner.getValue() - 1); } });
 
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_C, InputEvent.CTRL_DOWN_MASK), "copy");
-        getRootPane().getActionMap().put("copy", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { synchronized (notes) { clipboard.clear(); for (Note n : selectedNotes) clipboard.add(new Note(n.row, n.start, n.length)); } } });
+        getRootPane().getActionMap().put("copy", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { synchronized (notes) { clipboard.clear(); for (Note n : selectedNotes) clipboard.add(copyOf(n, n.track, n.start)); } } });
 
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_V, InputEvent.CTRL_DOWN_MASK), "paste");
-        getRootPane().getActionMap().put("paste", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { synchronized (notes) { if (clipboard.isEmpty()) return; double offset = 1.0; List<Note> pasted = new ArrayList<>(); for (Note c : clipboard) { double newStart = Math.min(NUM_MEASURES - c.length, c.start + offset); Note copy = new Note(c.row, newStart, c.length); notes.add(copy); pasted.add(copy); } selectedNotes.clear(); selectedNotes.addAll(pasted); if (previewToggle.isSelected() && !pasted.isEmpty()) playPreviewNotes(pasted, 300); } pianoRoll.revalidate(); pianoRoll.repaint(); } });
+        getRootPane().getActionMap().put("paste", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { synchronized (notes) { if (clipboard.isEmpty()) return; double offset = 1.0; List<Note> pasted = new ArrayList<>(); history.begin(); for (Note c : clipboard) { double newStart = Math.min(MAX_TIMELINE_BEATS - c.length, c.start + offset); Note copy = copyOf(c, currentTrack, newStart); notes.add(copy); pasted.add(copy); } history.commit(); selectedNotes.clear(); selectedNotes.addAll(pasted); if (previewToggle.isSelected() && !pasted.isEmpty()) playPreviewNotes(pasted, 300); } pianoRoll.revalidate(); pianoRoll.repaint(); } });
 
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_X, InputEvent.CTRL_DOWN_MASK), "cut");
-        getRootPane().getActionMap().put("cut", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { synchronized (notes) { clipboard.clear(); for (Note n : selectedNotes) clipboard.add(new Note(n.row, n.start, n.length)); notes.removeAll(selectedNotes); selectedNotes.clear(); } pianoRoll.revalidate(); pianoRoll.repaint(); } });
+        getRootPane().getActionMap().put("cut", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { synchronized (notes) { clipboard.clear(); for (Note n : selectedNotes) clipboard.add(copyOf(n, n.track, n.start)); history.transaction(() -> notes.removeAll(selectedNotes)); selectedNotes.clear(); } pianoRoll.revalidate(); pianoRoll.repaint(); } });
 
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_DELETE, 0), "delete");
-        getRootPane().getActionMap().put("delete", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { synchronized (notes) { notes.removeAll(selectedNotes); selectedNotes.clear(); } pianoRoll.revalidate(); pianoRoll.repaint(); } });
+        getRootPane().getActionMap().put("delete", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { synchronized (notes) { history.transaction(() -> notes.removeAll(selectedNotes)); selectedNotes.clear(); } pianoRoll.revalidate(); pianoRoll.repaint(); } });
 
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_D, InputEvent.CTRL_DOWN_MASK), "duplicate");
-        getRootPane().getActionMap().put("duplicate", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { duplicateSelection(); } });
+        getRootPane().getActionMap().put("duplicate", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { history.transaction(MainFrame.this::duplicateSelection); } });
 
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_UP, InputEvent.SHIFT_DOWN_MASK), "octaveUp");
-        getRootPane().getActionMap().put("octaveUp", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { octaveShiftSelected(-12); } });
+        getRootPane().getActionMap().put("octaveUp", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { history.transaction(() -> octaveShiftSelected(-12)); } });
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, InputEvent.SHIFT_DOWN_MASK), "octaveDown");
-        getRootPane().getActionMap().put("octaveDown", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { octaveShiftSelected(12); } });
+        getRootPane().getActionMap().put("octaveDown", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { history.transaction(() -> octaveShiftSelected(12)); } });
 
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_LEFT, 0), "moveLeft");
-        getRootPane().getActionMap().put("moveLeft", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { moveSelectionBy(-1, 0); } });
+        getRootPane().getActionMap().put("moveLeft", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { history.transaction(() -> moveSelectionBy(-1, 0)); } });
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_RIGHT, 0), "moveRight");
-        getRootPane().getActionMap().put("moveRight", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { moveSelectionBy(1, 0); } });
+        getRootPane().getActionMap().put("moveRight", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { history.transaction(() -> moveSelectionBy(1, 0)); } });
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_UP, 0), "moveUp");
-        getRootPane().getActionMap().put("moveUp", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { moveSelectionBy(0, -1); } });
+        getRootPane().getActionMap().put("moveUp", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { history.transaction(() -> moveSelectionBy(0, -1)); } });
         getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW).put(KeyStroke.getKeyStroke(KeyEvent.VK_DOWN, 0), "moveDown");
-        getRootPane().getActionMap().put("moveDown", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { moveSelectionBy(0, 1); } });
+        getRootPane().getActionMap().put("moveDown", new AbstractAction() { @Override public void actionPerformed(ActionEvent e) { history.transaction(() -> moveSelectionBy(0, 1)); } });
+
+        addWindowListener(new WindowAdapter() { @Override public void windowClosing(WindowEvent e) { if (journal != null) journal.close(); } });
+        bpmSpinner.addChangeListener(e -> {
+            int bpm = (Integer) bpmSpinner.getValue();
+            if (bpm != Math.round(tempoMap.initialBpm())) setTempoMap(tempoMap.withInitialTempo(bpm));
+        });
+        new Timer(10_000, e -> { if (journal != null && journal.wantsCompaction()) compactJournal(); }).start();
+        openJournal(EditJournal.defaultFile());
 
         setVisible(true);
 
@@ -139,7 +306,6 @@ public class MainFrame extends JFrame {
             int deltaH = steps * 4;
             int newH = Math.max(12, Math.min(80, pianoRoll.getCellHeight() + deltaH));
             pianoRoll.setCellHeight(newH);
-            pianoRoll.setPreferredSize(new Dimension(NUM_MEASURES * pianoRoll.getCellWidth() + 100, NOTES.length * pianoRoll.getCellHeight()));
             pianoRoll.revalidate();
             pianoRoll.repaint();
         } else if (e.isControlDown()) {
@@ -151,7 +317,6 @@ public class MainFrame extends JFrame {
             double centerRel = prefBefore.height > 0 ? (double)(viewRect.y + viewRect.height / 2) / (double)prefBefore.height : 0.5;
             int newW = Math.max(20, pianoRoll.getCellWidth() + delta);
             pianoRoll.setCellWidth(newW);
-            pianoRoll.setPreferredSize(new Dimension(NUM_MEASURES * pianoRoll.getCellWidth() + 100, NOTES.length * pianoRoll.getCellHeight()));
             pianoRoll.revalidate();
             pianoRoll.repaint();
             SwingUtilities.invokeLater(() -> {
@@ -169,15 +334,152 @@ public class MainFrame extends JFrame {
         }
     }
 
-    private static String[] buildNoteNames(int lowOctave, int highOctave) {
-        String[] scale = new String[] {"C","C#","D","D#","E","F","F#","G","G#","A","A#","B"};
-        List<String> list = new ArrayList<>();
-        for (int o = lowOctave; o <= highOctave; o++) for (String s : scale) list.add(s + o);
-        return list.toArray(new String[0]);
+    private void openProject() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Warp Studio project", "wsp"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        java.nio.file.Path source = chooser.getSelectedFile().toPath();
+        new Thread(() -> {
+            try {
+                loadArrangement(ProjectFile.load(source));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Open failed: " + ex.getMessage(), "Open Project", JOptionPane.ERROR_MESSAGE));
+            }
+        }, "project-open").start();
+    }
+
+    private void importMidi() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setFileFilter(new javax.swing.filechooser.FileNameExtensionFilter("Standard MIDI File", "mid", "midi"));
+        if (chooser.showOpenDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        java.nio.file.Path source = chooser.getSelectedFile().toPath();
+        new Thread(() -> {
+            try {
+                loadArrangement(MidiFileIO.read(source));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Import failed: " + ex.getMessage(), "Import MIDI", JOptionPane.ERROR_MESSAGE));
+            }
+        }, "midi-import").start();
     }
 
-    private static void reverseArray(String[] arr) {
-        for (int i = 0, j = arr.length - 1; i < j; i++, j--) { String t = arr[i]; arr[i] = arr[j]; arr[j] = t; }
+    private void openJournal(java.nio.file.Path file) {
+        if (file == null) return;
+        // Replayed before the window is shown: the recovered notes can't clobber user edits, and the
+        // journal is listening before the first edit is possible.
+        ProjectFile.Project recovered;
+        try {
+            recovered = EditJournal.replay(file);
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Could not recover the last session from " + file + ":\n" + ex.getMessage() + "\n\nThe file is left untouched and this session will not be journaled.", "Session Recovery", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (recovered != null) applyArrangement(recovered.notes.toNotes(), recovered);
+        synchronized (notes) { journal = new EditJournal(file, notes.publish(), (Integer) bpmSpinner.getValue()); notes.addEditListener(journal); }
+        tracksChanged();
+        journal.tempoMap(tempoMap);
+        clipLayer.setListener(journal);
+        journal.clips(clipLayer.clips(), clipLayer.instances());
+    }
+
+    private void tracksChanged() {
+        if (journal != null) journal.tracks(tracks.toArray());
+    }
+
+    private void compactJournal() {
+        synchronized (notes) { journal.compact(notes.publish(), (Integer) bpmSpinner.getValue()); }
+    }
+
+    private void loadArrangement(ProjectFile.Project project) {
+        Note[] loaded = project.notes.toNotes();
+        SwingUtilities.invokeLater(() -> {
+            applyArrangement(loaded, project);
+            if (journal != null) compactJournal();
+        });
+    }
+
+    private void applyArrangement(Note[] loaded, ProjectFile.Project project) {
+        stopPlayback();
+        synchronized (notes) { history.runUntracked(() -> { notes.clear(); notes.addAll(loaded); }); history.clear(); selectedNotes.clear(); }
+        clipLayer.clear();
+        for (Clip c : project.clips) clipLayer.addClip(c);
+        for (ClipInstance c : project.instances) { clipLayer.addClip(c.clip); clipLayer.add(c); }
+        if (project.tracks.length > 0) tracks.restore(project.tracks);
+        int maxTrack = 0;
+        for (Note n : loaded) maxTrack = Math.max(maxTrack, n.track);
+        for (ClipInstance c : project.instances) maxTrack = Math.max(maxTrack, c.track);
+        while (tracks.size() <= maxTrack && tracks.size() < TrackList.MAX_TRACKS) tracks.add("Track " + (tracks.size() + 1), 0);
+        int keep = Math.min(currentTrack, tracks.size() - 1);
+        trackCombo.removeAllItems();
+        for (Track t : tracks.toArray()) trackCombo.addItem(t);
+        trackCombo.setSelectedIndex(keep);
+        tracksChanged();
+        setTempoMap(project.tempo);
+        bpmSpinner.setValue((int) Math.max(20, Math.min(300, Math.round(project.tempo.initialBpm()))));
+        pianoRoll.revalidate();
+        pianoRoll.repaint();
+    }
+
+    private void exportMidi() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new java.io.File("arrangement.mid"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        java.nio.file.Path target = chooser.getSelectedFile().toPath();
+        ArrangementSnapshot snap;
+        synchronized (notes) { snap = notes.publish(); }
+        TempoMap tempo = tempoMap;
+        Track[] settings = tracks.copies();
+        new Thread(() -> {
+            try {
+                MidiFileIO.write(target, tempo, settings, flatten(snap), 1);
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Export failed: " + ex.getMessage(), "Export MIDI", JOptionPane.ERROR_MESSAGE));
+            }
+        }, "midi-export").start();
+    }
+
+    private void saveProject() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new java.io.File("arrangement.wsp"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        java.nio.file.Path target = chooser.getSelectedFile().toPath();
+        ArrangementSnapshot snap;
+        synchronized (notes) { snap = notes.publish(); }
+        TempoMap tempo = tempoMap;
+        Track[] settings = tracks.copies();
+        Clip[] clips = clipLayer.clips();
+        ClipInstance[] instances = clipLayer.instances();
+        new Thread(() -> {
+            try {
+                ProjectFile.save(target, new ProjectFile.Project(tempo, NoteBuffer.of(snap), settings, clips, instances));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Save failed: " + ex.getMessage(), "Save Project", JOptionPane.ERROR_MESSAGE));
+            }
+        }, "project-save").start();
+    }
+
+    private void exportWav() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new java.io.File("arrangement.wav"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        java.nio.file.Path target = chooser.getSelectedFile().toPath();
+        ArrangementSnapshot snap;
+        synchronized (notes) { snap = notes.publish(); }
+        TempoMap tempo = tempoMap;
+        int beats = timelineBeats;
+        new Thread(() -> {
+            try {
+                OfflineRenderer.Result result = OfflineRenderer.render(flatten(snap), tempo, beats, target);
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Rendered " + result));
+            } catch (Exception ex) {
+                ex.printStackTrace();
+                SwingUtilities.invokeLater(() -> JOptionPane.showMessageDialog(this, "Export failed: " + ex.getMessage(), "Export WAV", JOptionPane.ERROR_MESSAGE));
+            }
+        }, "wav-export").start();
     }
 
     private void centerOnNoteName(String noteName) {
@@ -202,8 +504,8 @@ public class MainFrame extends JFrame {
             List<Note> newCopies = new ArrayList<>();
             for (Note s : new ArrayList<>(selectedNotes)) {
                 double rel = s.start - minStart;
-                double newStart = Math.min(NUM_MEASURES - s.length, maxEnd + rel);
-                Note copy = new Note(s.row, newStart, s.length);
+                double newStart = Math.min(MAX_TIMELINE_BEATS - s.length, maxEnd + rel);
+                Note copy = copyOf(s, s.track, newStart);
                 notes.add(copy);
                 newCopies.add(copy);
             }
@@ -222,7 +524,7 @@ public class MainFrame extends JFrame {
                 int newRow = s.row + deltaRows;
                 if (newRow < 0) newRow = 0;
                 if (newRow >= NOTES.length) newRow = NOTES.length - 1;
-                s.row = newRow;
+                notes.move(s, newRow, s.start);
             }
             if (previewToggle != null && previewToggle.isSelected()) playPreviewNotes(new ArrayList<>(selectedNotes), 300);
         }
@@ -237,12 +539,11 @@ public class MainFrame extends JFrame {
             for (Note s : selectedNotes) {
                 int baseCol = (int)Math.round(s.start);
                 double newStart = baseCol + deltaCols;
-                newStart = Math.max(0.0, Math.min(NUM_MEASURES - s.length, newStart));
-                s.start = newStart;
+                newStart = Math.max(0.0, Math.min(MAX_TIMELINE_BEATS - s.length, newStart));
                 int newRow = s.row + deltaRows;
                 if (newRow < 0) newRow = 0;
                 if (newRow >= NOTES.length) newRow = NOTES.length - 1;
-                s.row = newRow;
+                notes.move(s, newRow, newStart);
                 s.lastPreviewCol = (int)Math.floor(s.start + 1e-6);
                 previewList.add(s);
             }
@@ -253,78 +554,358 @@ public class MainFrame extends JFrame {
     }
 
     private synchronized void startPlayback(int bpm) {
-        if (isPlaying) return;
-        BPM = bpm;
-        msPerBeat = 60000 / BPM;
+        if (isPlaying || midiManager == null) return;
+        if (bpm != Math.round(tempoMap.initialBpm())) tempoMap = tempoMap.withInitialTempo(bpm);
         isPlaying = true;
         playBtn.setEnabled(false);
         stopBtn.setEnabled(true);
-        playCycle++;
-        new Thread(this::playWithCursor).start();
+        scheduler = new PlaybackScheduler(midiManager, tempoMap, timelineBeats, this::scheduleWindow);
+        scheduler.setLoop(loopEnabled);
+        scheduler.setMetronome(metronomeToggle.isSelected());
+        pianoRoll.getFrameTimes().reset();
+        pianoRoll.getLockWait().reset();
+        new Thread(this::playWithCursor, "playback").start();
     }
 
     private synchronized void stopPlayback() {
         if (!isPlaying) return;
+        stopRecording();
         isPlaying = false;
-        if (midiManager != null) midiManager.allNotesOff();
+        if (scheduler != null) scheduler.stop();
+        if (midiManager != null) { midiManager.cancelPending(); midiManager.allNotesOff(); }
         playBtn.setEnabled(true);
         stopBtn.setEnabled(false);
     }
 
     private void playWithCursor() {
-        final double EPS = 1e-6;
-        long totalMs = (long)(NUM_MEASURES * msPerBeat);
-        long t0 = System.currentTimeMillis();
-        double lastPos = -EPS;
-        while (isPlaying) {
-            long now = System.currentTimeMillis();
-            long elapsed = now - t0;
-            if (elapsed >= totalMs) {
-                if (loopEnabled) { playCycle++; t0 = System.currentTimeMillis(); lastPos = -EPS; } else break;
-            }
-            double pos = elapsed / (double) msPerBeat;
-            pianoRoll.setPlayHeadPos(pos);
-            int lastMeasure = (int)Math.floor(lastPos);
-            int curMeasure = (int)Math.floor(pos);
-            if (metronomeToggle != null && metronomeToggle.isSelected()) {
-                for (int m = lastMeasure + 1; m <= curMeasure; m++) {
-                    boolean accent = (m % 4 == 0);
-                    if (midiManager != null) midiManager.playMetronomeTick(accent);
+        PlaybackScheduler s = scheduler;
+        Thread.currentThread().setPriority(Thread.MAX_PRIORITY);
+        s.run(pianoRoll::setPlayHeadPos);
+        if (scheduler != s) return;
+        pianoRoll.setPlayHeadPos(-1);
+        isPlaying = false;
+        SwingUtilities.invokeLater(() -> { stopRecording(); playBtn.setEnabled(true); stopBtn.setEnabled(false); });
+    }
+
+    private void connectInput() {
+        Object item = inputCombo.getSelectedItem();
+        try {
+            if (item instanceof javax.sound.midi.MidiDevice.Info) recorder.connect((javax.sound.midi.MidiDevice.Info) item);
+            else recorder.disconnect();
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            inputCombo.setSelectedIndex(0);
+            JOptionPane.showMessageDialog(this, "Could not open MIDI input: " + ex.getMessage(), "MIDI Input", JOptionPane.ERROR_MESSAGE);
+        }
+        recorder.setMonitorChannel(tracks.get(currentTrack).channel());
+    }
+
+    private void startRecording() {
+        if (!recorder.isConnected()) { recordToggle.setSelected(false); JOptionPane.showMessageDialog(this, "Select a MIDI input first.", "Record", JOptionPane.WARNING_MESSAGE); return; }
+        if (recordTrack >= 0) return;
+        recordTrack = currentTrack;
+        history.begin();
+        recorder.setArmed(true);
+        recordTimer.start();
+        if (!isPlaying) startPlayback((Integer) bpmSpinner.getValue());
+    }
+
+    private void stopRecording() {
+        if (recordTrack < 0) return;
+        recorder.setArmed(false);
+        recordTimer.stop();
+        mergeRecorded(true);
+        recordTrack = -1;
+        history.commit();
+        recordToggle.setSelected(false);
+    }
+
+    private void mergeRecorded(boolean flush) {
+        PlaybackScheduler s = scheduler;
+        if (s == null || recordTrack < 0 || (!flush && !s.isRunning())) return;
+        List<Note> recorded = new ArrayList<>();
+        if (flush) recorder.flush(s, recordTrack, recorded); else recorder.drain(s, recordTrack, recorded);
+        if (recorded.isEmpty()) return;
+        synchronized (notes) { for (Note n : recorded) notes.add(n); }
+    }
+
+    private String metricsReport() {
+        PlaybackScheduler s = scheduler;
+        StringBuilder sb = new StringBuilder();
+        if (midiManager != null) sb.append("Voices: active ").append(midiManager.getActiveVoices()).append("  pending ").append(midiManager.getPendingVoices()).append("  stolen ").append(midiManager.getStolenVoices()).append("  late releases ").append(midiManager.getLateReleases()).append('\n');
+        if (s != null) {
+            sb.append("Lateness: ").append(s.getLateness()).append("  late events ").append(s.getLateEvents()).append('\n');
+            sb.append("Event lead: ").append(s.getEventLead()).append('\n');
+            sb.append("Wake jitter: ").append(s.getWakeJitter()).append('\n');
+        }
+        sb.append("Paint: ").append(pianoRoll.getFrameTimes()).append('\n');
+        sb.append("Lock wait: ").append(pianoRoll.getLockWait()).append('\n');
+        sb.append("Bulk pass: ").append(bulkPass).append('\n');
+        sb.append("Bulk apply: ").append(bulkApply);
+        return sb.toString();
+    }
+
+    private void setMetricsVisible(boolean visible) {
+        if (metricsOverlay == null) {
+            metricsOverlay = new JComponent() {
+                @Override protected void paintComponent(Graphics g) {
+                    String[] lines = metricsReport().split("\n");
+                    FontMetrics fm = g.getFontMetrics();
+                    int w = 0;
+                    for (String l : lines) w = Math.max(w, fm.stringWidth(l));
+                    int h = lines.length * fm.getHeight() + 8, x = getWidth() - w - 24, y = getHeight() - h - 24;
+                    g.setColor(new Color(0, 0, 0, 180));
+                    g.fillRect(x, y, w + 16, h);
+                    g.setColor(Color.WHITE);
+                    for (int i = 0; i < lines.length; i++) g.drawString(lines[i], x + 8, y + 4 + fm.getAscent() + i * fm.getHeight());
                 }
+            };
+            metricsOverlay.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+            setGlassPane(metricsOverlay);
+            metricsTimer = new Timer(250, e -> metricsOverlay.repaint());
+        }
+        metricsOverlay.setVisible(visible);
+        if (visible) metricsTimer.start(); else metricsTimer.stop();
+    }
+
+    private void dumpMetrics() {
+        JFileChooser chooser = new JFileChooser();
+        chooser.setSelectedFile(new java.io.File("metrics.txt"));
+        if (chooser.showSaveDialog(this) != JFileChooser.APPROVE_OPTION) return;
+        java.nio.file.Path target = chooser.getSelectedFile().toPath();
+        PlaybackScheduler s = scheduler;
+        try (java.io.PrintWriter out = new java.io.PrintWriter(java.nio.file.Files.newBufferedWriter(target))) {
+            out.println(metricsReport());
+            out.println();
+            if (s != null) {
+                s.getLateness().writeDistribution(out, "Lateness");
+                s.getEventLead().writeDistribution(out, "Event lead");
+                s.getWakeJitter().writeDistribution(out, "Wake jitter");
             }
-            synchronized (notes) {
-                for (Note n : notes) {
-                    if (n.lastPlayedCycle != playCycle && (n.start + EPS) >= lastPos && n.start <= (pos + EPS)) {
-                        n.lastPlayedCycle = playCycle;
-                        if (midiManager != null) {
-                            int midi = midiManager.noteNameToMidi(NOTES[n.row]);
-                            if (midi >= 0) midiManager.playNoteAsync(midi, (int)Math.round(n.length * msPerBeat), 90);
-                        }
-                    }
+            pianoRoll.getFrameTimes().writeDistribution(out, "Paint");
+            pianoRoll.getLockWait().writeDistribution(out, "Lock wait");
+            bulkPass.writeDistribution(out, "Bulk pass");
+            bulkApply.writeDistribution(out, "Bulk apply");
+        } catch (Exception ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(this, "Dump failed: " + ex.getMessage(), "Dump Metrics", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void setTempoMap(TempoMap map) {
+        tempoMap = map;
+        PlaybackScheduler s = scheduler;
+        if (s != null) s.setTempo(map);
+        pianoRoll.setMeter(map);
+        if (journal != null) journal.tempoMap(map);
+    }
+
+    private void editTempoMap() {
+        JTextArea text = new JTextArea(tempoMap.format(), 12, 36);
+        text.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        if (JOptionPane.showConfirmDialog(this, new JScrollPane(text), "Tempo & Meter", JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) return;
+        TempoMap map;
+        try {
+            map = TempoMap.parse(text.getText());
+        } catch (IllegalArgumentException ex) {
+            JOptionPane.showMessageDialog(this, ex.getMessage(), "Tempo & Meter", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        setTempoMap(map);
+        bpmSpinner.setValue((int) Math.max(20, Math.min(300, Math.round(map.initialBpm()))));
+    }
+
+    private double[] askNumbers(String title, String[] labels, String[] defaults) {
+        JPanel form = new JPanel(new GridLayout(labels.length, 2, 6, 4));
+        JTextField[] fields = new JTextField[labels.length];
+        for (int i = 0; i < labels.length; i++) { form.add(new JLabel(labels[i])); fields[i] = new JTextField(defaults[i], 8); form.add(fields[i]); }
+        if (JOptionPane.showConfirmDialog(this, form, title, JOptionPane.OK_CANCEL_OPTION, JOptionPane.PLAIN_MESSAGE) != JOptionPane.OK_OPTION) return null;
+        double[] values = new double[labels.length];
+        try {
+            for (int i = 0; i < labels.length; i++) values[i] = Double.parseDouble(fields[i].getText().trim());
+        } catch (NumberFormatException ex) {
+            JOptionPane.showMessageDialog(this, "Please enter numbers only.", title, JOptionPane.ERROR_MESSAGE);
+            return null;
+        }
+        return values;
+    }
+
+    private void runBulkEdit(BulkEdits.RangeOp op) {
+        runBulkEdit(op, 0);
+    }
+
+    private void runBulkEdit(BulkEdits.RangeOp op, int attempt) {
+        Note[] selection;
+        NoteBuffer values;
+        ArrangementSnapshot basis;
+        synchronized (notes) {
+            if (selectedNotes.isEmpty()) return;
+            selection = selectedNotes.toArray(new Note[0]);
+            values = BulkEdits.capture(selection);
+            basis = notes.publish();
+            if (attempt >= MAX_BULK_RETRIES) { applyBulkEdit(op, basis, BulkEdits.run(selection, values, basis, op), attempt); return; }
+        }
+        new Thread(() -> {
+            BulkEdits.Result result = BulkEdits.run(selection, values, basis, op);
+            SwingUtilities.invokeLater(() -> applyBulkEdit(op, basis, result, attempt));
+        }, "bulk-edit").start();
+    }
+
+    private void applyBulkEdit(BulkEdits.RangeOp op, ArrangementSnapshot basis, BulkEdits.Result result, int attempt) {
+        long t0 = System.nanoTime();
+        synchronized (notes) {
+            if (notes.publish() != basis) { runBulkEdit(op, attempt + 1); return; }
+            NoteBuffer v = result.values;
+            history.transaction(() -> {
+                for (Note n : result.removedOthers) notes.remove(n);
+                for (int i = 0; i < result.notes.length; i++) {
+                    if (result.dropped[i]) notes.remove(result.notes[i]);
+                    else notes.set(result.notes[i], v.rows[i], v.starts[i], v.lengths[i], v.velocities[i]);
                 }
-            }
-            lastPos = pos;
-            try { Thread.sleep(20); } catch (InterruptedException ignored) {}
+            });
+            selectedNotes.removeIf(n -> !notes.contains(n));
         }
-        pianoRoll.setPlayHeadPos(-1);
-        isPlaying = false;
-        SwingUtilities.invokeLater(() -> { playBtn.setEnabled(true); stopBtn.setEnabled(false); });
+        bulkPass.record(result.elapsedNanos);
+        bulkApply.record(System.nanoTime() - t0);
+        pianoRoll.revalidate();
+        pianoRoll.repaint();
     }
 
-    private void playPreviewNotes(List<Note> noteList, int durationMs) {
-        if (midiManager == null || noteList == null || noteList.isEmpty()) return;
-        List<Integer> midiNotes = new ArrayList<>();
-        for (Note n : noteList) {
-            if (n.row < 0 || n.row >= NOTES.length) continue;
-            int midi = midiManager.noteNameToMidi(NOTES[n.row]);
-            if (midi >= 0) midiNotes.add(midi);
+    private static Note copyOf(Note n, int track, double start) {
+        Note copy = new Note(track, n.row, start, n.length);
+        copy.velocity = n.velocity;
+        return copy;
+    }
+
+    private void undoRedo(boolean undo) {
+        synchronized (notes) {
+            if (!(undo ? history.undo() : history.redo())) return;
+            selectedNotes.removeIf(n -> !notes.contains(n));
+        }
+        pianoRoll.revalidate();
+        pianoRoll.repaint();
+    }
+
+    private void addTrack() {
+        Track t = tracks.add("Track " + (tracks.size() + 1), 0);
+        if (t == null) { JOptionPane.showMessageDialog(this, "At most " + TrackList.MAX_TRACKS + " tracks are supported.", "Add Track", JOptionPane.WARNING_MESSAGE); return; }
+        trackCombo.addItem(t);
+        trackCombo.setSelectedItem(t);
+        tracksChanged();
+    }
+
+    private void selectTrack(int index) {
+        if (index < 0 || index >= tracks.size()) return;
+        currentTrack = index;
+        Track t = tracks.get(index);
+        programSpinner.setValue(t.getProgram());
+        volumeSpinner.setValue(t.getVolume());
+        muteToggle.setSelected(t.isMute());
+        soloToggle.setSelected(t.isSolo());
+        synchronized (notes) { selectedNotes.clear(); }
+        pianoRoll.setActiveTrack(index);
+        recorder.setMonitorChannel(t.channel());
+    }
+
+    private void arrangementChanged() {
+        notes.publish();
+        updateTimeline();
+    }
+
+    private void updateTimeline() {
+        ArrangementSnapshot snap = notes.snapshot();
+        int contentBars = (int) Math.ceil(Math.max(snap.endBeat(), clipLayer.endBeat()) / BEATS_PER_BAR) + 1;
+        int beats = Math.min(MAX_TIMELINE_BEATS, Math.max((Integer) barsSpinner.getValue(), contentBars) * BEATS_PER_BAR);
+        if (beats == timelineBeats) return;
+        timelineBeats = beats;
+        pianoRoll.setColumns(beats);
+    }
+
+    private void scheduleWindow(double fromBeat, double toBeat, double offsetBeats, PlaybackScheduler out) {
+        int[] routing = tracks.routing();
+        PlaybackScheduler.collect(notes.snapshot(), routing, fromBeat, toBeat, offsetBeats, out);
+        clipLayer.visitStarting(fromBeat, toBeat, (c, row, start, length, velocity) -> {
+            if (c.track < routing.length && routing[c.track] >= 0) out.note(offsetBeats + start, routing[c.track], PitchTable.ROW_MIDI[row], velocity, length);
+        });
+    }
+
+    private NoteBuffer flatten(ArrangementSnapshot snap) {
+        NoteBuffer b = NoteBuffer.of(snap);
+        clipLayer.expandInto(b);
+        return b;
+    }
+
+    private void makeClip() {
+        synchronized (notes) {
+            if (selectedNotes.isEmpty()) return;
+            double origin = Double.POSITIVE_INFINITY;
+            for (Note n : selectedNotes) origin = Math.min(origin, n.start);
+            origin = Math.floor(origin);
+            Clip clip = Clip.of("Clip " + (clipLayer.clips().length + 1), selectedNotes, origin, BEATS_PER_BAR);
+            ClipInstance instance = new ClipInstance(clip, currentTrack, origin, 0);
+            history.transaction(() -> { notes.removeAll(selectedNotes); addClipInstance(instance); });
+            selectedNotes.clear();
         }
-        midiManager.playPreviewNotes(midiNotes, durationMs);
+        clipsChanged();
+    }
+
+    private void placeClip() {
+        Clip[] clips = clipLayer.clips();
+        if (clips.length == 0) { JOptionPane.showMessageDialog(this, "Make a clip from a selection first.", "Place Clip", JOptionPane.INFORMATION_MESSAGE); return; }
+        Clip clip = (Clip) JOptionPane.showInputDialog(this, "Clip:", "Place Clip", JOptionPane.PLAIN_MESSAGE, null, clips, clips[clips.length - 1]);
+        if (clip == null) return;
+        double[] v = askNumbers("Place Clip", new String[] {"Start beat:", "Transpose (semitones):", "Repeats:"}, new String[] {String.valueOf((int) clipLayer.endBeat()), "0", "1"});
+        if (v == null) return;
+        int repeats = Math.max(1, (int) v[2]);
+        history.transaction(() -> {
+            for (int k = 0; k < repeats; k++) {
+                double start = Math.max(0.0, v[0]) + k * clip.length();
+                if (start + clip.length() > MAX_TIMELINE_BEATS) break;
+                addClipInstance(new ClipInstance(clip, currentTrack, start, (int) v[1]));
+            }
+        });
+        clipsChanged();
+    }
+
+    private void removeClips() {
+        double[] v = askNumbers("Remove Clips", new String[] {"From beat:", "To beat:"}, new String[] {"0", String.valueOf(timelineBeats)});
+        if (v == null) return;
+        history.transaction(() -> {
+            for (ClipInstance c : clipLayer.overlapping(currentTrack, v[0], v[1])) {
+                if (c.start < v[0] || c.start >= v[1]) continue;
+                clipLayer.remove(c);
+                history.record(() -> { clipLayer.add(c); clipsChanged(); }, () -> { clipLayer.remove(c); clipsChanged(); });
+            }
+        });
+        clipsChanged();
     }
 
-    private int noteNameToMidi(String name) {
-        if (midiManager == null) return -1;
-        return midiManager.noteNameToMidi(name);
+    private void addClipInstance(ClipInstance instance) {
+        clipLayer.addClip(instance.clip);
+        clipLayer.add(instance);
+        history.record(() -> { clipLayer.remove(instance); clipsChanged(); }, () -> { clipLayer.add(instance); clipsChanged(); });
+    }
+
+    private void clipsChanged() {
+        updateTimeline();
+        pianoRoll.repaint();
+    }
+
+    private void playPreviewNotes(List<Note> noteList, int durationMs) {
+        if (audition == null || noteList == null || noteList.isEmpty()) return;
+        int[] channels = new int[noteList.size()];
+        int[] programs = new int[noteList.size()];
+        int[] midiNotes = new int[noteList.size()];
+        int count = 0;
+        for (Note n : noteList) {
+            int midi = PitchTable.midiForRow(n.row);
+            if (midi < 0 || n.track >= tracks.size()) continue;
+            Track t = tracks.get(n.track);
+            channels[count] = t.channel();
+            programs[count] = t.getProgram();
+            midiNotes[count++] = midi;
+        }
+        audition.preview(channels, programs, midiNotes, count, durationMs);
     }
 
     private void handleNoteCreationPreview(Note n) {
@@ -339,24 +920,29 @@ public class MainFrame extends JFrame {
         private int cellWidth = 60;
         private int cellHeight = 30;
         private final int SUBDIV_SHOW_THRESHOLD = 80;
-        private double playHeadPos = -1.0;
+        private volatile double playHeadPos = -1.0;
+        private final PianoRollRenderer renderer = new PianoRollRenderer(NOTES, timelineBeats);
+        private final LatencyHistogram lockWait = new LatencyHistogram();
+        private final List<Note> hitScratch = new ArrayList<>();
 
         private Note dragAnchorNote = null;
         private boolean dragging = false;
         private boolean resizing = false;
+        private boolean gestureOpen = false;
         private int dragMouseStartX, dragMouseStartY;
         private final List<Double> selectionInitialStarts = new ArrayList<>();
         private final List<Integer> selectionInitialRows = new ArrayList<>();
 
         private boolean marqueeActive = false;
         private Rectangle marqueeRect = new Rectangle();
+        private Rectangle marqueeApplied = null;
+        private final SelectionModel marqueeBase = new SelectionModel();
 
-        private final double MIN_LENGTH_COLS = 0.25;
 
         public PianoRollPanel() {
             setBackground(new Color(30, 30, 30));
-            setPreferredSize(new Dimension(NUM_MEASURES * cellWidth + 100, NOTES.length * cellHeight));
             setFocusable(true);
+            setAutoscrolls(true);
 
             addMouseListener(new MouseAdapter() {
                 @Override public void mousePressed(MouseEvent e) {
@@ -374,6 +960,7 @@ public class MainFrame extends JFrame {
                             }
                         }
                         Rectangle r = noteRect(hit);
+                        if (!gestureOpen) { history.begin(); gestureOpen = true; }
                         if (Math.abs(x - (r.x + r.width)) <= 8) { resizing = true; dragAnchorNote = hit; }
                         else {
                             dragging = true; dragAnchorNote = hit; dragMouseStartX = x; dragMouseStartY = y; selectionInitialStarts.clear(); selectionInitialRows.clear(); synchronized (notes) { for (Note s : selectedNotes) { selectionInitialStarts.add(s.start); selectionInitialRows.add(s.row); } }
@@ -381,25 +968,27 @@ public class MainFrame extends JFrame {
                         repaint();
                         if (previewToggle.isSelected()) { List<Note> toPreview = new ArrayList<>(); synchronized (notes) { toPreview.addAll(selectedNotes); } if (!toPreview.isEmpty()) playPreviewNotes(toPreview, 300); }
                     } else if (SwingUtilities.isLeftMouseButton(e)) {
-                        marqueeActive = true; marqueeRect.setBounds(x, y, 0, 0); if (!ctrl) { synchronized (notes) { selectedNotes.clear(); } }
+                        marqueeActive = true; marqueeRect.setBounds(x, y, 0, 0); marqueeApplied = null; synchronized (notes) { if (!ctrl) selectedNotes.clear(); marqueeBase.clear(); marqueeBase.addAll(selectedNotes); }
                     }
                 }
                 @Override public void mouseReleased(MouseEvent e) {
                     if (marqueeActive) {
-                        Rectangle sel = new Rectangle(marqueeRect);
-                        if (sel.width < 0) { sel.x += sel.width; sel.width = -sel.width; }
-                        if (sel.height < 0) { sel.y += sel.height; sel.height = -sel.height; }
-                        sel.grow(6, 6);
-                        synchronized (notes) { for (Note n : notes) if (noteRect(n).intersects(sel)) { if (!selectedNotes.contains(n)) selectedNotes.add(n); } }
+                        synchronized (notes) { updateMarqueeSelection(); marqueeBase.clear(); }
+                        marqueeApplied = null;
                         if (previewToggle.isSelected()) { List<Note> toPreview = new ArrayList<>(); synchronized (notes) { toPreview.addAll(selectedNotes); } if (!toPreview.isEmpty()) playPreviewNotes(toPreview, 300); }
                     }
-                    if (dragAnchorNote != null) {
+                    if (gestureOpen) {
                         synchronized (notes) {
-                            if (resizing) {
-                                snapNoteToGrid(dragAnchorNote);
-                                List<Note> toRemove = new ArrayList<>(); double a1 = dragAnchorNote.start; double b1 = dragAnchorNote.start + dragAnchorNote.length; for (Note n : notes) { if (n == dragAnchorNote) continue; if (n.row != dragAnchorNote.row) continue; double a2 = n.start; double b2 = n.start + n.length; if (a2 < b1 && b2 > a1) toRemove.add(n); } if (!toRemove.isEmpty()) { notes.removeAll(toRemove); selectedNotes.removeAll(toRemove); }
-                            } else if (dragging) {
-                                for (Note s : selectedNotes) { snapNoteToGrid(s); List<Note> toRemove2 = new ArrayList<>(); double a1 = s.start; double b1 = s.start + s.length; for (Note n : notes) { if (n == s) continue; if (selectedNotes.contains(n)) continue; if (n.row != s.row) continue; double a2 = n.start; double b2 = n.start + n.length; if (a2 < b1 && b2 > a1) toRemove2.add(n); } if (!toRemove2.isEmpty()) { notes.removeAll(toRemove2); selectedNotes.removeAll(toRemove2); } }
+                            try {
+                                if (resizing) {
+                                    snapNoteToGrid(dragAnchorNote);
+                                    removeOverlapping(dragAnchorNote, false);
+                                } else if (dragging) {
+                                    for (Note s : selectedNotes) { snapNoteToGrid(s); removeOverlapping(s, true); }
+                                }
+                            } finally {
+                                gestureOpen = false;
+                                history.commit();
                             }
                         }
                     }
@@ -407,43 +996,76 @@ public class MainFrame extends JFrame {
                 }
                 @Override public void mouseClicked(MouseEvent e) {
                     if (e.getClickCount() == 2 && SwingUtilities.isLeftMouseButton(e)) {
-                        int x = e.getX(), y = e.getY(); int col = xToCol(x), row = yToRow(y); Note hit = findNoteAtCell(row, col); synchronized (notes) { if (hit != null) { notes.remove(hit); selectedNotes.remove(hit); repaint(); } else if (validCell(row, col)) { Note n = new Note(row, col, 1.0); notes.add(n); selectedNotes.clear(); selectedNotes.add(n); repaintCell(row, col); handleNoteCreationPreview(n); } }
+                        int x = e.getX(), y = e.getY(); int col = xToCol(x), row = yToRow(y); Note hit = findNoteAtCell(row, col); synchronized (notes) { if (hit != null) { notes.remove(hit); selectedNotes.remove(hit); repaint(); } else if (validCell(row, col)) { Note n = new Note(currentTrack, row, col, 1.0); notes.add(n); selectedNotes.clear(); selectedNotes.add(n); repaintCell(row, col); handleNoteCreationPreview(n); } }
                     }
                 }
             });
 
             addMouseMotionListener(new MouseMotionAdapter() { @Override public void mouseDragged(MouseEvent e) {
-                int x = e.getX(), y = e.getY(); if (marqueeActive) { int rx = Math.min(marqueeRect.x, x); int ry = Math.min(marqueeRect.y, y); int rw = Math.abs(x - marqueeRect.x); int rh = Math.abs(y - marqueeRect.y); marqueeRect.setBounds(rx, ry, rw, rh); repaint(); return; } if (resizing && dragAnchorNote != null) { int baseX = 100 + (int)Math.round(dragAnchorNote.start * cellWidth); double newWidthPx = x - baseX; double newLenCols = Math.max(MIN_LENGTH_COLS, newWidthPx / (double)cellWidth); newLenCols = Math.min(newLenCols, NUM_MEASURES - dragAnchorNote.start); dragAnchorNote.length = newLenCols; snapNoteToGrid(dragAnchorNote); synchronized (notes) { List<Note> toRemove = new ArrayList<>(); double a1 = dragAnchorNote.start; double b1 = dragAnchorNote.start + dragAnchorNote.length; for (Note n : notes) { if (n == dragAnchorNote) continue; if (n.row != dragAnchorNote.row) continue; double a2 = n.start; double b2 = n.start + n.length; if (a2 < b1 && b2 > a1) toRemove.add(n); } if (!toRemove.isEmpty()) { notes.removeAll(toRemove); selectedNotes.removeAll(toRemove); } } repaint(); return; } if (dragging && dragAnchorNote != null) { double deltaCols = (x - dragMouseStartX) / (double)cellWidth; int deltaRows = yToRow(y) - yToRow(dragMouseStartY); synchronized (notes) { for (int i = 0; i < selectedNotes.size(); i++) { Note s = selectedNotes.get(i); double initialStart = selectionInitialStarts.get(i); int initialRow = selectionInitialRows.get(i); double newStart = initialStart + deltaCols; newStart = Math.max(0.0, Math.min(NUM_MEASURES - s.length, newStart)); s.start = newStart; int newRow = Math.max(0, Math.min(NOTES.length - 1, initialRow + deltaRows)); s.row = newRow; int currCol = (int)Math.floor(s.start + 1e-6); if (showSubdivisions()) { int halfCol = (int)Math.floor(s.start * 2.0 + 1e-6); if (s.lastPreviewCol != halfCol) { s.lastPreviewCol = halfCol; if (previewToggle != null && previewToggle.isSelected()) playPreviewNote(s, 120); } } else { if (s.lastPreviewCol != currCol) { s.lastPreviewCol = currCol; if (previewToggle != null && previewToggle.isSelected()) playPreviewNote(s, 120); } } } } repaint(); } } });
+                int x = e.getX(), y = e.getY(); scrollRectToVisible(new Rectangle(x, y, 1, 1)); if (marqueeActive) { int rx = Math.min(marqueeRect.x, x); int ry = Math.min(marqueeRect.y, y); int rw = Math.abs(x - marqueeRect.x); int rh = Math.abs(y - marqueeRect.y); marqueeRect.setBounds(rx, ry, rw, rh); synchronized (notes) { updateMarqueeSelection(); } repaint(); return; } if (resizing && dragAnchorNote != null) { int baseX = 100 + (int)Math.round(dragAnchorNote.start * cellWidth); double newWidthPx = x - baseX; double newLenCols = Math.max(Note.MIN_LENGTH, newWidthPx / (double)cellWidth); newLenCols = Math.min(newLenCols, MAX_TIMELINE_BEATS - dragAnchorNote.start); synchronized (notes) { notes.resize(dragAnchorNote, newLenCols); snapNoteToGrid(dragAnchorNote); removeOverlapping(dragAnchorNote, false); } repaint(); return; } if (dragging && dragAnchorNote != null) { double deltaCols = (x - dragMouseStartX) / (double)cellWidth; int deltaRows = yToRow(y) - yToRow(dragMouseStartY); synchronized (notes) { for (int i = 0; i < selectedNotes.size(); i++) { Note s = selectedNotes.get(i); double initialStart = selectionInitialStarts.get(i); int initialRow = selectionInitialRows.get(i); double newStart = initialStart + deltaCols; newStart = Math.max(0.0, Math.min(MAX_TIMELINE_BEATS - s.length, newStart)); int newRow = Math.max(0, Math.min(NOTES.length - 1, initialRow + deltaRows)); notes.move(s, newRow, newStart); int currCol = (int)Math.floor(s.start + 1e-6); if (showSubdivisions()) { int halfCol = (int)Math.floor(s.start * 2.0 + 1e-6); if (s.lastPreviewCol != halfCol) { s.lastPreviewCol = halfCol; if (previewToggle != null && previewToggle.isSelected()) playPreviewNote(s, 120); } } else { if (s.lastPreviewCol != currCol) { s.lastPreviewCol = currCol; if (previewToggle != null && previewToggle.isSelected()) playPreviewNote(s, 120); } } } } repaint(); } } });
         }
 
-        public void setCellWidth(int w) { this.cellWidth = Math.max(20, w); setPreferredSize(new Dimension(NUM_MEASURES * cellWidth + 100, NOTES.length * cellHeight)); revalidate(); }
+        public void setCellWidth(int w) { this.cellWidth = Math.max(20, w); renderer.setCellSize(cellWidth, cellHeight, showSubdivisions()); revalidate(); }
         public int getCellHeight() { return cellHeight; }
-        public void setCellHeight(int h) { this.cellHeight = Math.max(12, Math.min(80, h)); setPreferredSize(new Dimension(NUM_MEASURES * cellWidth + 100, NOTES.length * cellHeight)); revalidate(); }
+        public void setCellHeight(int h) { this.cellHeight = Math.max(12, Math.min(80, h)); renderer.setCellSize(cellWidth, cellHeight, showSubdivisions()); revalidate(); }
         private boolean showSubdivisions() { return cellWidth >= SUBDIV_SHOW_THRESHOLD; }
-        public void setPlayHeadPos(double pos) { this.playHeadPos = pos; repaint(); }
-        public void setPlayHead(int col) { if (col < 0) this.playHeadPos = -1.0; else this.playHeadPos = col; repaint(); }
+        public void setPlayHeadPos(double pos) { double old = playHeadPos; this.playHeadPos = pos; int oldX = old >= 0.0 ? renderer.playHeadX(old) : -1, newX = pos >= 0.0 ? renderer.playHeadX(pos) : -1; if (oldX == newX) return; if (oldX >= 0) repaint(oldX - 3, 0, 7, getHeight()); if (newX >= 0) repaint(newX - 3, 0, 7, getHeight()); }
+        public void setPlayHead(int col) { setPlayHeadPos(col < 0 ? -1.0 : col); }
+        public LatencyHistogram getFrameTimes() { return renderer.getFrameTimes(); }
+        public LatencyHistogram getLockWait() { return lockWait; }
         private int getSnapThreshold() { return Math.max(6, cellWidth / 2); }
-        private void snapNoteToGrid(Note n) { int SNAP_THRESHOLD = getSnapThreshold(); if (showSubdivisions()) { double startPx = n.start * cellWidth; double nearestHalfCol = Math.round(n.start * 2.0) / 2.0; if (Math.abs(startPx - nearestHalfCol * cellWidth) <= SNAP_THRESHOLD) n.start = nearestHalfCol; double endCols = n.start + n.length; double endPx = endCols * cellWidth; double nearestHalfEnd = Math.round(endCols * 2.0) / 2.0; if (Math.abs(endPx - nearestHalfEnd * cellWidth) <= SNAP_THRESHOLD) n.length = Math.max(MIN_LENGTH_COLS, nearestHalfEnd - n.start); } else { double startPx = n.start * cellWidth; double nearestStartCol = Math.round(n.start); if (Math.abs(startPx - nearestStartCol * cellWidth) <= SNAP_THRESHOLD) n.start = nearestStartCol; double endCols = n.start + n.length; double endPx = endCols * cellWidth; double nearestEndCol = Math.round(endCols); if (Math.abs(endPx - nearestEndCol * cellWidth) <= SNAP_THRESHOLD) n.length = Math.max(MIN_LENGTH_COLS, nearestEndCol - n.start); } if (n.start < 0) n.start = 0; if (n.start + n.length > NUM_MEASURES) n.length = NUM_MEASURES - n.start; }
+        private void snapNoteToGrid(Note n) { int SNAP_THRESHOLD = getSnapThreshold(); double start = n.start, length = n.length; if (showSubdivisions()) { double startPx = start * cellWidth; double nearestHalfCol = Math.round(start * 2.0) / 2.0; if (Math.abs(startPx - nearestHalfCol * cellWidth) <= SNAP_THRESHOLD) start = nearestHalfCol; double endCols = start + length; double endPx = endCols * cellWidth; double nearestHalfEnd = Math.round(endCols * 2.0) / 2.0; if (Math.abs(endPx - nearestHalfEnd * cellWidth) <= SNAP_THRESHOLD) length = Math.max(Note.MIN_LENGTH, nearestHalfEnd - start); } else { double startPx = start * cellWidth; double nearestStartCol = Math.round(start); if (Math.abs(startPx - nearestStartCol * cellWidth) <= SNAP_THRESHOLD) start = nearestStartCol; double endCols = start + length; double endPx = endCols * cellWidth; double nearestEndCol = Math.round(endCols); if (Math.abs(endPx - nearestEndCol * cellWidth) <= SNAP_THRESHOLD) length = Math.max(Note.MIN_LENGTH, nearestEndCol - start); } if (start < 0) start = 0; if (start + length > MAX_TIMELINE_BEATS) length = MAX_TIMELINE_BEATS - start; notes.set(n, n.row, start, length); }
+        private void removeOverlapping(Note n, boolean keepSelected) { List<Note> toRemove = new ArrayList<>(); notes.overlapping(n.row, n.start, n.start + n.length, toRemove); toRemove.removeIf(o -> o == n || o.track != n.track); if (keepSelected) toRemove.removeAll(selectedNotes); if (!toRemove.isEmpty()) { notes.removeAll(toRemove); selectedNotes.removeAll(toRemove); } }
         public int getCellWidth() { return cellWidth; }
-        public void repaintCell(int row, int col) { if (row < 0 || row >= NOTES.length || col < 0 || col >= NUM_MEASURES) return; int x = 100 + col * cellWidth; int y = row * cellHeight; int margin = 12; repaint(x - margin, y - margin, cellWidth + margin * 2, cellHeight + margin * 2); }
+        public void repaintCell(int row, int col) { if (row < 0 || row >= NOTES.length || col < 0 || col >= timelineBeats) return; int x = 100 + col * cellWidth; int y = row * cellHeight; int margin = 12; repaint(x - margin, y - margin, cellWidth + margin * 2, cellHeight + margin * 2); }
         private int xToCol(int x) { return Math.max(0, (x - 100) / cellWidth); }
         private int yToRow(int y) { return Math.max(0, y / cellHeight); }
-        private boolean validCell(int row, int col) { return row >= 0 && row < NOTES.length && col >= 0 && col < NUM_MEASURES; }
-        private Note findNoteAtPixel(int x, int y) { int row = yToRow(y); synchronized (notes) { for (Note n : notes) { if (n.row != row) continue; Rectangle r = noteRect(n); if (r.contains(x, y)) return n; } } return null; }
-        private Note findNoteAtCell(int row, int col) { synchronized (notes) { for (Note n : notes) { if (n.row == row && col >= Math.floor(n.start) && col < Math.ceil(n.start + n.length)) return n; } } return null; }
-        private Rectangle noteRect(Note n) { int x = 100 + (int)Math.round(n.start * cellWidth); int y = n.row * cellHeight; int w = (int)Math.round(n.length * cellWidth); int h = cellHeight; return new Rectangle(x + 4, y + 4, Math.max(6, w - 8), h - 8); }
-        @Override public Dimension getPreferredSize() { return new Dimension(100 + NUM_MEASURES * cellWidth, NOTES.length * cellHeight); }
+        private boolean validCell(int row, int col) { return row >= 0 && row < NOTES.length && col >= 0 && col < timelineBeats; }
+        private double xToBeat(int x) { return (x - 100) / (double)cellWidth; }
+        private Note findNoteAtPixel(int x, int y) { long t0 = System.nanoTime(); synchronized (notes) { lockWait.record(System.nanoTime() - t0); return renderer.noteAt(notes, x, y, currentTrack, hitScratch); } }
+        private void updateMarqueeSelection() {
+            Rectangle sel = new Rectangle(marqueeRect);
+            sel.grow(6, 6);
+            Rectangle old = marqueeApplied;
+            marqueeApplied = sel;
+            List<Note> hits = new ArrayList<>();
+            if (old == null) {
+                collectMarqueeCandidates(sel, hits);
+                for (Note n : hits) if (inMarquee(n, sel)) selectedNotes.add(n);
+                return;
+            }
+            Rectangle common = old.intersection(sel);
+            for (Rectangle band : bands(sel, common)) collectMarqueeCandidates(band, hits);
+            for (Note n : hits) if (inMarquee(n, sel)) selectedNotes.add(n);
+            hits.clear();
+            for (Rectangle band : bands(old, common)) collectMarqueeCandidates(band, hits);
+            for (Note n : hits) if (!inMarquee(n, sel) && !marqueeBase.contains(n)) selectedNotes.remove(n);
+        }
+        private boolean inMarquee(Note n, Rectangle sel) { return n.track == currentTrack && noteRect(n).intersects(sel); }
+        private void collectMarqueeCandidates(Rectangle r, List<Note> out) { notes.intersecting(yToRow(r.y), yToRow(r.y + r.height), xToBeat(r.x) - 1.0, xToBeat(r.x + r.width) + 1.0, out); }
+        private List<Rectangle> bands(Rectangle r, Rectangle inner) {
+            List<Rectangle> out = new ArrayList<>(4);
+            if (inner.isEmpty()) { out.add(r); return out; }
+            int rBottom = r.y + r.height, rRight = r.x + r.width, iBottom = inner.y + inner.height, iRight = inner.x + inner.width;
+            if (inner.y > r.y) out.add(new Rectangle(r.x, r.y, r.width, inner.y - r.y));
+            if (rBottom > iBottom) out.add(new Rectangle(r.x, iBottom, r.width, rBottom - iBottom));
+            if (inner.x > r.x) out.add(new Rectangle(r.x, inner.y, inner.x - r.x, inner.height));
+            if (rRight > iRight) out.add(new Rectangle(iRight, inner.y, rRight - iRight, inner.height));
+            return out;
+        }
+        private Note findNoteAtCell(int row, int col) { synchronized (notes) { return notes.firstOverlapping(row, col, col + 1, currentTrack); } }
+        private Rectangle noteRect(Note n) { return renderer.noteRect(n.row, n.start, n.length); }
+        public void setActiveTrack(int track) { renderer.setActiveTrack(track); repaint(); }
+        public void setClips(ClipLayer clips) { renderer.setClips(clips); }
+        public void setMeter(TempoMap meter) { renderer.setMeter(meter); repaint(); }
+        public void setColumns(int columns) { renderer.setColumns(columns); revalidate(); repaint(); }
+        @Override public Dimension getPreferredSize() { return new Dimension(renderer.getWidth(), renderer.getHeight()); }
         @Override protected void paintComponent(Graphics g) {
-            super.paintComponent(g);
             Graphics2D g2 = (Graphics2D) g.create();
-            g2.setColor(getBackground()); g2.fillRect(0, 0, getWidth(), getHeight());
-            g2.setColor(new Color(50, 50, 50)); g2.fillRect(0, 0, 100, getHeight()); g2.setColor(Color.WHITE); g2.setFont(g2.getFont().deriveFont(Font.PLAIN, 12f));
-            for (int r = 0; r < NOTES.length; r++) { int y = r * cellHeight; if ((r % 2) == 0) g2.setColor(new Color(70, 70, 70)); else g2.setColor(new Color(60, 60, 60)); g2.fillRect(0, y, 100, cellHeight); g2.setColor(Color.WHITE); g2.drawString(NOTES[r], 8, y + cellHeight / 2 + 5); }
-            for (int c = 0; c < NUM_MEASURES; c++) { int x = 100 + c * cellWidth; boolean isDownbeat = (c % 4 == 0); for (int r = 0; r < NOTES.length; r++) { int y = r * cellHeight; if (isDownbeat) g2.setColor(new Color(50, 50, 60)); else g2.setColor(new Color(40, 40, 40)); g2.fillRect(x + 1, y + 1, cellWidth - 2, cellHeight - 2); g2.setColor(new Color(80, 80, 80)); g2.drawRect(x, y, cellWidth, cellHeight); } if (isDownbeat) { g2.setColor(new Color(200, 100, 100, 200)); g2.setStroke(new BasicStroke(2f)); } else { g2.setColor(new Color(120, 120, 120, 140)); g2.setStroke(new BasicStroke(1f)); } g2.drawLine(100 + c * cellWidth, 0, 100 + c * cellWidth, NOTES.length * cellHeight); }
-            synchronized (notes) { for (Note n : notes) { Rectangle r = noteRect(n); boolean isSelected = selectedNotes.contains(n); if (isSelected) g2.setColor(new Color(255, 220, 100)); else g2.setColor(new Color(120, 200, 255)); g2.fillRoundRect(r.x, r.y, r.width, r.height, 6, 6); g2.setColor(isSelected ? new Color(180, 120, 10) : new Color(20, 80, 120)); g2.setStroke(new BasicStroke(2f)); g2.drawRoundRect(r.x, r.y, r.width, r.height, 6, 6); g2.setColor(Color.WHITE); String label = NOTES[n.row]; g2.drawString(label, r.x + 6, r.y + r.height / 2 + 5); g2.setColor(new Color(255,255,255,140)); g2.fillRect(r.x + r.width - 6, r.y + r.height/2 - 6, 6, 12); } }
-            if (marqueeActive) { g2.setColor(new Color(100, 150, 255, 80)); g2.fillRect(marqueeRect.x, marqueeRect.y, marqueeRect.width, marqueeRect.height); g2.setColor(new Color(100, 150, 255, 160)); g2.setStroke(new BasicStroke(1f)); g2.drawRect(marqueeRect.x, marqueeRect.y, marqueeRect.width, marqueeRect.height); }
-            if (playHeadPos >= 0.0) { double px = 100 + playHeadPos * cellWidth; int xline = (int)Math.round(px); g2.setColor(new Color(255, 80, 80, 200)); g2.setStroke(new BasicStroke(3f)); g2.drawLine(xline, 0, xline, NOTES.length * cellHeight); }
-            if (showSubdivisions()) { g2.setColor(new Color(90, 90, 100)); g2.setStroke(new BasicStroke(1f)); for (int c = 0; c < NUM_MEASURES * 2; c++) { double cx = 100 + (c * (cellWidth / 2.0)); g2.drawLine((int)Math.round(cx), 0, (int)Math.round(cx), NOTES.length * cellHeight); } }
+            ArrangementSnapshot snap;
+            long t0 = System.nanoTime();
+            synchronized (notes) { lockWait.record(System.nanoTime() - t0); snap = notes.publish(); }
+            renderer.paint(g2, g.getClipBounds(), snap, selectedNotes::contains, marqueeActive ? marqueeRect : null, playHeadPos);
             g2.dispose();
         }
     }
@@ -0,0 +1,326 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MidiFileIO {
+    public static final int PPQ = 480;
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int INDEX_BITS = 24;
+    private static final long INDEX_MASK = (1L << INDEX_BITS) - 1;
+    private static final double RAMP_STEP_BEATS = 0.25;
+
+    public static void write(Path file, int bpm, NoteBuffer notes, int type) throws IOException {
+        write(file, bpm, new Track[0], notes, type);
+    }
+
+    public static void write(Path file, int bpm, Track[] tracks, NoteBuffer notes, int type) throws IOException {
+        write(file, TempoMap.constant(bpm), tracks, notes, type);
+    }
+
+    public static void write(Path file, TempoMap tempo, Track[] tracks, NoteBuffer notes, int type) throws IOException {
+        if (type != 0 && type != 1) throw new IllegalArgumentException("SMF type must be 0 or 1");
+        long[] order = startOrder(notes);
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ChunkWriter out = new ChunkWriter(ch);
+            out.bytes('M', 'T', 'h', 'd').int32(6).int16(type).int16(type == 0 ? 1 : 2).int16(PPQ);
+            long track = out.beginTrack();
+            writeConductor(out, tempo);
+            if (type == 1) { out.endTrack(track); track = out.beginTrack(); }
+            for (Track t : tracks) {
+                out.varLen(0).bytes(0xC0 | t.channel & 0x0F, t.program & 0x7F);
+                out.varLen(0).bytes(0xB0 | t.channel & 0x0F, 7, t.volume & 0x7F);
+            }
+            writeNotes(out, notes, order);
+            out.endTrack(track);
+            out.flush();
+        }
+    }
+
+    public static ProjectFile.Project read(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), BUFFER_BYTES));
+            if (in.readInt() != 0x4D546864) throw new IOException("Not a Standard MIDI File: " + file);
+            int headerLength = in.readInt();
+            int format = in.readUnsignedShort();
+            int tracks = in.readUnsignedShort();
+            int division = in.readUnsignedShort();
+            in.skipNBytes(headerLength - 6);
+            if (format > 1) throw new IOException("Only SMF type 0 and 1 are supported, got type " + format);
+            if ((division & 0x8000) != 0) throw new IOException("SMPTE time division is not supported");
+            TrackReader reader = new TrackReader(division);
+            for (int t = 0; t < tracks; t++) {
+                int chunkType = in.readInt();
+                int length = in.readInt();
+                if (chunkType != 0x4D54726B) { in.skipNBytes(length); t--; continue; }
+                reader.readTrack(in, length);
+            }
+            return new ProjectFile.Project(reader.tempoMap(), reader.notes, reader.tracks(), new Clip[0], new ClipInstance[0]);
+        } catch (EOFException e) {
+            throw new IOException("Truncated MIDI file: " + file, e);
+        }
+    }
+
+    /** Set-tempo and time-signature meta events in tick order; a meter change goes before a tempo on the same tick. */
+    private static void writeConductor(ChunkWriter out, TempoMap tempo) throws IOException {
+        List<long[]> events = new ArrayList<>();
+        tempo.forEachMeter((beat, num, den) -> events.add(new long[] {Math.round(beat * PPQ), 0, num, den}));
+        tempo.forEachTempo(RAMP_STEP_BEATS, (beat, bpm) -> events.add(new long[] {Math.round(beat * PPQ), 1, Math.round(60_000_000.0 / bpm)}));
+        events.sort((a, b) -> a[0] != b[0] ? Long.compare(a[0], b[0]) : Long.compare(a[1], b[1]));
+        long lastTick = 0;
+        for (long[] e : events) {
+            out.varLen(e[0] - lastTick);
+            lastTick = e[0];
+            if (e[1] == 0) {
+                int den = (int) e[3];
+                out.bytes(0xFF, 0x58, 0x04, (int) e[2], Integer.numberOfTrailingZeros(den), 96 / den, 8);
+            } else {
+                int micros = (int) e[2];
+                out.bytes(0xFF, 0x51, 0x03, micros >> 16 & 0xFF, micros >> 8 & 0xFF, micros & 0xFF);
+            }
+        }
+    }
+
+    private static void writeNotes(ChunkWriter out, NoteBuffer notes, long[] order) throws IOException {
+        long[] offHeap = new long[64];
+        int offCount = 0;
+        long lastTick = 0;
+        for (long key : order) {
+            int i = (int) (key & INDEX_MASK);
+            int midi = PitchTable.midiForRow(notes.rows[i]);
+            if (midi < 0) continue;
+            int ch = Track.channelFor(notes.tracks[i]) & 0x0F;
+            long on = Math.round(notes.starts[i] * PPQ);
+            while (offCount > 0 && (offHeap[0] >>> 12) <= on) {
+                long off = offHeap[0];
+                offCount = heapPop(offHeap, offCount);
+                lastTick = writeNoteOff(out, lastTick, off);
+            }
+            lastTick = writeEvent(out, lastTick, on, 0x90 | ch, midi, Math.max(1, Math.min(127, notes.velocities[i])));
+            long off = Math.max(on + 1, Math.round((notes.starts[i] + notes.lengths[i]) * PPQ));
+            if (offCount == offHeap.length) offHeap = Arrays.copyOf(offHeap, offCount * 2);
+            offCount = heapPush(offHeap, offCount, (off << 12) | (ch << 7) | midi);
+        }
+        while (offCount > 0) {
+            long off = offHeap[0];
+            offCount = heapPop(offHeap, offCount);
+            lastTick = writeNoteOff(out, lastTick, off);
+        }
+    }
+
+    private static long writeNoteOff(ChunkWriter out, long lastTick, long packed) throws IOException {
+        return writeEvent(out, lastTick, packed >>> 12, 0x80 | (int) (packed >>> 7 & 0x0F), (int) (packed & 0x7F), 0);
+    }
+
+    private static long writeEvent(ChunkWriter out, long lastTick, long tick, int status, int data1, int data2) throws IOException {
+        out.varLen(tick - lastTick).bytes(status, data1, data2);
+        return tick;
+    }
+
+    private static long[] startOrder(NoteBuffer notes) throws IOException {
+        if (notes.size > INDEX_MASK) throw new IOException("Too many notes for MIDI export: " + notes.size);
+        long[] order = new long[notes.size];
+        for (int i = 0; i < order.length; i++) order[i] = Math.round(Math.max(0.0, notes.starts[i]) * PPQ) << INDEX_BITS | i;
+        Arrays.sort(order);
+        return order;
+    }
+
+    private static int heapPush(long[] heap, int size, long value) {
+        int i = size;
+        heap[i] = value;
+        while (i > 0 && heap[(i - 1) >> 1] > heap[i]) { int p = (i - 1) >> 1; long t = heap[p]; heap[p] = heap[i]; heap[i] = t; i = p; }
+        return size + 1;
+    }
+
+    private static int heapPop(long[] heap, int size) {
+        heap[0] = heap[--size];
+        int i = 0;
+        while (true) {
+            int l = 2 * i + 1, r = l + 1, m = i;
+            if (l < size && heap[l] < heap[m]) m = l;
+            if (r < size && heap[r] < heap[m]) m = r;
+            if (m == i) return size;
+            long t = heap[m]; heap[m] = heap[i]; heap[i] = t; i = m;
+        }
+    }
+
+    private static final class TrackReader {
+        final int ppq;
+        final NoteBuffer notes = new NoteBuffer();
+        final long[] openTick = new long[16 * 128];
+        final int[] openVelocity = new int[16 * 128];
+        final int[] programs = new int[16];
+        final int[] volumes = new int[16];
+        final List<long[]> tempos = new ArrayList<>();
+        final List<long[]> meters = new ArrayList<>();
+        int skipped = 0;
+        private int varLenBytes;
+
+        TrackReader(int ppq) {
+            this.ppq = ppq;
+            Arrays.fill(programs, -1);
+            Arrays.fill(volumes, -1);
+        }
+
+        /**
+         * Rebuilds the tempo map from the meta events. Tempos are clamped to the editor's range, and a
+         * meter change that doesn't fall on a bar line of the previous meter is dropped.
+         */
+        TempoMap tempoMap() {
+            StringBuilder text = new StringBuilder();
+            tempos.sort((a, b) -> Long.compare(a[0], b[0]));
+            if (tempos.isEmpty() || tempos.get(0)[0] > 0) text.append("0 120\n");
+            for (int i = 0; i < tempos.size(); i++) {
+                long[] t = tempos.get(i);
+                if (i + 1 < tempos.size() && tempos.get(i + 1)[0] == t[0]) continue;
+                double bpm = Math.max(20.0, Math.min(300.0, Math.round(60_000_000_000.0 / Math.max(1, t[1])) / 1000.0));
+                text.append(t[0] / (double) ppq).append(' ').append(bpm).append('\n');
+            }
+            meters.sort((a, b) -> Long.compare(a[0], b[0]));
+            long barTick = 0, bar = 0, barTicks = 4L * ppq;
+            for (int i = 0; i < meters.size(); i++) {
+                long[] m = meters.get(i);
+                if (i + 1 < meters.size() && meters.get(i + 1)[0] == m[0]) continue;
+                if (m[1] < 1 || m[1] > 32 || (m[0] - barTick) % barTicks != 0) continue;
+                bar += (m[0] - barTick) / barTicks;
+                barTick = m[0];
+                barTicks = Math.max(1, m[1] * 4L * ppq / m[2]);
+                text.append("meter ").append(bar + 1).append(' ').append(m[1]).append('/').append(m[2]).append('\n');
+            }
+            return TempoMap.parse(text.toString());
+        }
+
+        /** The first program and channel volume seen per channel; empty when the file sets neither. */
+        Track[] tracks() {
+            int count = 0;
+            for (int ch = 0; ch < 16; ch++) if (ch != 9 && (programs[ch] >= 0 || volumes[ch] >= 0)) count = Math.max(count, Track.indexForChannel(ch) + 1);
+            if (count == 0) return new Track[0];
+            for (int i = 0; i < notes.size; i++) count = Math.max(count, notes.tracks[i] + 1);
+            Track[] tracks = new Track[Math.min(count, TrackList.MAX_TRACKS)];
+            for (int i = 0; i < tracks.length; i++) {
+                int ch = Track.channelFor(i);
+                tracks[i] = new Track(i, "Track " + (i + 1), Math.max(0, programs[ch]));
+                if (volumes[ch] >= 0) tracks[i].volume = volumes[ch];
+            }
+            return tracks;
+        }
+
+        void readTrack(DataInputStream in, int length) throws IOException {
+            Arrays.fill(openTick, -1L);
+            long remaining = length;
+            long tick = 0;
+            int status = 0;
+            while (remaining > 0) {
+                tick += readVarLen(in);
+                remaining -= varLenBytes;
+                int b = in.readUnsignedByte(); remaining--;
+                if (b == 0xFF) {
+                    int type = in.readUnsignedByte(); remaining--;
+                    int len = (int) readVarLen(in); remaining -= varLenBytes;
+                    if (type == 0x51 && len == 3) {
+                        tempos.add(new long[] {tick, in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte()});
+                    } else if (type == 0x58 && len == 4) {
+                        meters.add(new long[] {tick, in.readUnsignedByte(), 1 << Math.min(5, in.readUnsignedByte())});
+                        in.skipNBytes(2);
+                    } else {
+                        in.skipNBytes(len);
+                    }
+                    remaining -= len;
+                    if (type == 0x2F) break;
+                    continue;
+                }
+                if (b == 0xF0 || b == 0xF7) {
+                    int len = (int) readVarLen(in); remaining -= varLenBytes;
+                    in.skipNBytes(len); remaining -= len;
+                    continue;
+                }
+                int data1;
+                if ((b & 0x80) != 0) { status = b; data1 = in.readUnsignedByte(); remaining--; }
+                else data1 = b;
+                int command = status & 0xF0, channel = status & 0x0F;
+                if (command == 0xC0 && programs[channel] < 0) programs[channel] = data1;
+                if (command == 0xC0 || command == 0xD0) continue;
+                int data2 = in.readUnsignedByte(); remaining--;
+                if (command == 0xB0 && data1 == 7 && volumes[channel] < 0) volumes[channel] = data2;
+                if (command == 0x90 && data2 > 0) {
+                    int key = channel << 7 | data1;
+                    if (openTick[key] >= 0) close(key, tick);
+                    openTick[key] = tick;
+                    openVelocity[key] = data2;
+                } else if (command == 0x80 || command == 0x90) {
+                    close(channel << 7 | data1, tick);
+                }
+            }
+            in.skipNBytes(Math.max(0, remaining));
+            for (int key = 0; key < openTick.length; key++) if (openTick[key] >= 0) close(key, tick);
+        }
+
+        private void close(int key, long tick) {
+            long on = openTick[key];
+            if (on < 0) return;
+            openTick[key] = -1L;
+            int row = PitchTable.rowForMidi(key & 0x7F);
+            if (row < 0) { skipped++; return; }
+            notes.add(Track.indexForChannel(key >> 7), row, on / (double) ppq, Math.max(1, tick - on) / (double) ppq, openVelocity[key]);
+        }
+
+        private long readVarLen(DataInputStream in) throws IOException {
+            long value = 0;
+            int n = 0, b;
+            do { b = in.readUnsignedByte(); n++; value = (value << 7) | (b & 0x7F); } while ((b & 0x80) != 0 && n < 4);
+            varLenBytes = n;
+            return value;
+        }
+    }
+
+    private static final class ChunkWriter {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_BYTES);
+        private long position = 0;
+
+        ChunkWriter(FileChannel ch) { this.ch = ch; }
+
+        ChunkWriter bytes(int... values) throws IOException {
+            for (int v : values) { if (!buf.hasRemaining()) flush(); buf.put((byte) v); position++; }
+            return this;
+        }
+
+        ChunkWriter int32(int v) throws IOException { return bytes(v >>> 24, v >>> 16 & 0xFF, v >>> 8 & 0xFF, v & 0xFF); }
+        ChunkWriter int16(int v) throws IOException { return bytes(v >>> 8 & 0xFF, v & 0xFF); }
+
+        ChunkWriter varLen(long v) throws IOException {
+            if (v > 0x0FFFFFFFL) throw new IOException("Delta time too large for SMF: " + v);
+            int shift = 21;
+            while (shift > 0 && (v >>> shift) == 0) shift -= 7;
+            for (; shift > 0; shift -= 7) bytes((int) (v >>> shift & 0x7F) | 0x80);
+            return bytes((int) (v & 0x7F));
+        }
+
+        long beginTrack() throws IOException {
+            bytes('M', 'T', 'r', 'k').int32(0);
+            return position;
+        }
+
+        void endTrack(long dataStart) throws IOException {
+            varLen(0).bytes(0xFF, 0x2F, 0x00);
+            flush();
+            ByteBuffer len = ByteBuffer.allocate(4).putInt((int) (position - dataStart));
+            len.flip();
+            ch.write(len, dataStart - 4);
+        }
+
+        void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) ch.write(buf);
+            buf.clear();
+        }
+    }
+}
@@ -1,59 +1,147 @@
 import javax.sound.midi.*;
-import java.util.List;
 
-public class MidiManager {
+public class MidiManager implements PlaybackScheduler.Output {
+    private static final int MAX_LIVE_VOICES = 64;
+
     private Synthesizer synth;
+    private MidiChannel[] channels;
     private MidiChannel channel;
     private MidiChannel percussionChannel;
+    private Receiver receiver;
+    private final long[] pendingAt = new long[1024];
+    private final int[] pendingKey = new int[1024];
+    private int pendingHead = 0;
+    private VoiceReleaser releaser;
+    private final ShortMessage scratch = new ShortMessage();
 
     public MidiManager() throws MidiUnavailableException {
         synth = MidiSystem.getSynthesizer();
         synth.open();
-        MidiChannel[] channels = synth.getChannels();
+        channels = synth.getChannels();
         if (channels != null && channels.length > 0) {
             channel = channels[0];
             channel.programChange(0);
             if (channels.length > 9) percussionChannel = channels[9];
         }
+        receiver = synth.getReceiver();
+        releaser = new VoiceReleaser(channels != null ? channels : new MidiChannel[16], MAX_LIVE_VOICES);
+    }
+
+    @Override public long getMicrosecondPosition() {
+        return synth.getMicrosecondPosition();
+    }
+
+    public void scheduleNote(int midi, int velocity, long onMicros, long offMicros) {
+        scheduleNote(0, midi, velocity, onMicros, offMicros);
+    }
+
+    @Override public void scheduleNote(int ch, int midi, int velocity, long onMicros, long offMicros) {
+        if (receiver == null || midi < 0 || midi > 127) return;
+        sendAt(ShortMessage.NOTE_ON, ch, midi, velocity, onMicros);
+        sendAt(ShortMessage.NOTE_OFF, ch, midi, 0, offMicros);
+    }
+
+    @Override public void scheduleMetronomeTick(boolean accent, long atMicros) {
+        if (receiver == null) return;
+        int ch = (percussionChannel != null) ? 9 : 0;
+        int tickNote = accent ? 76 : 37;
+        sendAt(ShortMessage.NOTE_ON, ch, tickNote, accent ? 120 : 90, atMicros);
+        sendAt(ShortMessage.NOTE_OFF, ch, tickNote, 0, atMicros + 80_000L);
+    }
+
+    public void setProgram(int ch, int program) {
+        if (channels == null || ch < 0 || ch >= channels.length || channels[ch] == null) return;
+        channels[ch].programChange(Math.max(0, Math.min(127, program)));
+    }
+
+    public void setVolume(int ch, int volume) {
+        if (channels == null || ch < 0 || ch >= channels.length || channels[ch] == null) return;
+        channels[ch].controlChange(7, Math.max(0, Math.min(127, volume)));
+    }
+
+    public void liveNote(int ch, int midi, int velocity) {
+        if (channels == null || ch < 0 || ch >= channels.length || channels[ch] == null || midi < 0 || midi > 127) return;
+        if (velocity > 0) channels[ch].noteOn(midi, velocity); else channels[ch].noteOff(midi);
+    }
+
+    public void cancelPending() {
+        if (receiver == null) return;
+        long now = getMicrosecondPosition();
+        synchronized (pendingAt) {
+            for (int i = 0; i < pendingAt.length; i++) {
+                if (pendingAt[i] > now) {
+                    int key = pendingKey[i];
+                    sendAt(ShortMessage.NOTE_OFF, key >> 8, key & 0x7F, 0, pendingAt[i] + 1);
+                }
+                pendingAt[i] = 0;
+            }
+        }
+    }
+
+    private void sendAt(int command, int ch, int data1, int data2, long atMicros) {
+        synchronized (scratch) {
+            try {
+                scratch.setMessage(command, ch, data1, data2);
+                receiver.send(scratch, atMicros);
+            } catch (InvalidMidiDataException | IllegalStateException ignored) { return; }
+        }
+        if (command == ShortMessage.NOTE_ON) {
+            synchronized (pendingAt) {
+                pendingAt[pendingHead] = atMicros;
+                pendingKey[pendingHead] = (ch << 8) | data1;
+                pendingHead = (pendingHead + 1) % pendingAt.length;
+            }
+        }
     }
 
     public void allNotesOff() {
-        if (channel != null) {
-            try { channel.allNotesOff(); } catch (Exception ignored) {}
+        if (releaser != null) releaser.clear();
+        if (channels == null) return;
+        for (MidiChannel c : channels) {
+            if (c == null) continue;
+            try { c.allNotesOff(); } catch (Exception ignored) {}
         }
     }
 
     public void playNoteAsync(int midi, int durationMs, int velocity) {
         if (channel == null || midi < 0) return;
-        channel.noteOn(midi, velocity);
-        new Thread(() -> {
-            try { Thread.sleep(durationMs); } catch (InterruptedException ignored) {}
-            channel.noteOff(midi);
-        }).start();
+        releaser.noteOn(0, midi, velocity, durationMs * 1_000_000L);
     }
 
-    public void playPreviewNotes(List<Integer> midiNotes, int durationMs) {
-        if (channel == null || midiNotes == null || midiNotes.isEmpty()) return;
-        for (int m : midiNotes) channel.noteOn(m, 90);
-        new Thread(() -> {
-            try { Thread.sleep(durationMs); } catch (InterruptedException ignored) {}
-            for (int m : midiNotes) channel.noteOff(m);
-        }).start();
+    public void playPreviewNotes(int[] midiNotes, int count, int durationMs) {
+        playPreviewNotes(null, midiNotes, count, durationMs);
+    }
+
+    public void playPreviewNotes(int[] channels, int[] midiNotes, int count, int durationMs) {
+        if (channel == null || midiNotes == null) return;
+        for (int i = 0; i < count; i++) releaser.noteOn(channels != null ? channels[i] : 0, midiNotes[i], 90, durationMs * 1_000_000L);
+    }
+
+    public void playPreviewNote(int ch, int midi, int velocity, int durationMs) {
+        if (channel == null || midi < 0 || midi > 127 || ch < 0 || ch >= 16) return;
+        releaser.noteOn(ch, midi, velocity, durationMs * 1_000_000L);
     }
 
     public void playMetronomeTick(boolean accent) {
-        MidiChannel pc = (percussionChannel != null) ? percussionChannel : channel;
-        if (pc == null) return;
+        if (channel == null) return;
         int tickNote = accent ? 76 : 37;
         int vel = accent ? 120 : 90;
-        pc.noteOn(tickNote, vel);
-        new Thread(() -> {
-            try { Thread.sleep(80); } catch (InterruptedException ignored) {}
-            pc.noteOff(tickNote);
-        }).start();
+        releaser.noteOn(percussionChannel != null ? 9 : 0, tickNote, vel, 80_000_000L);
+    }
+
+    public int getPendingVoices() { return releaser != null ? releaser.pendingVoices() : 0; }
+    public long getLateReleases() { return releaser != null ? releaser.lateReleases() : 0; }
+    public long getStolenVoices() { return releaser != null ? releaser.stolenVoices() : 0; }
+
+    public int getActiveVoices() {
+        VoiceStatus[] status = synth != null ? synth.getVoiceStatus() : null;
+        if (status == null) return 0;
+        int active = 0;
+        for (VoiceStatus v : status) if (v.active) active++;
+        return active;
     }
 
-    public int noteNameToMidi(String name) {
+    public static int noteNameToMidi(String name) {
         if (name == null || name.length() < 2) return -1;
         name = name.trim();
         int idx = 0;
@@ -0,0 +1,116 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.sound.midi.*;
+
+public class MidiRecorder implements Receiver {
+    private static final int CAPACITY = 1 << 14;
+    private static final int MASK = CAPACITY - 1;
+
+    private final MidiManager midiManager;
+    private final long[] times = new long[CAPACITY];
+    private final int[] events = new int[CAPACITY];
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private volatile long dropped = 0;
+    private volatile boolean armed = false;
+    private volatile int monitorChannel = -1;
+
+    private final double[] openBeat = new double[16 * 128];
+    private final int[] openVelocity = new int[16 * 128];
+
+    private MidiDevice device;
+    private Transmitter transmitter;
+
+    public MidiRecorder(MidiManager midiManager) {
+        this.midiManager = midiManager;
+        Arrays.fill(openBeat, Double.NaN);
+    }
+
+    public static MidiDevice.Info[] inputs() {
+        return Arrays.stream(MidiSystem.getMidiDeviceInfo()).filter(info -> {
+            try {
+                MidiDevice d = MidiSystem.getMidiDevice(info);
+                return !(d instanceof Sequencer) && !(d instanceof Synthesizer) && d.getMaxTransmitters() != 0;
+            } catch (MidiUnavailableException e) { return false; }
+        }).toArray(MidiDevice.Info[]::new);
+    }
+
+    public void connect(MidiDevice.Info info) throws MidiUnavailableException {
+        disconnect();
+        MidiDevice d = MidiSystem.getMidiDevice(info);
+        d.open();
+        try { connect(d.getTransmitter()); } catch (MidiUnavailableException e) { d.close(); throw e; }
+        device = d;
+    }
+
+    public void connect(Transmitter t) {
+        disconnect();
+        transmitter = t;
+        t.setReceiver(this);
+    }
+
+    public void disconnect() {
+        if (transmitter != null) { transmitter.close(); transmitter = null; }
+        if (device != null) { device.close(); device = null; }
+    }
+
+    public boolean isConnected() { return transmitter != null; }
+    public void setArmed(boolean armed) { this.armed = armed; }
+    public boolean isArmed() { return armed; }
+    public void setMonitorChannel(int channel) { this.monitorChannel = channel; }
+    public long getDropped() { return dropped; }
+
+    @Override public void send(MidiMessage message, long timeStamp) {
+        if (!(message instanceof ShortMessage)) return;
+        ShortMessage m = (ShortMessage) message;
+        int command = m.getCommand();
+        if (command != ShortMessage.NOTE_ON && command != ShortMessage.NOTE_OFF) return;
+        int key = m.getData1(), velocity = command == ShortMessage.NOTE_ON ? m.getData2() : 0;
+        int ch = monitorChannel;
+        if (ch >= 0 && midiManager != null) midiManager.liveNote(ch, key, velocity);
+        if (armed) offer(midiManager != null ? midiManager.getMicrosecondPosition() : System.nanoTime() / 1000, m.getChannel() << 16 | key << 8 | velocity);
+    }
+
+    @Override public void close() { disconnect(); }
+
+    private void offer(long micros, int event) {
+        long t = tail.get();
+        if (t - head.get() >= CAPACITY) { dropped++; return; }
+        int i = (int) t & MASK;
+        times[i] = micros;
+        events[i] = event;
+        tail.lazySet(t + 1);
+    }
+
+    public int drain(PlaybackScheduler clock, int track, List<Note> out) {
+        long h = head.get(), t = tail.get();
+        for (long p = h; p < t; p++) {
+            int i = (int) p & MASK;
+            int e = events[i];
+            int key = (e >>> 16 & 0x0F) << 7 | (e >>> 8 & 0x7F), velocity = e & 0x7F;
+            double beat = clock.beatAtMicros(times[i]);
+            close(clock, track, key, beat, out);
+            if (velocity > 0) { openBeat[key] = beat; openVelocity[key] = velocity; }
+        }
+        head.lazySet(t);
+        return (int) (t - h);
+    }
+
+    public void flush(PlaybackScheduler clock, int track, List<Note> out) {
+        drain(clock, track, out);
+        double beat = clock.beatAtMicros(midiManager != null ? midiManager.getMicrosecondPosition() : System.nanoTime() / 1000);
+        for (int key = 0; key < openBeat.length; key++) close(clock, track, key, beat, out);
+    }
+
+    private void close(PlaybackScheduler clock, int track, int key, double beat, List<Note> out) {
+        double on = openBeat[key];
+        if (Double.isNaN(on)) return;
+        openBeat[key] = Double.NaN;
+        int row = PitchTable.rowForMidi(key & 0x7F);
+        if (row < 0) return;
+        Note n = new Note(track, row, clock.arrangementBeat(on), beat - on);
+        n.velocity = openVelocity[key];
+        out.add(n);
+    }
+}
@@ -1,13 +1,36 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
 public class Note {
+    /** Shortest note the editor, the bulk edits and the recorder will produce, in beats. */
+    public static final double MIN_LENGTH = 1.0 / 64;
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    final int id;
+    int track;
     int row;
     double start;
     double length;
+    int velocity = 90;
     int lastPreviewCol = Integer.MIN_VALUE;
-    int lastPlayedCycle = Integer.MIN_VALUE;
 
     public Note(int row, double start, double length) {
+        this(0, row, start, length);
+    }
+
+    public Note(int track, int row, double start, double length) {
+        this.id = NEXT_ID.getAndIncrement();
+        this.track = track;
         this.row = row;
         this.start = Math.max(0.0, start);
-        this.length = Math.max(0.25, length);
+        this.length = Math.max(MIN_LENGTH, length);
+    }
+
+    private Note(double start, int id) {
+        this.id = id;
+        this.start = start;
+    }
+
+    static Note probe(double start, int id) {
+        return new Note(start, id);
     }
 }
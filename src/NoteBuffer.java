@@ -0,0 +1,101 @@
+import java.util.Arrays;
+
+public class NoteBuffer {
+    int size;
+    int[] rows;
+    double[] starts;
+    double[] lengths;
+    int[] tracks;
+    int[] velocities;
+
+    public NoteBuffer() { this(64); }
+
+    public NoteBuffer(int capacity) {
+        capacity = Math.max(1, capacity);
+        rows = new int[capacity];
+        starts = new double[capacity];
+        lengths = new double[capacity];
+        tracks = new int[capacity];
+        velocities = new int[capacity];
+    }
+
+    public static NoteBuffer of(ArrangementSnapshot snap) {
+        NoteBuffer b = new NoteBuffer(snap.size);
+        System.arraycopy(snap.rows, 0, b.rows, 0, snap.size);
+        System.arraycopy(snap.starts, 0, b.starts, 0, snap.size);
+        System.arraycopy(snap.lengths, 0, b.lengths, 0, snap.size);
+        System.arraycopy(snap.tracks, 0, b.tracks, 0, snap.size);
+        System.arraycopy(snap.velocities, 0, b.velocities, 0, snap.size);
+        b.size = snap.size;
+        return b;
+    }
+
+    public int size() { return size; }
+    public int row(int i) { return rows[i]; }
+    public double start(int i) { return starts[i]; }
+    public double length(int i) { return lengths[i]; }
+    public int track(int i) { return tracks[i]; }
+    public int velocity(int i) { return velocities[i]; }
+
+    public void add(int row, double start, double length) { add(0, row, start, length, 90); }
+
+    public void add(int track, int row, double start, double length, int velocity) {
+        if (size == rows.length) grow(size * 2);
+        tracks[size] = track;
+        rows[size] = row;
+        starts[size] = start;
+        lengths[size] = length;
+        velocities[size] = velocity;
+        size++;
+    }
+
+    public void clear() { size = 0; }
+
+    public double endBeat() {
+        double end = 0.0;
+        for (int i = 0; i < size; i++) end = Math.max(end, starts[i] + lengths[i]);
+        return end;
+    }
+
+    public int transpose(int semitones) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int midi = PitchTable.midiForRow(rows[i]);
+            int row = midi < 0 ? -1 : PitchTable.rowForMidi(midi + semitones);
+            if (row < 0) continue;
+            rows[kept] = row;
+            starts[kept] = starts[i];
+            lengths[kept] = lengths[i];
+            tracks[kept] = tracks[i];
+            velocities[kept] = velocities[i];
+            kept++;
+        }
+        int dropped = size - kept;
+        size = kept;
+        return dropped;
+    }
+
+    public void quantize(double grid) {
+        if (!(grid > 0.0)) return;
+        for (int i = 0; i < size; i++) {
+            double start = Math.round(starts[i] / grid) * grid;
+            double end = Math.max(start + grid, Math.round((starts[i] + lengths[i]) / grid) * grid);
+            starts[i] = start;
+            lengths[i] = end - start;
+        }
+    }
+
+    public Note[] toNotes() {
+        Note[] out = new Note[size];
+        for (int i = 0; i < size; i++) { out[i] = new Note(tracks[i], rows[i], starts[i], lengths[i]); out[i].velocity = velocities[i]; }
+        return out;
+    }
+
+    void grow(int capacity) {
+        rows = Arrays.copyOf(rows, capacity);
+        starts = Arrays.copyOf(starts, capacity);
+        lengths = Arrays.copyOf(lengths, capacity);
+        tracks = Arrays.copyOf(tracks, capacity);
+        velocities = Arrays.copyOf(velocities, capacity);
+    }
+}
@@ -0,0 +1,219 @@
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+public class NoteStore implements Iterable<Note> {
+    public interface EditListener {
+        void added(Note n);
+        void removed(Note n);
+        void changed(Note n, int oldRow, double oldStart, double oldLength, int oldVelocity);
+    }
+
+    private static final Comparator<Note> BY_START = (a, b) -> {
+        int c = Double.compare(a.start, b.start);
+        return c != 0 ? c : Integer.compare(a.id, b.id);
+    };
+
+    private final TreeSet<Note> byStart = new TreeSet<>(BY_START);
+    private final TreeSet<Note>[] rows;
+    private final double[] maxLength;
+    private volatile ArrangementSnapshot snapshot = ArrangementSnapshot.EMPTY;
+    private long version = 0;
+    private boolean dirty = false;
+    private Runnable changeListener;
+    private EditListener editListener;
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public NoteStore(int rowCount) {
+        rows = new TreeSet[rowCount];
+        maxLength = new double[rowCount];
+        for (int r = 0; r < rowCount; r++) rows[r] = new TreeSet<>(BY_START);
+    }
+
+    public void setChangeListener(Runnable listener) { this.changeListener = listener; }
+    public void setEditListener(EditListener listener) { this.editListener = listener; }
+
+    public void addEditListener(EditListener listener) {
+        EditListener first = editListener;
+        if (first == null) { editListener = listener; return; }
+        editListener = new EditListener() {
+            @Override public void added(Note n) { first.added(n); listener.added(n); }
+            @Override public void removed(Note n) { first.removed(n); listener.removed(n); }
+            @Override public void changed(Note n, int oldRow, double oldStart, double oldLength, int oldVelocity) { first.changed(n, oldRow, oldStart, oldLength, oldVelocity); listener.changed(n, oldRow, oldStart, oldLength, oldVelocity); }
+        };
+    }
+
+    public ArrangementSnapshot snapshot() { return snapshot; }
+
+    public synchronized ArrangementSnapshot publish() {
+        if (dirty) {
+            dirty = false;
+            snapshot = new ArrangementSnapshot(++version, byStart.toArray(new Note[0]));
+        }
+        return snapshot;
+    }
+
+    public int rowCount() { return rows.length; }
+    public int size() { return byStart.size(); }
+    public boolean isEmpty() { return byStart.isEmpty(); }
+    public boolean contains(Note n) { return n != null && validRow(n.row) && rows[n.row].contains(n); }
+    @Override public Iterator<Note> iterator() { return Collections.unmodifiableSet(byStart).iterator(); }
+
+    public void add(Note n) {
+        if (!link(n)) return;
+        markDirty();
+        if (editListener != null) editListener.added(n);
+    }
+
+    public void addAll(Note[] batch) {
+        if (!byStart.isEmpty()) { for (Note n : batch) add(n); return; }
+        Note[] sorted = batch.clone();
+        Arrays.sort(sorted, BY_START);
+        int[] perRow = new int[rows.length];
+        int valid = 0;
+        for (Note n : sorted) if (validRow(n.row)) { perRow[n.row]++; sorted[valid++] = n; }
+        Note[][] byRow = new Note[rows.length][];
+        for (int r = 0; r < rows.length; r++) { byRow[r] = new Note[perRow[r]]; perRow[r] = 0; }
+        for (int i = 0; i < valid; i++) {
+            Note n = sorted[i];
+            byRow[n.row][perRow[n.row]++] = n;
+            if (n.length > maxLength[n.row]) maxLength[n.row] = n.length;
+        }
+        byStart.addAll(new SortedRun(sorted, 0, valid));
+        for (int r = 0; r < rows.length; r++) if (byRow[r].length > 0) rows[r].addAll(new SortedRun(byRow[r], 0, byRow[r].length));
+        markDirty();
+        if (editListener != null) for (int i = 0; i < valid; i++) editListener.added(sorted[i]);
+    }
+
+    public boolean remove(Note n) {
+        if (!unlink(n)) return false;
+        markDirty();
+        if (editListener != null) editListener.removed(n);
+        return true;
+    }
+
+    public void removeAll(Collection<Note> toRemove) {
+        for (Note n : toRemove) remove(n);
+    }
+
+    public void clear() {
+        if (editListener != null) for (Note n : byStart) editListener.removed(n);
+        byStart.clear();
+        for (int r = 0; r < rows.length; r++) { rows[r].clear(); maxLength[r] = 0.0; }
+        markDirty();
+    }
+
+    public void set(Note n, int row, double start, double length) { set(n, row, start, length, n.velocity); }
+
+    public void set(Note n, int row, double start, double length, int velocity) {
+        int oldRow = n.row, oldVelocity = n.velocity;
+        double oldStart = n.start, oldLength = n.length;
+        if (oldRow == row && oldStart == start && oldLength == length && oldVelocity == velocity) return;
+        if (oldRow == row && oldStart == start && oldLength == length) {
+            n.velocity = velocity;
+            if (!contains(n)) return;
+            markDirty();
+            if (editListener != null) editListener.changed(n, oldRow, oldStart, oldLength, oldVelocity);
+            return;
+        }
+        boolean present = unlink(n);
+        n.row = row;
+        n.start = start;
+        n.length = length;
+        n.velocity = velocity;
+        if (!present) return;
+        markDirty();
+        if (!link(n)) { n.row = oldRow; n.start = oldStart; n.length = oldLength; n.velocity = oldVelocity; if (editListener != null) editListener.removed(n); return; }
+        if (editListener != null) editListener.changed(n, oldRow, oldStart, oldLength, oldVelocity);
+    }
+
+    public void move(Note n, int row, double start) { set(n, row, start, n.length); }
+    public void resize(Note n, double length) { set(n, n.row, n.start, length); }
+
+    public NavigableSet<Note> startingIn(double fromBeat, double toBeat) {
+        if (!(toBeat > fromBeat)) return Collections.emptyNavigableSet();
+        return Collections.unmodifiableNavigableSet(byStart.subSet(Note.probe(fromBeat, Integer.MIN_VALUE), true, Note.probe(toBeat, Integer.MIN_VALUE), false));
+    }
+
+    public Note firstOverlapping(int row, double fromBeat, double toBeat) {
+        return firstOverlapping(row, fromBeat, toBeat, -1);
+    }
+
+    public Note firstOverlapping(int row, double fromBeat, double toBeat, int track) {
+        if (!validRow(row) || !(toBeat > fromBeat)) return null;
+        double reach = maxLength[row];
+        for (Note n : rows[row].headSet(Note.probe(toBeat, Integer.MIN_VALUE), false).descendingSet()) {
+            if (n.start + reach <= fromBeat) break;
+            if (n.start + n.length > fromBeat && (track < 0 || n.track == track)) return n;
+        }
+        return null;
+    }
+
+    public void overlapping(int row, double fromBeat, double toBeat, Collection<Note> out) {
+        if (!validRow(row) || !(toBeat > fromBeat)) return;
+        double reach = maxLength[row];
+        for (Note n : rows[row].subSet(Note.probe(fromBeat - reach, Integer.MIN_VALUE), true, Note.probe(toBeat, Integer.MIN_VALUE), false)) {
+            if (n.start + n.length > fromBeat) out.add(n);
+        }
+    }
+
+    public void intersecting(int rowLo, int rowHi, double fromBeat, double toBeat, Collection<Note> out) {
+        for (int r = Math.max(0, rowLo); r <= rowHi && r < rows.length; r++) overlapping(r, fromBeat, toBeat, out);
+    }
+
+    private static final class SortedRun extends AbstractSet<Note> implements SortedSet<Note> {
+        private final Note[] notes;
+        private final int from, to;
+
+        SortedRun(Note[] notes, int from, int to) { this.notes = notes; this.from = from; this.to = to; }
+
+        @Override public Iterator<Note> iterator() { return Arrays.asList(notes).subList(from, to).iterator(); }
+        @Override public int size() { return to - from; }
+        @Override public Comparator<? super Note> comparator() { return BY_START; }
+        @Override public Note first() { if (from == to) throw new NoSuchElementException(); return notes[from]; }
+        @Override public Note last() { if (from == to) throw new NoSuchElementException(); return notes[to - 1]; }
+        @Override public SortedSet<Note> headSet(Note hi) { return new SortedRun(notes, from, indexOf(hi)); }
+        @Override public SortedSet<Note> tailSet(Note lo) { return new SortedRun(notes, indexOf(lo), to); }
+
+        @Override public SortedSet<Note> subSet(Note lo, Note hi) {
+            if (BY_START.compare(lo, hi) > 0) throw new IllegalArgumentException("subSet bounds out of order");
+            return new SortedRun(notes, indexOf(lo), indexOf(hi));
+        }
+
+        private int indexOf(Note n) {
+            int i = Arrays.binarySearch(notes, from, to, n, BY_START);
+            return i >= 0 ? i : -i - 1;
+        }
+    }
+
+    private boolean link(Note n) {
+        if (!validRow(n.row) || !byStart.add(n)) return false;
+        rows[n.row].add(n);
+        if (n.length > maxLength[n.row]) maxLength[n.row] = n.length;
+        return true;
+    }
+
+    private boolean unlink(Note n) {
+        if (!contains(n)) return false;
+        byStart.remove(n);
+        TreeSet<Note> row = rows[n.row];
+        row.remove(n);
+        if (row.isEmpty()) maxLength[n.row] = 0.0;
+        return true;
+    }
+
+    private void markDirty() {
+        if (dirty) return;
+        dirty = true;
+        if (changeListener != null) changeListener.run();
+    }
+
+    private boolean validRow(int row) { return row >= 0 && row < rows.length; }
+}
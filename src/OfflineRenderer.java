@@ -0,0 +1,129 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import javax.sound.midi.*;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+
+public class OfflineRenderer {
+    public static final AudioFormat FORMAT = new AudioFormat(44100f, 16, 2, true, false);
+    private static final int BUFFER_BYTES = 64 * 1024;
+    private static final int HEADER_BYTES = 44;
+    private static final double TAIL_SECONDS = 1.5;
+
+    public static class Result {
+        public final long frames;
+        public final long elapsedNanos;
+
+        Result(long frames, long elapsedNanos) {
+            this.frames = frames;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double audioSeconds() { return frames / (double) FORMAT.getFrameRate(); }
+        public double speedFactor() { return elapsedNanos == 0 ? 0.0 : audioSeconds() / (elapsedNanos / 1e9); }
+
+        @Override public String toString() {
+            return String.format("%.2fs of audio in %.3fs (%.1fx real-time)", audioSeconds(), elapsedNanos / 1e9, speedFactor());
+        }
+    }
+
+    public static Result render(ArrangementSnapshot snap, double bpm, double lengthBeats, Path wav) throws IOException, MidiUnavailableException {
+        return render(snap.size, snap.tracks, snap.rows, snap.starts, snap.lengths, snap.velocities, TempoMap.constant(bpm), lengthBeats, wav);
+    }
+
+    public static Result render(NoteBuffer notes, double bpm, double lengthBeats, Path wav) throws IOException, MidiUnavailableException {
+        return render(notes, TempoMap.constant(bpm), lengthBeats, wav);
+    }
+
+    public static Result render(NoteBuffer notes, TempoMap tempo, double lengthBeats, Path wav) throws IOException, MidiUnavailableException {
+        return render(notes.size, notes.tracks, notes.rows, notes.starts, notes.lengths, notes.velocities, tempo, lengthBeats, wav);
+    }
+
+    private static Result render(int size, int[] tracks, int[] rows, double[] starts, double[] lengths, int[] velocities, TempoMap tempo, double lengthBeats, Path wav) throws IOException, MidiUnavailableException {
+        long t0 = System.nanoTime();
+        Synthesizer synth = MidiSystem.getSynthesizer();
+        AudioInputStream pcm = openStream(synth);
+        try {
+            Receiver receiver = synth.getReceiver();
+            ShortMessage msg = new ShortMessage();
+            for (int i = 0; i < size; i++) {
+                int midi = PitchTable.midiForRow(rows[i]);
+                if (midi < 0 || starts[i] >= lengthBeats) continue;
+                long on = (long) (tempo.nanosAt(starts[i]) / 1000.0);
+                long off = Math.max(on + 1, (long) (tempo.nanosAt(Math.min(lengthBeats, starts[i] + lengths[i])) / 1000.0));
+                int ch = Track.channelFor(tracks[i]) & 0x0F;
+                send(receiver, msg, ShortMessage.NOTE_ON, ch, midi, velocities[i], on);
+                send(receiver, msg, ShortMessage.NOTE_OFF, ch, midi, 0, off);
+            }
+            long frames = (long) ((tempo.nanosAt(lengthBeats) / 1e9 + TAIL_SECONDS) * FORMAT.getFrameRate());
+            writeWav(pcm, frames, wav);
+            return new Result(frames, System.nanoTime() - t0);
+        } finally {
+            synth.close();
+        }
+    }
+
+    private static void send(Receiver receiver, ShortMessage msg, int command, int channel, int data1, int data2, long atMicros) {
+        try {
+            msg.setMessage(command, channel, data1, data2);
+            receiver.send(msg, atMicros);
+        } catch (InvalidMidiDataException ignored) {}
+    }
+
+    static AudioInputStream openStream(Synthesizer synth) throws MidiUnavailableException {
+        try {
+            Class<?> audioSynth = Class.forName("com.sun.media.sound.AudioSynthesizer");
+            if (!audioSynth.isInstance(synth)) throw new MidiUnavailableException("Default synthesizer cannot render offline: " + synth.getClass().getName());
+            Method open = audioSynth.getMethod("openStream", AudioFormat.class, Map.class);
+            return (AudioInputStream) open.invoke(synth, FORMAT, null);
+        } catch (ClassNotFoundException | NoSuchMethodException e) {
+            throw new MidiUnavailableException("Software synthesizer stream API not available: " + e);
+        } catch (IllegalAccessException e) {
+            throw new MidiUnavailableException("Offline rendering needs --add-exports java.desktop/com.sun.media.sound=ALL-UNNAMED");
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof MidiUnavailableException) throw (MidiUnavailableException) e.getCause();
+            throw new MidiUnavailableException(String.valueOf(e.getCause()));
+        }
+    }
+
+    private static void writeWav(InputStream pcm, long frames, Path wav) throws IOException {
+        int frameSize = FORMAT.getFrameSize();
+        long dataBytes = frames * frameSize;
+        byte[] chunk = new byte[BUFFER_BYTES - (BUFFER_BYTES % frameSize)];
+        try (FileChannel out = FileChannel.open(wav, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            out.write(wavHeader(0), 0);
+            out.position(HEADER_BYTES);
+            long written = 0;
+            while (written < dataBytes) {
+                int want = (int) Math.min(chunk.length, dataBytes - written);
+                int n = pcm.read(chunk, 0, want);
+                if (n <= 0) break;
+                ByteBuffer buf = ByteBuffer.wrap(chunk, 0, n);
+                while (buf.hasRemaining()) out.write(buf);
+                written += n;
+            }
+            out.write(wavHeader(written), 0);
+        }
+    }
+
+    private static ByteBuffer wavHeader(long dataBytes) {
+        int channels = FORMAT.getChannels();
+        int rate = (int) FORMAT.getSampleRate();
+        int bits = FORMAT.getSampleSizeInBits();
+        ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        h.put(new byte[] {'R', 'I', 'F', 'F'}).putInt((int) (36 + dataBytes)).put(new byte[] {'W', 'A', 'V', 'E'});
+        h.put(new byte[] {'f', 'm', 't', ' '}).putInt(16).putShort((short) 1).putShort((short) channels);
+        h.putInt(rate).putInt(rate * FORMAT.getFrameSize()).putShort((short) FORMAT.getFrameSize()).putShort((short) bits);
+        h.put(new byte[] {'d', 'a', 't', 'a'}).putInt((int) dataBytes);
+        h.flip();
+        return h;
+    }
+}
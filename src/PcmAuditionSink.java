@@ -0,0 +1,186 @@
+import java.awt.GraphicsEnvironment;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import javax.sound.midi.*;
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.SourceDataLine;
+
+public class PcmAuditionSink implements AuditionEngine.Sink {
+    private static final AudioFormat FORMAT = OfflineRenderer.FORMAT;
+    private static final int CHANNELS = 2;
+    private static final int SNIPPET_MS = 400;
+    private static final int RELEASE_MS = 120;
+    private static final int FADE_FRAMES = 441;
+    private static final int BLOCK_FRAMES = 256;
+    private static final int LINE_BUFFER_FRAMES = 2048;
+    private static final long CACHE_BYTES = Long.getLong("warpstudio.previewCacheMB", 8L) * 1024 * 1024;
+
+    private final AuditionEngine.Sink fallback;
+    private final SourceDataLine line;
+    private final Synthesizer renderSynth;
+    private final AudioInputStream renderStream;
+    private final Receiver renderReceiver;
+
+    private final LinkedHashMap<Integer, short[]> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cachedBytes = 0;
+    private final ArrayDeque<Integer> toRender = new ArrayDeque<>();
+
+    private final short[][] voiceData = new short[AuditionEngine.MAX_PREVIEWS][];
+    private final int[] voicePos = new int[AuditionEngine.MAX_PREVIEWS];
+    private final int[] voiceEnd = new int[AuditionEngine.MAX_PREVIEWS];
+    private final int[] voiceGain = new int[AuditionEngine.MAX_PREVIEWS];
+    private final long[] voiceAge = new long[AuditionEngine.MAX_PREVIEWS];
+    private long ticket = 0;
+
+    private volatile long hits = 0;
+    private volatile long misses = 0;
+
+    public PcmAuditionSink(AuditionEngine.Sink fallback) throws MidiUnavailableException {
+        this.fallback = fallback;
+        renderSynth = MidiSystem.getSynthesizer();
+        renderStream = OfflineRenderer.openStream(renderSynth);
+        renderReceiver = renderSynth.getReceiver();
+        line = openLine();
+        Thread mixer = new Thread(this::mix, "audition-mix");
+        mixer.setDaemon(true);
+        mixer.setPriority(Thread.MAX_PRIORITY);
+        mixer.start();
+        Thread renderer = new Thread(this::renderLoop, "audition-render");
+        renderer.setDaemon(true);
+        renderer.start();
+    }
+
+    public boolean hasAudioLine() { return line != null; }
+    public long getHits() { return hits; }
+    public long getMisses() { return misses; }
+    public synchronized long getCachedBytes() { return cachedBytes; }
+
+    @Override public void play(int channel, int program, int midi, int velocity, int durationMs) {
+        int key = program << 7 | midi;
+        short[] data;
+        synchronized (this) {
+            data = cache.get(key);
+            if (data == null && !toRender.contains(key)) { toRender.add(key); notifyAll(); }
+        }
+        if (data == null) { misses++; fallback.play(channel, program, midi, velocity, durationMs); return; }
+        hits++;
+        int end = Math.min(data.length / CHANNELS, (int) ((durationMs + RELEASE_MS) * (long) FORMAT.getFrameRate() / 1000));
+        synchronized (voiceData) {
+            int slot = 0;
+            for (int i = 0; i < voiceData.length; i++) {
+                if (voiceData[i] == null) { slot = i; break; }
+                if (voiceAge[i] < voiceAge[slot]) slot = i;
+            }
+            voiceData[slot] = data;
+            voicePos[slot] = 0;
+            voiceEnd[slot] = end;
+            voiceGain[slot] = velocity;
+            voiceAge[slot] = ++ticket;
+            voiceData.notifyAll();
+        }
+    }
+
+    private void mix() {
+        int[] acc = new int[BLOCK_FRAMES * CHANNELS];
+        byte[] out = new byte[BLOCK_FRAMES * CHANNELS * 2];
+        long blockNanos = BLOCK_FRAMES * 1_000_000_000L / (long) FORMAT.getFrameRate();
+        while (true) {
+            boolean active = false;
+            Arrays.fill(acc, 0);
+            synchronized (voiceData) {
+                for (int v = 0; v < voiceData.length; v++) {
+                    short[] data = voiceData[v];
+                    if (data == null) continue;
+                    active = true;
+                    int pos = voicePos[v], end = voiceEnd[v], gain = voiceGain[v];
+                    int frames = Math.min(BLOCK_FRAMES, end - pos);
+                    for (int f = 0; f < frames; f++) {
+                        int fade = Math.min(FADE_FRAMES, end - pos - f);
+                        for (int c = 0; c < CHANNELS; c++) acc[f * CHANNELS + c] += data[(pos + f) * CHANNELS + c] * gain / 127 * fade / FADE_FRAMES;
+                    }
+                    voicePos[v] = pos + frames;
+                    if (voicePos[v] >= end) voiceData[v] = null;
+                }
+                if (!active && line == null) {
+                    try { voiceData.wait(); } catch (InterruptedException e) { return; }
+                    continue;
+                }
+            }
+            for (int i = 0; i < acc.length; i++) {
+                int s = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, acc[i]));
+                out[2 * i] = (byte) s;
+                out[2 * i + 1] = (byte) (s >> 8);
+            }
+            if (line != null) line.write(out, 0, out.length);
+            else LockSupport.parkNanos(blockNanos);
+        }
+    }
+
+    private void renderLoop() {
+        while (true) {
+            int key;
+            synchronized (this) {
+                try { while (toRender.isEmpty()) wait(); } catch (InterruptedException e) { return; }
+                key = toRender.peek();
+            }
+            try {
+                short[] data = render(key >> 7, key & 0x7F);
+                synchronized (this) {
+                    toRender.remove(key);
+                    cache.put(key, data);
+                    cachedBytes += data.length * 2L;
+                    Iterator<Map.Entry<Integer, short[]>> it = cache.entrySet().iterator();
+                    while (cachedBytes > CACHE_BYTES && cache.size() > 1) { Map.Entry<Integer, short[]> e = it.next(); cachedBytes -= e.getValue().length * 2L; it.remove(); }
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                synchronized (this) { toRender.remove(key); }
+            }
+        }
+    }
+
+    private short[] render(int program, int midi) throws InvalidMidiDataException, IOException {
+        int rate = (int) FORMAT.getFrameRate();
+        renderReceiver.send(new ShortMessage(ShortMessage.PROGRAM_CHANGE, 0, program, 0), -1);
+        renderReceiver.send(new ShortMessage(ShortMessage.NOTE_ON, 0, midi, 127), -1);
+        byte[] pcm = new byte[(SNIPPET_MS + RELEASE_MS) * rate / 1000 * FORMAT.getFrameSize()];
+        int held = SNIPPET_MS * rate / 1000 * FORMAT.getFrameSize();
+        readFully(pcm, 0, held);
+        renderReceiver.send(new ShortMessage(ShortMessage.NOTE_OFF, 0, midi, 0), -1);
+        readFully(pcm, held, pcm.length - held);
+        renderReceiver.send(new ShortMessage(ShortMessage.CONTROL_CHANGE, 0, 120, 0), -1);
+        readFully(new byte[FORMAT.getFrameSize() * BLOCK_FRAMES], 0, FORMAT.getFrameSize() * BLOCK_FRAMES);
+        short[] samples = new short[pcm.length / 2];
+        for (int i = 0; i < samples.length; i++) samples[i] = (short) (pcm[2 * i] & 0xFF | pcm[2 * i + 1] << 8);
+        return samples;
+    }
+
+    private void readFully(byte[] buf, int off, int len) throws IOException {
+        while (len > 0) {
+            int n = renderStream.read(buf, off, len);
+            if (n <= 0) throw new IOException("Preview render stream ended");
+            off += n;
+            len -= n;
+        }
+    }
+
+    private static SourceDataLine openLine() {
+        if (GraphicsEnvironment.isHeadless()) return null;
+        try {
+            SourceDataLine l = AudioSystem.getSourceDataLine(FORMAT);
+            l.open(FORMAT, LINE_BUFFER_FRAMES * FORMAT.getFrameSize());
+            l.start();
+            return l;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+}
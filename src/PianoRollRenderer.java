@@ -0,0 +1,252 @@
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.function.Predicate;
+
+public class PianoRollRenderer {
+    public static final int KEY_WIDTH = 100;
+    private static final int BEATS_PER_TILE = 4;
+
+    private static final Color BACKGROUND = new Color(30, 30, 30);
+    private static final Color KEY_EVEN = new Color(70, 70, 70);
+    private static final Color KEY_ODD = new Color(60, 60, 60);
+    private static final Color CELL_DOWNBEAT = new Color(50, 50, 60);
+    private static final Color CELL = new Color(40, 40, 40);
+    private static final Color CELL_BORDER = new Color(80, 80, 80);
+    private static final Color LINE_DOWNBEAT = new Color(200, 100, 100, 200);
+    private static final Color LINE_BEAT = new Color(120, 120, 120, 140);
+    private static final Color NOTE_FILL = new Color(120, 200, 255);
+    private static final Color NOTE_FILL_SELECTED = new Color(255, 220, 100);
+    private static final Color NOTE_BORDER = new Color(20, 80, 120);
+    private static final Color NOTE_BORDER_SELECTED = new Color(180, 120, 10);
+    private static final Color NOTE_FILL_INACTIVE = new Color(70, 95, 115);
+    private static final Color NOTE_BORDER_INACTIVE = new Color(40, 55, 70);
+    private static final Color CLIP_NOTE_FILL = new Color(175, 140, 235);
+    private static final Color CLIP_NOTE_BORDER = new Color(80, 50, 130);
+    private static final Color CLIP_NOTE_FILL_INACTIVE = new Color(95, 85, 120);
+    private static final Color CLIP_NOTE_BORDER_INACTIVE = new Color(55, 45, 75);
+    private static final Color CLIP_REGION = new Color(175, 140, 235, 90);
+    private static final Color NOTE_HANDLE = new Color(255, 255, 255, 140);
+    private static final Color MARQUEE_FILL = new Color(100, 150, 255, 80);
+    private static final Color MARQUEE_BORDER = new Color(100, 150, 255, 160);
+    private static final Color PLAYHEAD = new Color(255, 80, 80, 200);
+    private static final Color SUBDIVISION = new Color(90, 90, 100);
+    private static final BasicStroke STROKE_1 = new BasicStroke(1f);
+    private static final BasicStroke STROKE_2 = new BasicStroke(2f);
+    private static final BasicStroke STROKE_3 = new BasicStroke(3f);
+
+    private final String[] noteNames;
+    private int columns;
+    private int cellWidth = 60;
+    private int cellHeight = 30;
+    private boolean showSubdivisions = false;
+    private int activeTrack = 0;
+    private ClipLayer clips;
+    private TempoMap meter = TempoMap.constant(120);
+
+    private BufferedImage gridTile;
+    private BufferedImage plainTile;
+    private BufferedImage keyColumn;
+    private Font font;
+    private final LatencyHistogram frameTimes = new LatencyHistogram();
+
+    public PianoRollRenderer(String[] noteNames, int columns) {
+        this.noteNames = noteNames;
+        this.columns = columns;
+    }
+
+    public void setCellSize(int cellWidth, int cellHeight, boolean showSubdivisions) {
+        if (cellWidth != this.cellWidth || showSubdivisions != this.showSubdivisions) gridTile = plainTile = null;
+        if (cellHeight != this.cellHeight) { gridTile = plainTile = null; keyColumn = null; }
+        this.cellWidth = cellWidth;
+        this.cellHeight = cellHeight;
+        this.showSubdivisions = showSubdivisions;
+    }
+
+    public void setColumns(int columns) { this.columns = columns; }
+    public void setActiveTrack(int track) { this.activeTrack = track; }
+    public void setClips(ClipLayer clips) { this.clips = clips; }
+    public void setMeter(TempoMap meter) { this.meter = meter; }
+    public int getWidth() { return KEY_WIDTH + columns * cellWidth; }
+    public int getHeight() { return noteNames.length * cellHeight; }
+    public LatencyHistogram getFrameTimes() { return frameTimes; }
+
+    public int playHeadX(double pos) { return (int) Math.round(KEY_WIDTH + pos * cellWidth); }
+
+    public Note noteAt(NoteStore notes, int x, int y, int track, List<Note> scratch) {
+        double beat = (x - KEY_WIDTH) / (double) cellWidth;
+        scratch.clear();
+        notes.overlapping(Math.max(0, y / cellHeight), beat - 0.5, beat + 0.5, scratch);
+        for (Note n : scratch) if ((track < 0 || n.track == track) && noteRect(n.row, n.start, n.length).contains(x, y)) return n;
+        return null;
+    }
+
+    public Rectangle noteRect(int row, double start, double length) {
+        int x = KEY_WIDTH + (int) Math.round(start * cellWidth);
+        int y = row * cellHeight;
+        int w = (int) Math.round(length * cellWidth);
+        return new Rectangle(x + 4, y + 4, Math.max(6, w - 8), cellHeight - 8);
+    }
+
+    public void paint(Graphics2D g2, Rectangle clip, ArrangementSnapshot snap, Predicate<Note> isSelected, Rectangle marquee, double playHeadPos) {
+        long t0 = System.nanoTime();
+        if (clip == null) clip = new Rectangle(0, 0, getWidth(), getHeight());
+        int height = getHeight();
+        int rowLo = Math.max(0, clip.y / cellHeight);
+        int rowHi = Math.min(noteNames.length - 1, (clip.y + clip.height) / cellHeight);
+        if (font == null) font = g2.getFont().deriveFont(Font.PLAIN, 12f);
+        g2.setFont(font);
+        g2.setColor(BACKGROUND);
+        g2.fillRect(clip.x, clip.y, clip.width, clip.height);
+        paintKeys(g2, clip);
+        paintGrid(g2, clip, rowLo, rowHi, height);
+        if (clips != null) paintClips(g2, clip, rowLo, rowHi);
+        paintNotes(g2, clip, snap, isSelected, rowLo, rowHi);
+        if (marquee != null) {
+            g2.setColor(MARQUEE_FILL); g2.fillRect(marquee.x, marquee.y, marquee.width, marquee.height);
+            g2.setColor(MARQUEE_BORDER); g2.setStroke(STROKE_1); g2.drawRect(marquee.x, marquee.y, marquee.width, marquee.height);
+        }
+        if (playHeadPos >= 0.0) {
+            int xline = playHeadX(playHeadPos);
+            g2.setColor(PLAYHEAD); g2.setStroke(STROKE_3); g2.drawLine(xline, 0, xline, height);
+        }
+        if (showSubdivisions) {
+            g2.setColor(SUBDIVISION); g2.setStroke(STROKE_1);
+            int cLo = Math.max(0, (int) Math.floor((clip.x - KEY_WIDTH - 1) * 2.0 / cellWidth));
+            int cHi = Math.min(columns * 2 - 1, (int) Math.ceil((clip.x + clip.width - KEY_WIDTH + 1) * 2.0 / cellWidth));
+            for (int c = cLo; c <= cHi; c++) { int cx = (int) Math.round(KEY_WIDTH + c * (cellWidth / 2.0)); g2.drawLine(cx, 0, cx, height); }
+        }
+        frameTimes.record(System.nanoTime() - t0);
+    }
+
+    private void paintKeys(Graphics2D g2, Rectangle clip) {
+        if (clip.x >= KEY_WIDTH) return;
+        if (keyColumn == null) keyColumn = buildKeyColumn(g2);
+        int y0 = Math.max(0, clip.y), y1 = Math.min(keyColumn.getHeight(), clip.y + clip.height);
+        if (y1 > y0) g2.drawImage(keyColumn, 0, y0, KEY_WIDTH, y1, 0, y0, KEY_WIDTH, y1, null);
+    }
+
+    private void paintGrid(Graphics2D g2, Rectangle clip, int rowLo, int rowHi, int height) {
+        if (clip.x + clip.width <= KEY_WIDTH || columns <= 0) return;
+        boolean common = meter.isCommonTime();
+        if (gridTile == null) gridTile = buildGridTile(g2, true);
+        if (plainTile == null && !common) plainTile = buildGridTile(g2, false);
+        BufferedImage tile = common ? gridTile : plainTile;
+        int tileW = tile.getWidth(), tileH = tile.getHeight();
+        int gridRight = KEY_WIDTH + columns * cellWidth;
+        int tLo = Math.max(0, (clip.x - KEY_WIDTH) / tileW);
+        int tHi = Math.min((columns - 1) / BEATS_PER_TILE, (clip.x + clip.width - KEY_WIDTH) / tileW);
+        int yLo = (rowLo * cellHeight / tileH) * tileH;
+        int yHi = Math.min(height, (rowHi + 1) * cellHeight);
+        Shape oldClip = g2.getClip();
+        g2.clipRect(KEY_WIDTH, 0, gridRight - KEY_WIDTH + 1, height + 1);
+        for (int t = tLo; t <= tHi; t++) {
+            int x = KEY_WIDTH + t * tileW;
+            for (int y = yLo; y < yHi; y += tileH) g2.drawImage(tile, x, y, null);
+        }
+        double beatLo = Math.max(0, clip.x - KEY_WIDTH) / (double) cellWidth - 1.0;
+        double beatHi = Math.min(columns, (clip.x + clip.width - KEY_WIDTH) / (double) cellWidth + 1.0);
+        if (!common) {
+            meter.forEachBar(beatLo, beatHi, (b, downbeat) -> {
+                int x = KEY_WIDTH + (int) Math.floor(b + 1e-9) * cellWidth;
+                for (int y = yLo; y < yHi; y += tileH) g2.drawImage(gridTile, x, y, x + cellWidth, y + tileH, 0, 0, cellWidth, tileH, null);
+            });
+        }
+        g2.setClip(oldClip);
+        g2.setColor(LINE_DOWNBEAT);
+        g2.setStroke(STROKE_2);
+        if (common) {
+            for (int t = tLo; t <= tHi; t++) { int x = KEY_WIDTH + t * tileW; g2.drawLine(x, 0, x, height); }
+        } else {
+            meter.forEachBar(beatLo, beatHi, (b, downbeat) -> { int x = playHeadX(b); g2.drawLine(x, 0, x, height); });
+        }
+    }
+
+    private void paintClips(Graphics2D g2, Rectangle clip, int rowLo, int rowHi) {
+        double beatLo = (clip.x - KEY_WIDTH - 40) / (double) cellWidth;
+        double beatHi = (clip.x + clip.width - KEY_WIDTH + 8) / (double) cellWidth;
+        g2.setStroke(STROKE_1);
+        g2.setColor(CLIP_REGION);
+        for (ClipInstance c : clips.overlapping(-1, beatLo, beatHi)) {
+            if (c.track != activeTrack || c.clip.size == 0) continue;
+            int x0 = playHeadX(c.start), x1 = playHeadX(c.end());
+            int y0 = c.rowFor(c.clip.minRow) * cellHeight, y1 = (c.rowFor(c.clip.maxRow) + 1) * cellHeight;
+            g2.drawRect(x0, y0, x1 - x0, y1 - y0);
+        }
+        g2.setStroke(STROKE_2);
+        clips.visitOverlapping(beatLo, beatHi, (c, row, start, length, velocity) -> {
+            if (row < rowLo || row > rowHi) return;
+            Rectangle r = noteRect(row, start, length);
+            boolean active = c.track == activeTrack;
+            g2.setColor(active ? CLIP_NOTE_FILL : CLIP_NOTE_FILL_INACTIVE);
+            g2.fillRoundRect(r.x, r.y, r.width, r.height, 6, 6);
+            g2.setColor(active ? CLIP_NOTE_BORDER : CLIP_NOTE_BORDER_INACTIVE);
+            g2.drawRoundRect(r.x, r.y, r.width, r.height, 6, 6);
+        });
+    }
+
+    private void paintNotes(Graphics2D g2, Rectangle clip, ArrangementSnapshot snap, Predicate<Note> isSelected, int rowLo, int rowHi) {
+        double beatLo = (clip.x - KEY_WIDTH - 40) / (double) cellWidth;
+        double beatHi = (clip.x + clip.width - KEY_WIDTH + 8) / (double) cellWidth;
+        g2.setStroke(STROKE_2);
+        for (int i = snap.firstStartingAtOrAfter(beatLo - snap.maxLength); i < snap.size && snap.starts[i] < beatHi; i++) {
+            int row = snap.rows[i];
+            if (row < rowLo || row > rowHi || snap.starts[i] + snap.lengths[i] < beatLo) continue;
+            Rectangle r = noteRect(row, snap.starts[i], snap.lengths[i]);
+            boolean selected = isSelected.test(snap.notes[i]);
+            boolean active = snap.tracks[i] == activeTrack;
+            g2.setColor(selected ? NOTE_FILL_SELECTED : active ? NOTE_FILL : NOTE_FILL_INACTIVE);
+            g2.fillRoundRect(r.x, r.y, r.width, r.height, 6, 6);
+            g2.setColor(selected ? NOTE_BORDER_SELECTED : active ? NOTE_BORDER : NOTE_BORDER_INACTIVE);
+            g2.drawRoundRect(r.x, r.y, r.width, r.height, 6, 6);
+            g2.setColor(Color.WHITE);
+            g2.drawString(noteNames[row], r.x + 6, r.y + r.height / 2 + 5);
+            g2.setColor(NOTE_HANDLE);
+            g2.fillRect(r.x + r.width - 6, r.y + r.height / 2 - 6, 6, 12);
+        }
+    }
+
+    private BufferedImage buildKeyColumn(Graphics2D like) {
+        BufferedImage img = createImage(like, KEY_WIDTH, Math.max(1, noteNames.length * cellHeight));
+        Graphics2D g = img.createGraphics();
+        g.setFont(like.getFont());
+        for (int r = 0; r < noteNames.length; r++) {
+            int y = r * cellHeight;
+            g.setColor((r % 2) == 0 ? KEY_EVEN : KEY_ODD);
+            g.fillRect(0, y, KEY_WIDTH, cellHeight);
+            g.setColor(Color.WHITE);
+            g.drawString(noteNames[r], 8, y + cellHeight / 2 + 5);
+        }
+        g.dispose();
+        return img;
+    }
+
+    private BufferedImage buildGridTile(Graphics2D like, boolean shadeDownbeat) {
+        int rowsPerTile = Math.max(1, Math.min(12, noteNames.length));
+        int w = BEATS_PER_TILE * cellWidth, h = rowsPerTile * cellHeight;
+        BufferedImage img = createImage(like, w, h);
+        Graphics2D g = img.createGraphics();
+        g.setColor(BACKGROUND);
+        g.fillRect(0, 0, w, h);
+        for (int c = 0; c < BEATS_PER_TILE; c++) {
+            int x = c * cellWidth;
+            for (int r = 0; r < rowsPerTile; r++) {
+                int y = r * cellHeight;
+                g.setColor(c == 0 && shadeDownbeat ? CELL_DOWNBEAT : CELL);
+                g.fillRect(x + 1, y + 1, cellWidth - 2, cellHeight - 2);
+                g.setColor(CELL_BORDER);
+                g.setStroke(c == 1 ? STROKE_2 : STROKE_1);
+                g.drawRect(x, y, cellWidth, cellHeight);
+            }
+            if (c != 0) { g.setColor(LINE_BEAT); g.setStroke(STROKE_1); g.drawLine(x, 0, x, h); }
+        }
+        g.dispose();
+        return img;
+    }
+
+    private static BufferedImage createImage(Graphics2D like, int w, int h) {
+        GraphicsConfiguration gc = like.getDeviceConfiguration();
+        if (gc != null && !GraphicsEnvironment.isHeadless()) return gc.createCompatibleImage(w, h, Transparency.OPAQUE);
+        return new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+    }
+}
@@ -0,0 +1,34 @@
+public final class PitchTable {
+    public static final int LOW_OCTAVE = 1;
+    public static final int HIGH_OCTAVE = 6;
+    public static final String[] NAMES = buildNoteNames(LOW_OCTAVE, HIGH_OCTAVE);
+    public static final int[] ROW_MIDI = buildRowPitches(LOW_OCTAVE, HIGH_OCTAVE);
+
+    private PitchTable() {}
+
+    public static int rows() { return NAMES.length; }
+
+    public static int midiForRow(int row) {
+        return (row >= 0 && row < ROW_MIDI.length) ? ROW_MIDI[row] : -1;
+    }
+
+    public static int rowForMidi(int midi) {
+        int row = ROW_MIDI[0] - midi;
+        return (row >= 0 && row < ROW_MIDI.length) ? row : -1;
+    }
+
+    private static String[] buildNoteNames(int lowOctave, int highOctave) {
+        String[] scale = new String[] {"C","C#","D","D#","E","F","F#","G","G#","A","A#","B"};
+        String[] names = new String[(highOctave - lowOctave + 1) * 12];
+        int i = names.length;
+        for (int o = lowOctave; o <= highOctave; o++) for (String s : scale) names[--i] = s + o;
+        return names;
+    }
+
+    private static int[] buildRowPitches(int lowOctave, int highOctave) {
+        int[] midi = new int[(highOctave - lowOctave + 1) * 12];
+        int lowest = (lowOctave + 1) * 12;
+        for (int row = 0; row < midi.length; row++) midi[row] = lowest + midi.length - 1 - row;
+        return midi;
+    }
+}
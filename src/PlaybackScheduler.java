@@ -0,0 +1,175 @@
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.DoubleConsumer;
+
+public class PlaybackScheduler {
+    public interface Source {
+        void collect(double fromBeat, double toBeat, double offsetBeats, PlaybackScheduler out);
+    }
+
+    public interface Output {
+        long getMicrosecondPosition();
+        void scheduleNote(int channel, int midi, int velocity, long onMicros, long offMicros);
+        void scheduleMetronomeTick(boolean accent, long atMicros);
+    }
+
+    public static final long LOOKAHEAD_NANOS = 100_000_000L;
+    private static final long PERIOD_NANOS = 5_000_000L;
+    private static final long START_DELAY_NANOS = 30_000_000L;
+
+    private final Output output;
+    private final Source source;
+    private final double lengthBeats;
+    private volatile Timebase timebase;
+    private final AtomicReference<TempoMap> pendingTempo = new AtomicReference<>();
+    private volatile boolean running = false;
+    private volatile boolean loop = false;
+    private volatile boolean metronome = false;
+
+    private static final class Timebase {
+        final TempoMap map;
+        final double lengthBeats, loopNanos, anchorBeat, anchorNanos, anchorOffset;
+        final Timebase previous;
+
+        Timebase(TempoMap map, double lengthBeats, double anchorBeat, double anchorNanos, Timebase previous) {
+            this.map = map;
+            this.lengthBeats = lengthBeats;
+            this.loopNanos = map.nanosAt(lengthBeats);
+            this.anchorBeat = anchorBeat;
+            this.anchorNanos = anchorNanos;
+            this.anchorOffset = unrolled(anchorBeat) - anchorNanos;
+            this.previous = previous;
+        }
+
+        private double unrolled(double beat) {
+            if (beat <= 0.0) return map.nanosAt(beat);
+            double cycles = Math.floor(beat / lengthBeats);
+            return cycles * loopNanos + map.nanosAt(beat - cycles * lengthBeats);
+        }
+
+        double nanosAt(double beat) {
+            if (beat < anchorBeat && previous != null) return previous.nanosAt(beat);
+            return unrolled(beat) - anchorOffset;
+        }
+
+        double beatAt(double nanos) {
+            if (nanos < anchorNanos && previous != null) return previous.beatAt(nanos);
+            double u = nanos + anchorOffset;
+            if (u <= 0.0) return map.beatAt(u);
+            double cycles = Math.floor(u / loopNanos);
+            return cycles * lengthBeats + map.beatAt(u - cycles * loopNanos);
+        }
+
+        Timebase rebase(TempoMap next, double beat) {
+            Timebase prior = new Timebase(map, lengthBeats, anchorBeat, anchorNanos, null);
+            return new Timebase(next, lengthBeats, beat, nanosAt(beat), prior);
+        }
+    }
+
+    private long startNanos;
+    private long startMicros;
+    private long synthNowMicros;
+    private double tickOffset;
+    private final TempoMap.PulseVisitor ticker = (b, downbeat) -> tick(tickOffset + b, downbeat);
+
+    private final LatencyHistogram wakeJitter = new LatencyHistogram();
+    private final LatencyHistogram eventLead = new LatencyHistogram();
+    private final LatencyHistogram lateness = new LatencyHistogram();
+    private volatile long lateEvents = 0;
+
+    public PlaybackScheduler(Output output, double bpm, double lengthBeats, Source source) {
+        this(output, TempoMap.constant(bpm), lengthBeats, source);
+    }
+
+    public PlaybackScheduler(Output output, TempoMap tempo, double lengthBeats, Source source) {
+        this.output = output;
+        this.source = source;
+        this.lengthBeats = lengthBeats;
+        this.timebase = new Timebase(tempo, lengthBeats, 0.0, 0.0, null);
+    }
+
+    public void setLoop(boolean loop) { this.loop = loop; }
+    public void setMetronome(boolean metronome) { this.metronome = metronome; }
+    public void setTempo(TempoMap tempo) { pendingTempo.set(tempo); }
+    public boolean isRunning() { return running; }
+    public void stop() { running = false; }
+
+    public double beatAtMicros(long micros) { return timebase.beatAt((micros - startMicros) * 1000.0); }
+    public double arrangementBeat(double beat) { return beat <= 0.0 ? 0.0 : loop ? beat % lengthBeats : beat; }
+
+    public LatencyHistogram getWakeJitter() { return wakeJitter; }
+    public LatencyHistogram getEventLead() { return eventLead; }
+    public LatencyHistogram getLateness() { return lateness; }
+    public long getLateEvents() { return lateEvents; }
+
+    public void run(DoubleConsumer playhead) {
+        long now = System.nanoTime();
+        startNanos = now + START_DELAY_NANOS;
+        startMicros = output.getMicrosecondPosition() + START_DELAY_NANOS / 1000;
+        running = true;
+        double scheduledTo = 0.0;
+        double endBeat = Double.POSITIVE_INFINITY;
+        long nextWake = now;
+        while (running) {
+            now = System.nanoTime();
+            wakeJitter.record(Math.abs(now - nextWake));
+            TempoMap next = pendingTempo.getAndSet(null);
+            if (next != null) timebase = timebase.rebase(next, scheduledTo);
+            Timebase tb = timebase;
+            double pos = tb.beatAt(now - startNanos);
+            if (pos >= endBeat) break;
+            playhead.accept(pos <= 0.0 ? 0.0 : pos % lengthBeats);
+            synthNowMicros = output.getMicrosecondPosition();
+            double horizon = tb.beatAt(now + LOOKAHEAD_NANOS - startNanos);
+            while (scheduledTo < horizon && scheduledTo < endBeat) {
+                double cycleStart = Math.floor(scheduledTo / lengthBeats) * lengthBeats;
+                double cycleEnd = cycleStart + lengthBeats;
+                double to = Math.min(horizon, cycleEnd);
+                double localFrom = scheduledTo - cycleStart, localTo = to - cycleStart;
+                source.collect(localFrom, localTo, cycleStart, this);
+                if (metronome) { tickOffset = cycleStart; tb.map.forEachPulse(localFrom, localTo, ticker); }
+                scheduledTo = to;
+                if (to >= cycleEnd && !loop) endBeat = cycleEnd;
+            }
+            nextWake = now + PERIOD_NANOS;
+            LockSupport.parkNanos(nextWake - System.nanoTime());
+        }
+        running = false;
+    }
+
+    public static void collect(ArrangementSnapshot snap, int[] routing, double fromBeat, double toBeat, double offsetBeats, PlaybackScheduler out) {
+        for (int i = snap.firstStartingAtOrAfter(fromBeat); i < snap.size && snap.starts[i] < toBeat; i++) {
+            int track = snap.tracks[i];
+            if (track >= routing.length || routing[track] < 0) continue;
+            out.note(offsetBeats + snap.starts[i], routing[track], PitchTable.ROW_MIDI[snap.rows[i]], snap.velocities[i], snap.lengths[i]);
+        }
+    }
+
+    public void note(double beat, int midi, int velocity, double lengthBeats) {
+        note(beat, 0, midi, velocity, lengthBeats);
+    }
+
+    public void note(double beat, int channel, int midi, int velocity, double lengthBeats) {
+        if (midi < 0 || channel < 0) return;
+        long on = beatToMicros(beat);
+        long off = Math.max(on + 1, beatToMicros(beat + lengthBeats));
+        recordLead(on);
+        output.scheduleNote(channel, midi, velocity, on, off);
+    }
+
+    private void tick(double beat, boolean accent) {
+        long at = beatToMicros(beat);
+        recordLead(at);
+        output.scheduleMetronomeTick(accent, at);
+    }
+
+    private long beatToMicros(double beat) {
+        return startMicros + (long) (timebase.nanosAt(beat) / 1000.0);
+    }
+
+    private void recordLead(long atMicros) {
+        long lead = atMicros - synthNowMicros;
+        if (lead < 0) { lateEvents++; lateness.record(-lead * 1000L); }
+        eventLead.record(lead * 1000L);
+    }
+}
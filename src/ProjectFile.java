@@ -0,0 +1,266 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+public class ProjectFile {
+    public static final int MAGIC = 0x4A505357;
+    public static final short VERSION = 3;
+    public static final int TICKS_PER_BEAT = 960;
+    private static final int HEADER_BYTES = 24;
+    private static final int SECTION_TRACKS = 0x534B5254;
+    private static final int SECTION_CLIPS = 0x53504C43;
+    private static final int SECTION_TEMPO = 0x4F504D54;
+    private static final int CHUNK_BYTES = 64 * 1024;
+
+    public static class Project {
+        public final int bpm;
+        public final TempoMap tempo;
+        public final NoteBuffer notes;
+        public final Track[] tracks;
+        public final Clip[] clips;
+        public final ClipInstance[] instances;
+
+        public Project(int bpm, NoteBuffer notes) {
+            this(bpm, notes, new Track[0]);
+        }
+
+        public Project(int bpm, NoteBuffer notes, Track[] tracks) {
+            this(bpm, notes, tracks, new Clip[0], new ClipInstance[0]);
+        }
+
+        public Project(int bpm, NoteBuffer notes, Track[] tracks, Clip[] clips, ClipInstance[] instances) {
+            this(TempoMap.constant(bpm), notes, tracks, clips, instances);
+        }
+
+        public Project(TempoMap tempo, NoteBuffer notes, Track[] tracks, Clip[] clips, ClipInstance[] instances) {
+            this.bpm = (int) Math.round(tempo.initialBpm());
+            this.tempo = tempo;
+            this.notes = notes;
+            this.tracks = tracks;
+            this.clips = clips;
+            this.instances = instances;
+        }
+
+        /** The plain notes with every clip instance expanded into them, for exporters that only know notes. */
+        public NoteBuffer flatten() {
+            if (instances.length == 0) return notes;
+            ClipLayer layer = new ClipLayer(PitchTable.rows());
+            for (ClipInstance c : instances) layer.add(c);
+            NoteBuffer out = new NoteBuffer(notes.size);
+            for (int i = 0; i < notes.size; i++) out.add(notes.tracks[i], notes.rows[i], notes.starts[i], notes.lengths[i], notes.velocities[i]);
+            layer.expandInto(out);
+            return out;
+        }
+    }
+
+    public static Project load(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+            long fileSize = ch.size();
+            if (fileSize < HEADER_BYTES) throw new IOException("Not a Warp Studio project: " + file);
+            MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            map.order(ByteOrder.LITTLE_ENDIAN);
+            if (map.getInt(0) != MAGIC) throw new IOException("Not a Warp Studio project: " + file);
+            short version = map.getShort(4);
+            if (version > VERSION) throw new IOException("Project version " + version + " is newer than supported version " + VERSION);
+            int bpm = map.getInt(8);
+            int ticksPerBeat = map.getInt(12);
+            int count = map.getInt(16);
+            if (count < 0 || fileSize < HEADER_BYTES + columnsBytes(version, count)) throw new IOException("Truncated project file: " + file);
+
+            NoteBuffer notes = new NoteBuffer(count);
+            int[] ticks = new int[count];
+            int offset = HEADER_BYTES;
+            short[] rows = new short[count];
+            column(map, offset).asShortBuffer().get(rows);
+            for (int i = 0; i < count; i++) notes.rows[i] = rows[i];
+            offset += align4(count * 2);
+            if (version >= 2) {
+                byte[] bytes = new byte[count];
+                column(map, offset).get(bytes);
+                for (int i = 0; i < count; i++) notes.tracks[i] = bytes[i];
+                offset += align4(count);
+                column(map, offset).get(bytes);
+                for (int i = 0; i < count; i++) notes.velocities[i] = bytes[i];
+                offset += align4(count);
+            } else {
+                Arrays.fill(notes.velocities, 0, count, 90);
+            }
+            column(map, offset).asIntBuffer().get(ticks);
+            for (int i = 0; i < count; i++) notes.starts[i] = ticks[i] / (double) ticksPerBeat;
+            offset += count * 4;
+            column(map, offset).asIntBuffer().get(ticks);
+            for (int i = 0; i < count; i++) notes.lengths[i] = ticks[i] / (double) ticksPerBeat;
+            offset += count * 4;
+            notes.size = count;
+
+            Track[] tracks = new Track[0];
+            Clip[] clips = new Clip[0];
+            ClipInstance[] instances = new ClipInstance[0];
+            TempoMap tempo = TempoMap.constant(bpm);
+            while (version >= 3 && offset + 8 <= fileSize) {
+                int tag = map.getInt(offset), length = map.getInt(offset + 4);
+                offset += 8;
+                if (length < 0 || offset + (long) length > fileSize) throw new IOException("Truncated project file: " + file);
+                ByteBuffer payload = column(map, offset).limit(length);
+                try {
+                    if (tag == SECTION_TRACKS) tracks = decodeTracks(payload);
+                    if (tag == SECTION_TEMPO) tempo = TempoMap.parse(StandardCharsets.UTF_8.decode(payload).toString());
+                    if (tag == SECTION_CLIPS) {
+                        payload.order(ByteOrder.LITTLE_ENDIAN);
+                        clips = new Clip[count(payload.getInt(), payload, 16)];
+                        for (int i = 0; i < clips.length; i++) clips[i] = decodeClip(payload);
+                        instances = new ClipInstance[count(payload.getInt(), payload, 20)];
+                        for (int i = 0; i < instances.length; i++) instances[i] = new ClipInstance(clips[payload.getInt()], payload.getInt(), payload.getDouble(), payload.getInt());
+                    }
+                } catch (RuntimeException e) {
+                    throw new IOException("Corrupt section " + Integer.toHexString(tag) + " in project file: " + file, e);
+                }
+                offset += align4(length);
+            }
+            return new Project(tempo, notes, tracks, clips, instances);
+        }
+    }
+
+    public static void save(Path file, int bpm, ArrangementSnapshot snap) throws IOException {
+        save(file, bpm, snap.size, snap.rows, snap.tracks, snap.velocities, snap.starts, snap.lengths, null);
+    }
+
+    public static void save(Path file, int bpm, NoteBuffer notes) throws IOException {
+        save(file, new Project(bpm, notes));
+    }
+
+    public static void save(Path file, Project project) throws IOException {
+        NoteBuffer notes = project.notes;
+        save(file, project.bpm, notes.size, notes.rows, notes.tracks, notes.velocities, notes.starts, notes.lengths, project);
+    }
+
+    private static void save(Path file, int bpm, int count, int[] rows, int[] tracks, int[] velocities, double[] starts, double[] lengths, Project extras) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buf = ByteBuffer.allocateDirect(CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            buf.putInt(MAGIC).putShort(VERSION).putShort((short) 0).putInt(bpm).putInt(TICKS_PER_BEAT).putInt(count).putInt(0);
+            for (int i = 0; i < count; i++) { if (buf.remaining() < 2) drain(ch, buf); buf.putShort((short) rows[i]); }
+            pad(ch, buf, align4(count * 2) - count * 2);
+            for (int i = 0; i < count; i++) { if (!buf.hasRemaining()) drain(ch, buf); buf.put((byte) tracks[i]); }
+            pad(ch, buf, align4(count) - count);
+            for (int i = 0; i < count; i++) { if (!buf.hasRemaining()) drain(ch, buf); buf.put((byte) velocities[i]); }
+            pad(ch, buf, align4(count) - count);
+            for (int i = 0; i < count; i++) { if (buf.remaining() < 4) drain(ch, buf); buf.putInt(toTicks(starts[i])); }
+            for (int i = 0; i < count; i++) { if (buf.remaining() < 4) drain(ch, buf); buf.putInt(toTicks(lengths[i])); }
+            if (extras != null) section(ch, buf, SECTION_TEMPO, extras.tempo.format().getBytes(StandardCharsets.UTF_8));
+            if (extras != null && extras.tracks.length > 0) section(ch, buf, SECTION_TRACKS, encodeTracks(extras.tracks));
+            if (extras != null && (extras.clips.length > 0 || extras.instances.length > 0)) section(ch, buf, SECTION_CLIPS, encodeClips(extras.clips, extras.instances));
+            drain(ch, buf);
+            ch.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    static byte[] encodeTracks(Track[] tracks) {
+        byte[][] names = new byte[tracks.length][];
+        int size = 4;
+        for (int i = 0; i < tracks.length; i++) { names[i] = tracks[i].name.getBytes(StandardCharsets.UTF_8); size += 8 + names[i].length; }
+        ByteBuffer b = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(tracks.length);
+        for (int i = 0; i < tracks.length; i++) {
+            Track t = tracks[i];
+            b.put((byte) t.program).put((byte) t.volume).put((byte) ((t.mute ? 1 : 0) | (t.solo ? 2 : 0))).put((byte) 0).putInt(names[i].length).put(names[i]);
+        }
+        return b.array();
+    }
+
+    static Track[] decodeTracks(ByteBuffer b) {
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        int count = b.getInt();
+        if (count < 0 || count > TrackList.MAX_TRACKS) throw new IllegalArgumentException("Bad track count: " + count);
+        Track[] tracks = new Track[count];
+        for (int i = 0; i < count; i++) {
+            int program = b.get() & 0x7F, volume = b.get() & 0x7F, flags = b.get();
+            b.get();
+            byte[] name = new byte[b.getInt()];
+            b.get(name);
+            tracks[i] = new Track(i, new String(name, StandardCharsets.UTF_8), program);
+            tracks[i].volume = volume;
+            tracks[i].mute = (flags & 1) != 0;
+            tracks[i].solo = (flags & 2) != 0;
+        }
+        return tracks;
+    }
+
+    /** Clip definitions, then instances that refer to them by position; clips only an instance uses are added. */
+    static byte[] encodeClips(Clip[] clips, ClipInstance[] instances) {
+        IdentityHashMap<Clip, Integer> index = new IdentityHashMap<>();
+        List<byte[]> encoded = new ArrayList<>();
+        int size = 8 + 20 * instances.length;
+        for (Clip c : clips) if (index.putIfAbsent(c, index.size()) == null) encoded.add(encodeClip(c));
+        for (ClipInstance c : instances) if (index.putIfAbsent(c.clip, index.size()) == null) encoded.add(encodeClip(c.clip));
+        for (byte[] e : encoded) size += e.length;
+        ByteBuffer b = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(encoded.size());
+        for (byte[] e : encoded) b.put(e);
+        b.putInt(instances.length);
+        for (ClipInstance c : instances) b.putInt(index.get(c.clip)).putInt(c.track).putDouble(c.start).putInt(c.transpose);
+        return b.array();
+    }
+
+    static byte[] encodeClip(Clip clip) {
+        byte[] name = clip.name.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer b = ByteBuffer.allocate(16 + name.length + 24 * clip.size).order(ByteOrder.LITTLE_ENDIAN);
+        b.putInt(name.length).put(name).putDouble(clip.length).putInt(clip.size);
+        for (int i = 0; i < clip.size; i++) b.putInt(clip.rows[i]).putDouble(clip.starts[i]).putDouble(clip.lengths[i]).putInt(clip.velocities[i]);
+        return b.array();
+    }
+
+    static Clip decodeClip(ByteBuffer b) {
+        b.order(ByteOrder.LITTLE_ENDIAN);
+        byte[] name = new byte[count(b.getInt(), b, 1)];
+        b.get(name);
+        double length = b.getDouble();
+        int size = count(b.getInt(), b, 24);
+        int[] rows = new int[size], velocities = new int[size];
+        double[] starts = new double[size], lengths = new double[size];
+        for (int i = 0; i < size; i++) { rows[i] = b.getInt(); starts[i] = b.getDouble(); lengths[i] = b.getDouble(); velocities[i] = b.getInt(); }
+        return Clip.restore(new String(name, StandardCharsets.UTF_8), rows, starts, lengths, velocities, length);
+    }
+
+    private static int count(int value, ByteBuffer b, int bytesEach) {
+        if (value < 0 || (long) value * bytesEach > b.remaining()) throw new IllegalArgumentException("Bad count: " + value);
+        return value;
+    }
+
+    private static void section(FileChannel ch, ByteBuffer buf, int tag, byte[] payload) throws IOException {
+        if (buf.remaining() < 8) drain(ch, buf);
+        buf.putInt(tag).putInt(payload.length);
+        for (byte v : payload) { if (!buf.hasRemaining()) drain(ch, buf); buf.put(v); }
+        pad(ch, buf, align4(payload.length) - payload.length);
+    }
+
+    private static void drain(FileChannel ch, ByteBuffer buf) throws IOException {
+        buf.flip();
+        while (buf.hasRemaining()) ch.write(buf);
+        buf.clear();
+    }
+
+    private static void pad(FileChannel ch, ByteBuffer buf, int bytes) throws IOException {
+        for (; bytes > 0; bytes--) { if (!buf.hasRemaining()) drain(ch, buf); buf.put((byte) 0); }
+    }
+
+    private static ByteBuffer column(MappedByteBuffer map, int offset) {
+        return map.duplicate().position(offset).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static int toTicks(double beats) { return (int) Math.round(beats * TICKS_PER_BEAT); }
+    private static int align4(int bytes) { return (bytes + 3) & ~3; }
+    private static long columnsBytes(int version, int count) { return align4(count * 2) + (version >= 2 ? 2L * align4(count) : 0) + (long) count * 8; }
+}
@@ -0,0 +1,89 @@
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+public class SelectionModel extends AbstractCollection<Note> {
+    private final BitSet members = new BitSet();
+    private Note[] items = new Note[16];
+    private int[] slotOf = new int[0];
+    private int size = 0;
+
+    @Override public int size() { return size; }
+    @Override public boolean isEmpty() { return size == 0; }
+    public Note get(int i) { return items[i]; }
+
+    @Override public boolean contains(Object o) { return o instanceof Note && members.get(((Note) o).id); }
+
+    @Override public boolean add(Note n) {
+        if (members.get(n.id)) return false;
+        if (size == items.length) items = Arrays.copyOf(items, size * 2);
+        if (n.id >= slotOf.length) slotOf = Arrays.copyOf(slotOf, Math.max(n.id + 1, slotOf.length * 2));
+        members.set(n.id);
+        slotOf[n.id] = size;
+        items[size++] = n;
+        return true;
+    }
+
+    @Override public boolean remove(Object o) {
+        if (!contains(o)) return false;
+        Note n = (Note) o;
+        int slot = slotOf[n.id];
+        Note last = items[--size];
+        items[slot] = last;
+        slotOf[last.id] = slot;
+        items[size] = null;
+        members.clear(n.id);
+        return true;
+    }
+
+    @Override public void clear() {
+        for (int i = 0; i < size; i++) { members.clear(items[i].id); items[i] = null; }
+        size = 0;
+    }
+
+    @Override public boolean removeIf(Predicate<? super Note> filter) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            Note n = items[i];
+            if (filter.test(n)) { members.clear(n.id); continue; }
+            slotOf[n.id] = kept;
+            items[kept++] = n;
+        }
+        boolean changed = kept != size;
+        Arrays.fill(items, kept, size, null);
+        size = kept;
+        return changed;
+    }
+
+    @Override public boolean removeAll(Collection<?> c) {
+        Objects.requireNonNull(c);
+        return removeIf(c::contains);
+    }
+
+    @Override public boolean retainAll(Collection<?> c) {
+        Objects.requireNonNull(c);
+        return removeIf(n -> !c.contains(n));
+    }
+
+    @Override public Object[] toArray() { return Arrays.copyOf(items, size, Object[].class); }
+
+    @Override public Iterator<Note> iterator() {
+        return new Iterator<Note>() {
+            private int next = 0;
+            private boolean removable = false;
+            @Override public boolean hasNext() { return next < size; }
+            @Override public Note next() { if (next >= size) throw new NoSuchElementException(); removable = true; return items[next++]; }
+            @Override public void remove() {
+                if (!removable) throw new IllegalStateException();
+                removable = false;
+                // Swap-remove pulls the last item into this slot; step back so it is still visited.
+                SelectionModel.this.remove(items[--next]);
+            }
+        };
+    }
+}
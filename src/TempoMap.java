@@ -0,0 +1,194 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public final class TempoMap {
+    public interface PulseVisitor {
+        void pulse(double beat, boolean downbeat);
+    }
+
+    public interface TempoVisitor {
+        void tempo(double beat, double bpm);
+    }
+
+    public interface MeterVisitor {
+        void meter(double beat, int numerator, int denominator);
+    }
+
+    private static final double NANOS_PER_MINUTE = 60_000_000_000.0;
+    private static final double EPS = 1e-9;
+
+    private final double[] beats;
+    private final double[] bpms;
+    private final double[] slopes;
+    private final double[] nanos;
+
+    private final int[] meterBars;
+    private final double[] meterBeats;
+    private final int[] numerators;
+    private final int[] denominators;
+
+    private TempoMap(double[] beats, double[] bpms, double[] slopes, int[] meterBars, int[] numerators, int[] denominators) {
+        this.beats = beats;
+        this.bpms = bpms;
+        this.slopes = slopes;
+        nanos = new double[beats.length];
+        for (int i = 0; i + 1 < beats.length; i++) nanos[i + 1] = nanos[i] + segmentNanos(i, beats[i + 1] - beats[i]);
+        this.meterBars = meterBars;
+        this.numerators = numerators;
+        this.denominators = denominators;
+        meterBeats = new double[meterBars.length];
+        for (int i = 1; i < meterBars.length; i++) meterBeats[i] = meterBeats[i - 1] + (meterBars[i] - meterBars[i - 1]) * barBeats(i - 1);
+    }
+
+    public static TempoMap constant(double bpm) {
+        return new TempoMap(new double[] {0.0}, new double[] {bpm}, new double[] {0.0}, new int[] {0}, new int[] {4}, new int[] {4});
+    }
+
+    public double initialBpm() { return bpms[0]; }
+    public boolean isCommonTime() { return meterBars.length == 1 && numerators[0] == 4 && denominators[0] == 4; }
+
+    public double bpmAt(double beat) {
+        int i = tempoIndex(beat);
+        return bpms[i] + slopes[i] * Math.max(0.0, beat - beats[i]);
+    }
+
+    public double nanosAt(double beat) {
+        if (beat <= 0.0) return beat * NANOS_PER_MINUTE / bpms[0];
+        int i = tempoIndex(beat);
+        return nanos[i] + segmentNanos(i, beat - beats[i]);
+    }
+
+    public double beatAt(double t) {
+        if (t <= 0.0) return t * bpms[0] / NANOS_PER_MINUTE;
+        int i = Arrays.binarySearch(nanos, t);
+        if (i < 0) i = -i - 2;
+        double dt = t - nanos[i];
+        double slope = slopes[i], bpm = bpms[i];
+        if (slope == 0.0) return beats[i] + dt * bpm / NANOS_PER_MINUTE;
+        return beats[i] + bpm * Math.expm1(slope * dt / NANOS_PER_MINUTE) / slope;
+    }
+
+    private double segmentNanos(int i, double span) {
+        double slope = slopes[i], bpm = bpms[i];
+        if (slope == 0.0) return span * NANOS_PER_MINUTE / bpm;
+        return NANOS_PER_MINUTE / slope * Math.log1p(slope * span / bpm);
+    }
+
+    private int tempoIndex(double beat) {
+        int i = Arrays.binarySearch(beats, beat);
+        return i >= 0 ? i : Math.max(0, -i - 2);
+    }
+
+    private int meterIndex(double beat) {
+        int i = Arrays.binarySearch(meterBeats, beat + EPS);
+        return i >= 0 ? i : Math.max(0, -i - 2);
+    }
+
+    private double barBeats(int m) { return numerators[m] * 4.0 / denominators[m]; }
+
+    public int barAt(double beat) {
+        int m = meterIndex(beat);
+        return meterBars[m] + (int) Math.floor((beat - meterBeats[m]) / barBeats(m) + EPS);
+    }
+
+    public double barStart(int bar) {
+        int i = Arrays.binarySearch(meterBars, bar);
+        int m = i >= 0 ? i : Math.max(0, -i - 2);
+        return meterBeats[m] + (bar - meterBars[m]) * barBeats(m);
+    }
+
+    public int numeratorAt(double beat) { return numerators[meterIndex(beat)]; }
+    public int denominatorAt(double beat) { return denominators[meterIndex(beat)]; }
+
+    public void forEachPulse(double from, double to, PulseVisitor visitor) {
+        for (int m = meterIndex(from); m < meterBeats.length && meterBeats[m] < to; m++) {
+            double pulse = 4.0 / denominators[m];
+            double end = m + 1 < meterBeats.length ? Math.min(to, meterBeats[m + 1]) : to;
+            long k = Math.max(0L, (long) Math.ceil((from - meterBeats[m]) / pulse - EPS));
+            for (double b; (b = meterBeats[m] + k * pulse) < end; k++) visitor.pulse(b, k % numerators[m] == 0);
+        }
+    }
+
+    public void forEachBar(double from, double to, PulseVisitor visitor) {
+        for (int bar = barAt(from); ; bar++) {
+            double b = barStart(bar);
+            if (b >= to) break;
+            if (b >= from - EPS) visitor.pulse(b, true);
+        }
+    }
+
+    /**
+     * Visits every tempo point in order. Ramps, which formats like SMF can't express, come out as a
+     * step every {@code step} beats at the average tempo over that step, so each step ends on time.
+     */
+    public void forEachTempo(double step, TempoVisitor visitor) {
+        for (int i = 0; i < beats.length; i++) {
+            if (slopes[i] == 0.0) { visitor.tempo(beats[i], bpms[i]); continue; }
+            for (int k = 0; beats[i] + k * step < beats[i + 1] - EPS; k++) {
+                double from = beats[i] + k * step, to = Math.min(beats[i] + (k + 1) * step, beats[i + 1]);
+                visitor.tempo(from, (to - from) * NANOS_PER_MINUTE / (nanosAt(to) - nanosAt(from)));
+            }
+        }
+    }
+
+    public void forEachMeter(MeterVisitor visitor) {
+        for (int i = 0; i < meterBars.length; i++) visitor.meter(meterBeats[i], numerators[i], denominators[i]);
+    }
+
+    public TempoMap withInitialTempo(double bpm) {
+        double[] t = bpms.clone(), sl = slopes.clone();
+        if (sl[0] != 0.0) sl[0] = (bpms[0] + sl[0] * (beats[1] - beats[0]) - bpm) / (beats[1] - beats[0]);
+        t[0] = bpm;
+        return new TempoMap(beats, t, sl, meterBars, numerators, denominators);
+    }
+
+    public static TempoMap parse(String text) {
+        List<double[]> tempos = new ArrayList<>();
+        List<int[]> meters = new ArrayList<>();
+        String[] lines = text.split("\n");
+        for (int ln = 0; ln < lines.length; ln++) {
+            String line = lines[ln].replaceAll("#.*", "").trim();
+            if (line.isEmpty()) continue;
+            String[] f = line.split("\\s+");
+            try {
+                if (f[0].equalsIgnoreCase("meter") && f.length == 3) {
+                    String[] sig = f[2].split("/");
+                    int bar = Integer.parseInt(f[1]) - 1, num = Integer.parseInt(sig[0]), den = Integer.parseInt(sig[1]);
+                    if (bar < 0 || num < 1 || num > 32 || Integer.bitCount(den) != 1 || den > 32) throw new IllegalArgumentException();
+                    meters.add(new int[] {bar, num, den});
+                } else if (f.length == 2 || f.length == 3 && f[2].equalsIgnoreCase("ramp")) {
+                    double beat = Double.parseDouble(f[0]), bpm = Double.parseDouble(f[1]);
+                    if (beat < 0.0 || bpm < 20.0 || bpm > 300.0) throw new IllegalArgumentException();
+                    tempos.add(new double[] {beat, bpm, f.length == 3 ? 1.0 : 0.0});
+                } else {
+                    throw new IllegalArgumentException();
+                }
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("Line " + (ln + 1) + ": expected \"<beat> <bpm> [ramp]\" or \"meter <bar> <n>/<d>\", got \"" + lines[ln].trim() + "\"");
+            }
+        }
+        if (tempos.isEmpty() || tempos.stream().noneMatch(p -> p[0] == 0.0)) throw new IllegalArgumentException("The tempo map needs a tempo at beat 0");
+        tempos.sort((a, c) -> Double.compare(a[0], c[0]));
+        meters.sort((a, c) -> Integer.compare(a[0], c[0]));
+        if (meters.isEmpty() || meters.get(0)[0] != 0) meters.add(0, new int[] {0, 4, 4});
+        for (int i = 1; i < tempos.size(); i++) if (tempos.get(i)[0] == tempos.get(i - 1)[0]) throw new IllegalArgumentException("Two tempos at beat " + tempos.get(i)[0]);
+        for (int i = 1; i < meters.size(); i++) if (meters.get(i)[0] == meters.get(i - 1)[0]) throw new IllegalArgumentException("Two meters at bar " + (meters.get(i)[0] + 1));
+        int n = tempos.size(), m = meters.size();
+        double[] b = new double[n], t = new double[n], sl = new double[n];
+        for (int i = 0; i < n; i++) { b[i] = tempos.get(i)[0]; t[i] = tempos.get(i)[1]; }
+        for (int i = 1; i < n; i++) if (tempos.get(i)[2] != 0.0) sl[i - 1] = (t[i] - t[i - 1]) / (b[i] - b[i - 1]);
+        int[] bars = new int[m], nums = new int[m], dens = new int[m];
+        for (int i = 0; i < m; i++) { bars[i] = meters.get(i)[0]; nums[i] = meters.get(i)[1]; dens[i] = meters.get(i)[2]; }
+        return new TempoMap(b, t, sl, bars, nums, dens);
+    }
+
+    public String format() {
+        StringBuilder sb = new StringBuilder("# <beat> <bpm> [ramp]   meter <bar> <n>/<d>\n");
+        for (int i = 0; i < beats.length; i++) sb.append(fmt(beats[i])).append(' ').append(fmt(bpms[i])).append(i > 0 && slopes[i - 1] != 0.0 ? " ramp\n" : "\n");
+        for (int i = 0; i < meterBars.length; i++) sb.append("meter ").append(meterBars[i] + 1).append(' ').append(numerators[i]).append('/').append(denominators[i]).append('\n');
+        return sb.toString();
+    }
+
+    private static String fmt(double v) { return v == Math.rint(v) ? Long.toString((long) v) : Double.toString(v); }
+}
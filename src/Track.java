@@ -0,0 +1,37 @@
+public class Track {
+    final int index;
+    final int channel;
+    String name;
+    int program;
+    int volume = 100;
+    boolean mute;
+    boolean solo;
+
+    Track(int index, String name, int program) {
+        this.index = index;
+        this.channel = channelFor(index);
+        this.name = name;
+        this.program = program;
+    }
+
+    Track copy() {
+        Track t = new Track(index, name, program);
+        t.volume = volume;
+        t.mute = mute;
+        t.solo = solo;
+        return t;
+    }
+
+    public static int channelFor(int index) { return index < 9 ? index : index + 1; }
+    public static int indexForChannel(int channel) { return channel < 9 ? channel : channel == 9 ? 0 : channel - 1; }
+
+    public int index() { return index; }
+    public int channel() { return channel; }
+    public String getName() { return name; }
+    public int getProgram() { return program; }
+    public int getVolume() { return volume; }
+    public boolean isMute() { return mute; }
+    public boolean isSolo() { return solo; }
+
+    @Override public String toString() { return (index + 1) + ": " + name; }
+}
@@ -0,0 +1,76 @@
+import java.util.ArrayList;
+import java.util.List;
+
+public class TrackList {
+    public static final int MAX_TRACKS = 15;
+
+    private final List<Track> tracks = new ArrayList<>();
+    private final MidiManager midiManager;
+    private volatile int[] routing = new int[0];
+
+    public TrackList(MidiManager midiManager) {
+        this.midiManager = midiManager;
+    }
+
+    public synchronized Track add(String name, int program) {
+        if (tracks.size() >= MAX_TRACKS) return null;
+        Track t = new Track(tracks.size(), name, program);
+        tracks.add(t);
+        apply(t);
+        rebuildRouting();
+        return t;
+    }
+
+    public synchronized Track get(int index) { return tracks.get(index); }
+    public synchronized int size() { return tracks.size(); }
+    public synchronized Track[] toArray() { return tracks.toArray(new Track[0]); }
+
+    public synchronized Track[] copies() {
+        Track[] out = new Track[tracks.size()];
+        for (int i = 0; i < out.length; i++) out[i] = tracks.get(i).copy();
+        return out;
+    }
+
+    /** Replaces the track table with saved settings, keeping at least one track. */
+    public synchronized void restore(Track[] saved) {
+        int count = Math.max(1, Math.min(MAX_TRACKS, saved.length));
+        while (tracks.size() > count) tracks.remove(tracks.size() - 1);
+        while (tracks.size() < count) tracks.add(new Track(tracks.size(), "Track " + (tracks.size() + 1), 0));
+        for (int i = 0; i < saved.length && i < count; i++) {
+            Track t = tracks.get(i);
+            t.name = saved[i].name;
+            t.program = saved[i].program;
+            t.volume = saved[i].volume;
+            t.mute = saved[i].mute;
+            t.solo = saved[i].solo;
+        }
+        for (Track t : tracks) apply(t);
+        rebuildRouting();
+    }
+
+    public synchronized void setProgram(Track t, int program) { t.program = program; apply(t); }
+    public synchronized void setVolume(Track t, int volume) { t.volume = Math.max(0, Math.min(127, volume)); apply(t); }
+    public synchronized void setMute(Track t, boolean mute) { t.mute = mute; rebuildRouting(); }
+    public synchronized void setSolo(Track t, boolean solo) { t.solo = solo; rebuildRouting(); }
+
+    public int[] routing() { return routing; }
+
+    public int channelFor(int track) {
+        int[] r = routing;
+        return track >= 0 && track < r.length ? r[track] : -1;
+    }
+
+    private void apply(Track t) {
+        if (midiManager == null) return;
+        midiManager.setProgram(t.channel, t.program);
+        midiManager.setVolume(t.channel, t.volume);
+    }
+
+    private void rebuildRouting() {
+        boolean anySolo = false;
+        for (Track t : tracks) anySolo |= t.solo;
+        int[] r = new int[tracks.size()];
+        for (Track t : tracks) r[t.index] = (t.mute || (anySolo && !t.solo)) ? -1 : t.channel;
+        routing = r;
+    }
+}
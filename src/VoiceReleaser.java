@@ -0,0 +1,119 @@
+import javax.sound.midi.MidiChannel;
+
+public class VoiceReleaser implements Runnable {
+    private static final long LATE_THRESHOLD_NANOS = 2_000_000L;
+    private static final long COALESCE_NANOS = 1_000_000L;
+
+    private final MidiChannel[] channels;
+    private final int maxVoices;
+    private final long[] due;
+    private final int[] keys;
+    private final int[] slotOfKey = new int[16 * 128];
+    private int size = 0;
+
+    private volatile long lateReleases = 0;
+    private volatile long stolenVoices = 0;
+    private volatile long maxLateNanos = 0;
+
+    public VoiceReleaser(MidiChannel[] channels, int maxVoices) {
+        this.channels = channels;
+        this.maxVoices = maxVoices;
+        this.due = new long[maxVoices];
+        this.keys = new int[maxVoices];
+        java.util.Arrays.fill(slotOfKey, -1);
+        Thread t = new Thread(this, "voice-release");
+        t.setDaemon(true);
+        t.setPriority(Thread.MAX_PRIORITY);
+        t.start();
+    }
+
+    public void noteOn(int channel, int midi, int velocity, long durationNanos) {
+        MidiChannel ch = channels[channel];
+        if (ch == null || midi < 0 || midi > 127) return;
+        int key = (channel << 7) | midi;
+        long at = System.nanoTime() + durationNanos;
+        synchronized (this) {
+            int slot = slotOfKey[key];
+            if (slot >= 0) {
+                if (at > due[slot]) { due[slot] = at; siftDown(slot); }
+            } else {
+                if (size == maxVoices) { release(keys[0]); removeAt(0); stolenVoices++; }
+                slot = size++;
+                due[slot] = at; keys[slot] = key; slotOfKey[key] = slot;
+                siftUp(slot);
+            }
+            ch.noteOn(midi, velocity);
+            if (slotOfKey[key] == 0) notifyAll();
+        }
+    }
+
+    public synchronized void clear() {
+        for (int i = 0; i < size; i++) slotOfKey[keys[i]] = -1;
+        size = 0;
+    }
+
+    public synchronized int pendingVoices() { return size; }
+    public long lateReleases() { return lateReleases; }
+    public long stolenVoices() { return stolenVoices; }
+    public long maxLateNanos() { return maxLateNanos; }
+
+    @Override public void run() {
+        while (true) {
+            synchronized (this) {
+                try {
+                    while (size == 0) wait();
+                    long now = System.nanoTime();
+                    long wait = due[0] - now;
+                    if (wait > COALESCE_NANOS) { wait(wait / 1_000_000L, (int) (wait % 1_000_000L)); continue; }
+                    while (size > 0 && due[0] - now <= COALESCE_NANOS) {
+                        long late = now - due[0];
+                        if (late > LATE_THRESHOLD_NANOS) lateReleases++;
+                        if (late > maxLateNanos) maxLateNanos = late;
+                        release(keys[0]);
+                        removeAt(0);
+                    }
+                } catch (InterruptedException e) { return; }
+            }
+        }
+    }
+
+    private void release(int key) {
+        MidiChannel ch = channels[key >> 7];
+        if (ch != null) ch.noteOff(key & 0x7F);
+    }
+
+    private void removeAt(int i) {
+        slotOfKey[keys[i]] = -1;
+        size--;
+        if (i == size) return;
+        due[i] = due[size]; keys[i] = keys[size]; slotOfKey[keys[i]] = i;
+        siftDown(i);
+        siftUp(i);
+    }
+
+    private void siftUp(int i) {
+        while (i > 0) {
+            int p = (i - 1) >> 1;
+            if (due[p] - due[i] <= 0) break;
+            swap(i, p);
+            i = p;
+        }
+    }
+
+    private void siftDown(int i) {
+        while (true) {
+            int l = 2 * i + 1, r = l + 1, m = i;
+            if (l < size && due[l] - due[m] < 0) m = l;
+            if (r < size && due[r] - due[m] < 0) m = r;
+            if (m == i) return;
+            swap(i, m);
+            i = m;
+        }
+    }
+
+    private void swap(int a, int b) {
+        long d = due[a]; due[a] = due[b]; due[b] = d;
+        int k = keys[a]; keys[a] = keys[b]; keys[b] = k;
+        slotOfKey[keys[a]] = a; slotOfKey[keys[b]] = b;
+    }
+}
@@ -0,0 +1,72 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+class AuditionEngineTest {
+    private final List<int[]> played = new ArrayList<>();
+    private final AuditionEngine engine = new AuditionEngine((channel, program, midi, velocity, durationMs) -> {
+        synchronized (played) { played.add(new int[] {channel, program, midi, durationMs}); }
+    });
+
+    private void preview(int channel, int durationMs, int... midi) {
+        int[] channels = new int[midi.length], programs = new int[midi.length];
+        Arrays.fill(channels, channel);
+        engine.preview(channels, programs, midi, midi.length, durationMs);
+    }
+
+    private static int[] keys(int from, int count) {
+        int[] k = new int[count];
+        for (int i = 0; i < count; i++) k[i] = from + i;
+        return k;
+    }
+
+    private int settle(long handled) throws InterruptedException {
+        long deadline = System.nanoTime() + 2_000_000_000L;
+        while (engine.getPlayed() + engine.getCapped() < handled && System.nanoTime() < deadline) Thread.sleep(5);
+        Thread.sleep(30);
+        synchronized (played) { return played.size(); }
+    }
+
+    @Test
+    void burstOfDuplicatesPlaysEachKeyOnceWithTheLongestDuration() throws Exception {
+        preview(0, 100, 60, 64, 60);
+        preview(0, 300, 64);
+        assertEquals(2, settle(2));
+        assertEquals(4, engine.getRequested());
+        synchronized (played) {
+            for (int[] p : played) assertEquals(p[2] == 64 ? 300 : 100, p[3]);
+        }
+    }
+
+    @Test
+    void oneBurstNeverStartsMoreThanTheCap() throws Exception {
+        preview(0, 50, keys(40, 30));
+        assertEquals(AuditionEngine.MAX_PREVIEWS, settle(AuditionEngine.MAX_PREVIEWS));
+        synchronized (played) {
+            // The most recent keys of the burst win.
+            for (int[] p : played) assertTrue(p[2] >= 40 + 30 - AuditionEngine.MAX_PREVIEWS, "played " + p[2]);
+        }
+    }
+
+    @Test
+    void previewsStillSoundingCountAgainstTheCap() throws Exception {
+        preview(0, 10_000, keys(40, AuditionEngine.MAX_PREVIEWS));
+        assertEquals(AuditionEngine.MAX_PREVIEWS, settle(AuditionEngine.MAX_PREVIEWS));
+        preview(1, 10_000, keys(60, 3));
+        assertEquals(AuditionEngine.MAX_PREVIEWS, settle(AuditionEngine.MAX_PREVIEWS + 3));
+        assertEquals(3, engine.getCapped());
+    }
+
+    @Test
+    void finishedPreviewsFreeTheirSlots() throws Exception {
+        preview(0, 20, keys(40, AuditionEngine.MAX_PREVIEWS));
+        assertEquals(AuditionEngine.MAX_PREVIEWS, settle(AuditionEngine.MAX_PREVIEWS));
+        Thread.sleep(60);
+        preview(1, 20, keys(60, AuditionEngine.MAX_PREVIEWS));
+        assertEquals(2 * AuditionEngine.MAX_PREVIEWS, settle(2 * AuditionEngine.MAX_PREVIEWS));
+        assertEquals(0, engine.getCapped());
+    }
+}
@@ -0,0 +1,82 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BatchRendererTest {
+    @TempDir Path dir;
+
+    private static NoteBuffer song() {
+        NoteBuffer b = new NoteBuffer();
+        double[] starts = {0.0, 1.07, 2.9, 3.4, 5.13, 7.76};
+        for (int i = 0; i < starts.length; i++) b.add(i % 2, PitchTable.rowForMidi(48 + 3 * i), starts[i], 0.4 + 0.3 * i, 60 + 10 * i);
+        return b;
+    }
+
+    private static List<String> keys(NoteBuffer b) {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < b.size(); i++) out.add(b.track(i) + "/" + b.row(i) + "/" + b.start(i) + "/" + b.length(i) + "/" + b.velocity(i));
+        Collections.sort(out);
+        return out;
+    }
+
+    @Test
+    void rejectsInputsThatWouldWriteTheSameFile() throws Exception {
+        Path a = Files.createDirectories(dir.resolve("a")).resolve("song.wsp");
+        Path b = Files.createDirectories(dir.resolve("b")).resolve("song.mid");
+        Path out = dir.resolve("out");
+        assertEquals(2, BatchRenderer.run(new String[] {"--batch", "--out", out.toString(), a.toString(), b.toString()}));
+        assertFalse(Files.exists(out), "nothing should be rendered when the outputs collide");
+    }
+
+    @Test
+    void sameBaseNameInSeparateDirectoriesIsFine() throws Exception {
+        Path a = Files.createDirectories(dir.resolve("a")).resolve("song.wsp");
+        Path b = Files.createDirectories(dir.resolve("b")).resolve("song.wsp");
+        ProjectFile.save(a, 120, song());
+        ProjectFile.save(b, 90, song());
+        assertEquals(0, BatchRenderer.run(new String[] {"--batch", "--format", "mid", a.toString(), b.toString()}));
+        assertEquals(120, MidiFileIO.read(dir.resolve("a/song.mid")).bpm);
+        assertEquals(90, MidiFileIO.read(dir.resolve("b/song.mid")).bpm);
+    }
+
+    @Test
+    void transposesAndQuantizesIntoAMidiFile() throws Exception {
+        Path in = dir.resolve("song.wsp"), out = dir.resolve("out");
+        ProjectFile.save(in, 100, song());
+        assertEquals(0, BatchRenderer.run(new String[] {"--batch", "--out", out.toString(), "--format", "mid", "--transpose", "12", "--quantize", "0.25", in.toString()}));
+
+        NoteBuffer expected = song();
+        for (int i = 0; i < expected.size(); i++) {
+            double start = Math.round(expected.starts[i] * 4) / 4.0, end = Math.max(start + 0.25, Math.round((expected.starts[i] + expected.lengths[i]) * 4) / 4.0);
+            expected.rows[i] = PitchTable.rowForMidi(PitchTable.midiForRow(expected.rows[i]) + 12);
+            expected.starts[i] = start;
+            expected.lengths[i] = end - start;
+        }
+        ProjectFile.Project rendered = MidiFileIO.read(out.resolve("song.mid"));
+        assertEquals(100, rendered.bpm);
+        assertEquals(keys(expected), keys(rendered.notes));
+    }
+
+    @Test
+    void clipInstancesAreExpandedForExportAndKeptForPlainCopies() throws Exception {
+        Path in = dir.resolve("clips.wsp"), out = dir.resolve("out");
+        Clip clip = ProjectFileTest.sampleClip("Verse", 4);
+        ClipInstance[] instances = {new ClipInstance(clip, 0, 0.0, 0), new ClipInstance(clip, 1, 16.0, 0)};
+        ProjectFile.Project project = new ProjectFile.Project(110, song(), new Track[0], new Clip[] {clip}, instances);
+        ProjectFile.save(in, project);
+
+        assertEquals(0, BatchRenderer.run(new String[] {"--batch", "--out", out.toString(), "--format", "mid", in.toString()}));
+        assertEquals(song().size() + 2 * clip.size(), MidiFileIO.read(out.resolve("clips.mid")).notes.size());
+
+        assertEquals(0, BatchRenderer.run(new String[] {"--batch", "--out", out.toString(), "--format", "wsp", in.toString()}));
+        ProjectFile.Project copy = ProjectFile.load(out.resolve("clips.wsp"));
+        assertEquals(2, copy.instances.length);
+        assertEquals(keys(ProjectFile.load(in).flatten()), keys(copy.flatten()));
+    }
+}
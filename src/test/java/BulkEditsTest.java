@@ -0,0 +1,108 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class BulkEditsTest {
+    // A handful of rows on two tracks keeps the lanes crowded; every start and length is a
+    // multiple of 1/16, so no two distinct starts share a resolve tick.
+    private static double grid(Random rnd, int sixteenths) { return rnd.nextInt(sixteenths) / 16.0; }
+
+    private static Note randomNote(Random rnd) {
+        return new Note(rnd.nextInt(2), 40 + rnd.nextInt(4), grid(rnd, 16 * 16), 1.0 / 16 + grid(rnd, 16 * 3));
+    }
+
+    private static BulkEdits.RangeOp shift(Random rnd) {
+        int rows = rnd.nextInt(3) - 1;
+        double beats = (rnd.nextInt(33) - 16) / 16.0;
+        return (b, from, to) -> {
+            for (int i = from; i < to; i++) {
+                b.rows[i] = Math.max(0, b.rows[i] + rows);
+                b.starts[i] = Math.max(0.0, b.starts[i] + beats);
+            }
+        };
+    }
+
+    /** Keeps the earliest-listed of same-start selected notes, trims each kept note at the next one, then drops every other note it still overlaps. */
+    private static Set<Note> brute(Note[] selection, NoteBuffer values, boolean[] dropped, double[] lengths, ArrangementSnapshot snap) {
+        List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < selection.length; i++) order.add(i);
+        order.sort(Comparator.<Integer>comparingInt(i -> values.tracks[i]).thenComparingInt(i -> values.rows[i])
+            .thenComparingDouble(i -> values.starts[i]).thenComparingInt(i -> i));
+        int last = -1;
+        for (int i : order) {
+            lengths[i] = values.lengths[i];
+            boolean sameLane = last >= 0 && values.tracks[last] == values.tracks[i] && values.rows[last] == values.rows[i];
+            if (sameLane && values.starts[last] == values.starts[i]) { dropped[i] = true; continue; }
+            if (sameLane && values.starts[last] + lengths[last] > values.starts[i]) lengths[last] = values.starts[i] - values.starts[last];
+            last = i;
+        }
+        Set<Note> selected = new HashSet<>(List.of(selection));
+        Set<Note> removed = new HashSet<>();
+        for (int j = 0; j < snap.size; j++) {
+            Note o = snap.notes[j];
+            if (selected.contains(o)) continue;
+            for (int i = 0; i < selection.length; i++) {
+                if (dropped[i] || values.tracks[i] != snap.tracks[j] || values.rows[i] != snap.rows[j]) continue;
+                if (values.starts[i] < snap.starts[j] + snap.lengths[j] && snap.starts[j] < values.starts[i] + lengths[i]) removed.add(o);
+            }
+        }
+        return removed;
+    }
+
+    @Test
+    void resolveMatchesBruteForce() {
+        Random rnd = new Random(15);
+        for (int round = 0; round < 500; round++) {
+            NoteStore store = new NoteStore(PitchTable.rows());
+            List<Note> all = new ArrayList<>();
+            for (int i = 1 + rnd.nextInt(60); i > 0; i--) { Note n = randomNote(rnd); store.add(n); all.add(n); }
+            List<Note> picked = new ArrayList<>();
+            for (Note n : all) if (rnd.nextInt(3) == 0) picked.add(n);
+            Note[] selection = picked.toArray(new Note[0]);
+            ArrangementSnapshot snap = store.publish();
+
+            NoteBuffer values = BulkEdits.capture(selection);
+            BulkEdits.RangeOp op = shift(rnd);
+            BulkEdits.apply(values, op);
+            boolean[] expectedDropped = new boolean[selection.length];
+            double[] expectedLengths = new double[selection.length];
+            Set<Note> expectedRemoved = brute(selection, values, expectedDropped, expectedLengths, snap);
+
+            BulkEdits.Result result = BulkEdits.run(selection, BulkEdits.capture(selection), snap, op);
+            assertEquals(expectedRemoved, new HashSet<>(result.removedOthers), "round " + round);
+            assertEquals(result.removedOthers.size(), expectedRemoved.size(), "round " + round + " removed a note twice");
+            for (int i = 0; i < selection.length; i++) {
+                assertEquals(expectedDropped[i], result.dropped[i], "round " + round + " note " + i);
+                if (!expectedDropped[i]) assertEquals(expectedLengths[i], result.values.lengths[i], "round " + round + " note " + i);
+            }
+        }
+    }
+
+    @Test
+    void startsSharingATickNeverTrimToANegativeLength() {
+        Note early = new Note(0, 40, 1.0001, 1.0), late = new Note(0, 40, 1.0004, 1.0);
+        NoteStore store = new NoteStore(PitchTable.rows());
+        store.add(late);
+        store.add(early);
+        Note[] selection = {late, early};
+        BulkEdits.Result result = BulkEdits.run(selection, BulkEdits.capture(selection), store.publish(), (b, from, to) -> {});
+        for (int i = 0; i < selection.length; i++) if (!result.dropped[i]) assertTrue(result.values.lengths[i] > 0.0, "length " + result.values.lengths[i]);
+        assertTrue(result.dropped[0] || result.dropped[1]);
+    }
+
+    @Test
+    void quantizeNeverGoesBelowTheSharedMinimum() {
+        NoteBuffer b = new NoteBuffer();
+        b.add(0, 40, 1.01, 0.02, 90);
+        BulkEdits.apply(b, BulkEdits.quantize(0.5, 1.0));
+        assertEquals(1.0, b.starts[0]);
+        assertEquals(Note.MIN_LENGTH, b.lengths[0]);
+        assertEquals(Note.MIN_LENGTH, new Note(0, 0.0, 0.0).length);
+    }
+}
@@ -0,0 +1,103 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class ClipLayerTest {
+    private static final int ROWS = PitchTable.rows();
+
+    // Starts and lengths are multiples of 1/16, so every sum below is exact and the
+    // brute-force bounds can't disagree with the layer's local-coordinate comparisons.
+    private static double grid(Random rnd, int sixteenths) { return rnd.nextInt(sixteenths) / 16.0; }
+
+    private static Clip randomClip(Random rnd, int index) {
+        List<Note> notes = new ArrayList<>();
+        for (int i = rnd.nextInt(40); i > 0; i--) {
+            Note n = new Note(rnd.nextInt(ROWS), 8.0 + grid(rnd, 16 * 16), 1.0 / 16 + grid(rnd, 16 * 6));
+            n.velocity = 1 + rnd.nextInt(127);
+            notes.add(n);
+        }
+        return Clip.of("clip " + index, notes, 8.0, 4);
+    }
+
+    private static String key(int track, int row, double start, double length, int velocity) {
+        return track + "/" + row + "/" + start + "/" + length + "/" + velocity;
+    }
+
+    private static List<String> brute(List<ClipInstance> placed, double from, double to, boolean startingOnly) {
+        List<String> out = new ArrayList<>();
+        for (ClipInstance c : placed) {
+            Clip clip = c.clip;
+            for (int j = 0; j < clip.size(); j++) {
+                int row = clip.rows[j] - c.transpose;
+                double start = c.start + clip.starts[j], end = start + clip.lengths[j];
+                if (row < 0 || row >= ROWS || start >= to) continue;
+                if (startingOnly ? start < from : end <= from) continue;
+                out.add(key(c.track, row, start, clip.lengths[j], clip.velocities[j]));
+            }
+        }
+        Collections.sort(out);
+        return out;
+    }
+
+    @Test
+    void expansionAndWindowQueriesMatchBruteForce() {
+        Random rnd = new Random(19);
+        Clip[] clips = new Clip[6];
+        for (int i = 0; i < clips.length; i++) clips[i] = randomClip(rnd, i);
+        ClipLayer layer = new ClipLayer(ROWS);
+        List<ClipInstance> placed = new ArrayList<>();
+
+        for (int step = 0; step < 400; step++) {
+            if (placed.isEmpty() || rnd.nextInt(4) != 0) {
+                ClipInstance c = new ClipInstance(clips[rnd.nextInt(clips.length)], rnd.nextInt(3), grid(rnd, 16 * 256), rnd.nextInt(25) - 12);
+                layer.add(c);
+                placed.add(c);
+            } else {
+                ClipInstance c = placed.remove(rnd.nextInt(placed.size()));
+                assertTrue(layer.remove(c));
+                assertFalse(layer.remove(c));
+            }
+            assertEquals(placed.size(), layer.instanceCount());
+
+            NoteBuffer expanded = new NoteBuffer();
+            layer.expandInto(expanded);
+            List<String> got = new ArrayList<>();
+            for (int i = 0; i < expanded.size(); i++) got.add(key(expanded.track(i), expanded.row(i), expanded.start(i), expanded.length(i), expanded.velocity(i)));
+            Collections.sort(got);
+            assertEquals(brute(placed, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, false), got);
+
+            double from = grid(rnd, 16 * 300), to = from + grid(rnd, 16 * 32);
+            List<String> overlapping = new ArrayList<>(), starting = new ArrayList<>();
+            layer.visitOverlapping(from, to, (c, row, start, length, velocity) -> overlapping.add(key(c.track, row, start, length, velocity)));
+            layer.visitStarting(from, to, (c, row, start, length, velocity) -> starting.add(key(c.track, row, start, length, velocity)));
+            Collections.sort(overlapping);
+            Collections.sort(starting);
+            assertEquals(brute(placed, from, to, false), overlapping, "overlapping [" + from + ", " + to + ")");
+            assertEquals(brute(placed, from, to, true), starting, "starting [" + from + ", " + to + ")");
+
+            int track = rnd.nextInt(4) - 1;
+            List<ClipInstance> expected = new ArrayList<>();
+            for (ClipInstance c : placed) if (c.start < to && c.end() > from && (track < 0 || c.track == track)) expected.add(c);
+            List<ClipInstance> instances = layer.overlapping(track, from, to);
+            assertEquals(expected.size(), instances.size());
+            assertTrue(instances.containsAll(expected));
+        }
+    }
+
+    @Test
+    void instancesStaySortedByStart() {
+        Random rnd = new Random(7);
+        Clip clip = randomClip(rnd, 0);
+        ClipLayer layer = new ClipLayer(ROWS);
+        for (int i = 0; i < 200; i++) layer.add(new ClipInstance(clip, 0, grid(rnd, 16 * 64), 0));
+        ClipInstance[] items = layer.instances();
+        for (int i = 1; i < items.length; i++) assertTrue(items[i - 1].start <= items[i].start);
+        double end = 0.0;
+        for (ClipInstance c : items) end = Math.max(end, c.end());
+        assertEquals(end, layer.endBeat());
+    }
+}
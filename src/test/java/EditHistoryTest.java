@@ -0,0 +1,122 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class EditHistoryTest {
+    // Mirrors EditHistory's accounting: a translate entry costs one overhead, its shared note group
+    // one overhead plus a reference per note.
+    private static final int ENTRY = 64, REF = 8;
+
+    private final NoteStore store = new NoteStore(PitchTable.rows());
+    private final EditHistory history = new EditHistory(store, Long.MAX_VALUE);
+    private final List<Note> live = new ArrayList<>();
+
+    private List<String> state() {
+        List<String> out = new ArrayList<>();
+        for (Note n : store) out.add(n.id + ":" + n.track + "/" + n.row + "/" + n.start + "/" + n.length + "/" + n.velocity);
+        Collections.sort(out);
+        return out;
+    }
+
+    private void seed(Random rnd, int count) {
+        history.runUntracked(() -> {
+            for (int i = 0; i < count; i++) {
+                Note n = new Note(rnd.nextInt(3), 20 + rnd.nextInt(40), rnd.nextInt(256) / 4.0, 0.25 + rnd.nextInt(8) / 4.0);
+                store.add(n);
+                live.add(n);
+            }
+        });
+    }
+
+    private void edit(Random rnd) {
+        int op = live.isEmpty() ? 0 : rnd.nextInt(5);
+        if (op == 0) {
+            Note n = new Note(rnd.nextInt(3), 20 + rnd.nextInt(40), rnd.nextInt(256) / 4.0, 0.25 + rnd.nextInt(8) / 4.0);
+            n.velocity = 1 + rnd.nextInt(127);
+            store.add(n);
+            live.add(n);
+            return;
+        }
+        Note n = live.get(rnd.nextInt(live.size()));
+        if (op == 1) { store.remove(n); live.remove(n); }
+        else if (op == 2) store.move(n, 20 + rnd.nextInt(40), rnd.nextInt(256) / 4.0);
+        else if (op == 3) store.resize(n, 0.25 + rnd.nextInt(8) / 4.0);
+        else store.set(n, n.row, n.start, n.length, 1 + rnd.nextInt(127));
+    }
+
+    @Test
+    void undoAndRedoWalkBackThroughEverySavedState() {
+        Random rnd = new Random(13);
+        seed(rnd, 200);
+        List<List<String>> states = new ArrayList<>();
+        states.add(state());
+        for (int t = 0; t < 500; t++) {
+            int depth = history.undoDepth();
+            int ops = 1 + rnd.nextInt(5);
+            history.transaction(() -> { for (int i = 0; i < ops; i++) edit(rnd); });
+            if (history.undoDepth() > depth) states.add(state());
+            else assertEquals(states.get(states.size() - 1), state(), "transaction " + t + " changed notes without an entry");
+        }
+        int depth = history.undoDepth();
+        assertEquals(states.size() - 1, depth);
+
+        for (int i = depth - 1; i >= 0; i--) {
+            assertTrue(history.undo());
+            assertEquals(states.get(i), state(), "after undoing to state " + i);
+        }
+        assertFalse(history.undo());
+        for (int i = 1; i <= depth; i++) {
+            assertTrue(history.redo());
+            assertEquals(states.get(i), state(), "after redoing to state " + i);
+        }
+        assertFalse(history.redo());
+    }
+
+    @Test
+    void repeatedDragsShareOneGroupAndEvictionReleasesIt() {
+        Random rnd = new Random(7);
+        seed(rnd, 60);
+        List<Note> selection = new ArrayList<>(live.subList(0, 20));
+        List<Note> others = new ArrayList<>(live.subList(20, live.size()));
+        long groupBytes = ENTRY + (long) REF * selection.size();
+
+        List<Long> entryBytes = new ArrayList<>();
+        List<Boolean> isDrag = new ArrayList<>();
+        for (int k = 0; k < 40; k++) {
+            long before = history.bytesUsed();
+            double dStart = k % 2 == 0 ? 1.0 : -1.0;
+            int dRow = k % 4 < 2 ? 1 : -1;
+            history.transaction(() -> { for (Note n : selection) store.move(n, n.row + dRow, n.start + dStart); });
+            long drag = history.bytesUsed() - before;
+            assertEquals(k == 0 ? ENTRY + groupBytes : ENTRY, drag, "drag " + k);
+            entryBytes.add((long) ENTRY);
+            isDrag.add(true);
+
+            before = history.bytesUsed();
+            Note other = others.get(rnd.nextInt(others.size()));
+            store.set(other, other.row, other.start, other.length, other.velocity % 127 + 1);
+            entryBytes.add(history.bytesUsed() - before);
+            isDrag.add(false);
+            assertEquals(entryBytes.get(1), entryBytes.get(entryBytes.size() - 1), "velocity edit " + k);
+        }
+        assertEquals(80, history.undoDepth());
+
+        for (long limit = history.bytesUsed(); ; limit -= 150) {
+            history.setMaxBytes(limit);
+            int depth = history.undoDepth();
+            long expected = 0;
+            boolean dragKept = false;
+            for (int i = entryBytes.size() - depth; i < entryBytes.size(); i++) { expected += entryBytes.get(i); dragKept |= isDrag.get(i); }
+            if (dragKept) expected += groupBytes;
+            assertEquals(expected, history.bytesUsed(), "limit " + limit);
+            if (depth == 1) break;
+            assertTrue(history.bytesUsed() <= limit, "limit " + limit);
+        }
+        // The newest entry is the velocity edit, so the last drag has gone and the group with it.
+        assertEquals(entryBytes.get(entryBytes.size() - 1).longValue(), history.bytesUsed());
+    }
+}
@@ -0,0 +1,223 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class EditJournalTest {
+    private static final int HEADER = 8, RECORD = 28;
+
+    @TempDir Path dir;
+
+    private static List<String> state(ArrangementSnapshot s) {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < s.size; i++) out.add(s.tracks[i] + "/" + s.rows[i] + "/" + s.starts[i] + "/" + s.lengths[i] + "/" + s.velocities[i]);
+        Collections.sort(out);
+        return out;
+    }
+
+    private static List<String> state(NoteBuffer b) {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < b.size(); i++) out.add(b.track(i) + "/" + b.row(i) + "/" + b.start(i) + "/" + b.length(i) + "/" + b.velocity(i));
+        Collections.sort(out);
+        return out;
+    }
+
+    private static void edit(NoteStore store, List<Note> live, Random rnd) {
+        int op = live.isEmpty() ? 0 : rnd.nextInt(5);
+        if (op <= 1) {
+            Note n = new Note(rnd.nextInt(4), rnd.nextInt(PitchTable.rows()), rnd.nextInt(512) / 4.0, 0.25 + rnd.nextInt(8) / 4.0);
+            n.velocity = 1 + rnd.nextInt(127);
+            store.add(n);
+            if (store.contains(n)) live.add(n);
+        } else if (op == 2) {
+            store.remove(live.remove(rnd.nextInt(live.size())));
+        } else {
+            Note n = live.get(rnd.nextInt(live.size()));
+            store.set(n, rnd.nextInt(PitchTable.rows()), rnd.nextInt(512) / 4.0, n.length, op == 3 ? n.velocity : 1 + rnd.nextInt(127));
+            if (!store.contains(n)) live.remove(n);
+        }
+    }
+
+    @Test
+    void replayRebuildsTheArrangementAndTempo() throws Exception {
+        Path file = dir.resolve("session.wsj");
+        NoteStore store = new NoteStore(PitchTable.rows());
+        EditJournal journal = new EditJournal(file, store.publish(), 120);
+        store.addEditListener(journal);
+        Random rnd = new Random(21);
+        List<Note> live = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) edit(store, live, rnd);
+        journal.tempo(97);
+        journal.close();
+
+        ProjectFile.Project replayed = EditJournal.replay(file);
+        assertEquals(97, replayed.bpm);
+        assertEquals(state(store.publish()), state(replayed.notes));
+        assertTrue(journal.getRecordsWritten() > 3000 / 2, "records " + journal.getRecordsWritten());
+    }
+
+    @Test
+    void compactionKeepsTheSameStateAndShrinksTheFile() throws Exception {
+        Path file = dir.resolve("session.wsj");
+        NoteStore store = new NoteStore(PitchTable.rows());
+        EditJournal journal = new EditJournal(file, store.publish(), 120);
+        store.addEditListener(journal);
+        Random rnd = new Random(5);
+        List<Note> live = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) edit(store, live, rnd);
+        journal.compact(store.publish(), 133);
+        for (int i = 0; i < 200; i++) edit(store, live, rnd);
+        journal.close();
+
+        assertEquals(state(store.publish()), state(EditJournal.replay(file).notes));
+        assertEquals(133, EditJournal.replay(file).bpm);
+        assertTrue(Files.size(file) < HEADER + RECORD * (1 + store.size() + 200 + 1), "file was not compacted: " + Files.size(file));
+    }
+
+    @Test
+    void trackSettingsSurviveReplayAndCompaction() throws Exception {
+        Path file = dir.resolve("session.wsj");
+        NoteStore store = new NoteStore(PitchTable.rows());
+        EditJournal journal = new EditJournal(file, store.publish(), 120);
+        store.addEditListener(journal);
+        Track[] tracks = ProjectFileTest.sampleTracks();
+        journal.tracks(tracks);
+        store.add(new Note(2, 30, 1.0, 1.0));
+        tracks[0].name = "Renamed with a name long enough to span more than one journal record";
+        tracks[1].program = 40;
+        journal.tracks(tracks);
+        journal.compact(store.publish(), 120);
+        store.add(new Note(1, 31, 2.0, 1.0));
+        journal.close();
+
+        ProjectFile.Project replayed = EditJournal.replay(file);
+        assertEquals(ProjectFileTest.describe(tracks), ProjectFileTest.describe(replayed.tracks));
+        assertEquals(state(store.publish()), state(replayed.notes));
+
+        // A blob cut short by a crash is ignored along with everything after it.
+        Path cut = dir.resolve("cut.wsj");
+        Files.copy(file, cut, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel ch = FileChannel.open(cut, StandardOpenOption.WRITE)) { ch.truncate(HEADER + 2 * RECORD + 10); }
+        assertEquals(0, EditJournal.replay(cut).tracks.length);
+    }
+
+    @Test
+    void tempoMapSurvivesReplayAndCompaction() throws Exception {
+        Path file = dir.resolve("session.wsj");
+        NoteStore store = new NoteStore(PitchTable.rows());
+        EditJournal journal = new EditJournal(file, store.publish(), 120);
+        store.addEditListener(journal);
+        TempoMap tempo = TempoMap.parse("0 100\n8 160 ramp\n16 75\nmeter 1 4/4\nmeter 4 5/4");
+        journal.tempoMap(TempoMap.constant(90));
+        journal.tempoMap(tempo);
+        store.add(new Note(0, 30, 1.0, 1.0));
+        journal.close();
+        assertEquals(tempo.format(), EditJournal.replay(file).tempo.format());
+        assertEquals(100, EditJournal.replay(file).bpm);
+
+        journal = new EditJournal(file, store.publish(), 120);
+        journal.tempoMap(tempo);
+        journal.compact(store.publish(), 100);
+        journal.close();
+        assertEquals(tempo.format(), EditJournal.replay(file).tempo.format());
+    }
+
+    private static List<String> flattened(NoteStore store, ClipLayer layer) {
+        NoteBuffer b = NoteBuffer.of(store.publish());
+        layer.expandInto(b);
+        return state(b);
+    }
+
+    @Test
+    void madeClipsSurviveReplayAndCompaction() throws Exception {
+        Path file = dir.resolve("session.wsj");
+        NoteStore store = new NoteStore(PitchTable.rows());
+        ClipLayer layer = new ClipLayer(PitchTable.rows());
+        EditJournal journal = new EditJournal(file, store.publish(), 120);
+        store.addEditListener(journal);
+        layer.setListener(journal);
+        Random rnd = new Random(19);
+        List<Note> live = new ArrayList<>();
+        for (int i = 0; i < 300; i++) edit(store, live, rnd);
+
+        // Make Clip: the selection leaves the store and comes back as an instance at its origin.
+        List<Note> selection = new ArrayList<>();
+        for (Note n : live) if (n.track == 1 && n.start < 32.0) selection.add(n);
+        Clip clip = Clip.of("Clip 1", selection, 0.0, 4);
+        store.removeAll(selection);
+        live.removeAll(selection);
+        ClipInstance made = new ClipInstance(clip, 1, 0.0, 0);
+        layer.addClip(clip);
+        layer.add(made);
+        List<String> expected = flattened(store, layer);
+        journal.close();
+
+        ProjectFile.Project replayed = EditJournal.replay(file);
+        assertEquals(expected, state(replayed.flatten()));
+        assertEquals(ProjectFileTest.describe(layer.clips(), layer.instances()), ProjectFileTest.describe(replayed.clips, replayed.instances));
+
+        // Placing, removing and compacting keep the same arrangement.
+        journal = new EditJournal(file, store.publish(), 120);
+        store.addEditListener(journal);
+        layer.setListener(journal);
+        journal.clips(layer.clips(), layer.instances());
+        layer.add(new ClipInstance(clip, 2, 64.0, 7));
+        layer.add(new ClipInstance(clip, 3, 96.0, -3));
+        layer.remove(made);
+        journal.compact(store.publish(), 120);
+        layer.add(new ClipInstance(clip, 0, 128.0, 0));
+        for (int i = 0; i < 50; i++) edit(store, live, rnd);
+        journal.close();
+
+        replayed = EditJournal.replay(file);
+        assertEquals(flattened(store, layer), state(replayed.flatten()));
+        assertEquals(3, replayed.instances.length);
+        assertSame(replayed.instances[0].clip, replayed.instances[2].clip);
+    }
+
+    @Test
+    void truncatedTailReplaysTheLastCompleteRecord() throws Exception {
+        Path file = dir.resolve("session.wsj");
+        NoteStore store = new NoteStore(PitchTable.rows());
+        EditJournal journal = new EditJournal(file, store.publish(), 120);
+        store.addEditListener(journal);
+        int[] records = {1};
+        Map<Integer, List<String>> expected = new HashMap<>();
+        expected.put(1, state(store.publish()));
+        store.addEditListener(new NoteStore.EditListener() {
+            @Override public void added(Note n) { records[0]++; }
+            @Override public void removed(Note n) { records[0]++; }
+            @Override public void changed(Note n, int oldRow, double oldStart, double oldLength, int oldVelocity) { records[0]++; }
+        });
+        Random rnd = new Random(3);
+        List<Note> live = new ArrayList<>();
+        for (int i = 0; i < 400; i++) { edit(store, live, rnd); expected.put(records[0], state(store.publish())); }
+        journal.close();
+        assertEquals(HEADER + (long) RECORD * records[0], Files.size(file));
+
+        Path cut = dir.resolve("cut.wsj");
+        for (int r = 1; r <= records[0]; r += 1 + rnd.nextInt(7)) {
+            Files.copy(file, cut, StandardCopyOption.REPLACE_EXISTING);
+            try (FileChannel ch = FileChannel.open(cut, StandardOpenOption.WRITE)) { ch.truncate(HEADER + (long) RECORD * r + rnd.nextInt(RECORD)); }
+            assertEquals(expected.get(r), state(EditJournal.replay(cut).notes), "cut after record " + r);
+        }
+    }
+
+    @Test
+    void rejectsForeignFilesAndIgnoresMissingOnes() throws Exception {
+        assertNull(EditJournal.replay(dir.resolve("missing.wsj")));
+        Path bogus = Files.write(dir.resolve("bogus.wsj"), new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9});
+        assertThrows(java.io.IOException.class, () -> EditJournal.replay(bogus));
+    }
+}
@@ -0,0 +1,87 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class LatencyHistogramTest {
+    @Test
+    void smallValuesAreExact() {
+        for (long v = 0; v < 128; v++) {
+            assertEquals(v, LatencyHistogram.indexOf(v));
+            assertEquals(v, LatencyHistogram.highestEquivalent(LatencyHistogram.indexOf(v)));
+        }
+    }
+
+    @Test
+    void bucketsAreContiguousAcrossPowersOfTwo() {
+        for (int k = 7; k <= 46; k++) {
+            long p = 1L << k;
+            assertEquals(LatencyHistogram.indexOf(p - 1) + 1, LatencyHistogram.indexOf(p), "2^" + k);
+            assertEquals(p - 1, LatencyHistogram.highestEquivalent(LatencyHistogram.indexOf(p - 1)), "2^" + k + " - 1");
+            assertEquals(p, LatencyHistogram.highestEquivalent(LatencyHistogram.indexOf(p) - 1) + 1, "2^" + k);
+        }
+    }
+
+    @Test
+    void everyValueLandsInABucketWithinOneSixtyFourth() {
+        Random rnd = new Random(16);
+        for (int i = 0; i < 100_000; i++) {
+            long v = (long) Math.pow(2, rnd.nextDouble() * 46);
+            int index = LatencyHistogram.indexOf(v);
+            long high = LatencyHistogram.highestEquivalent(index);
+            assertTrue(high >= v, v + " above its bucket " + high);
+            assertTrue(index == 0 || LatencyHistogram.highestEquivalent(index - 1) < v, v + " belongs to an earlier bucket");
+            assertTrue(high - v <= v / 64, v + " reported as " + high);
+        }
+    }
+
+    @Test
+    void valuesAboveTheTopMagnitudeReportTheirMaximum() {
+        LatencyHistogram h = new LatencyHistogram();
+        long top = LatencyHistogram.highestEquivalent(LatencyHistogram.indexOf((1L << 47) - 1));
+        assertEquals((1L << 47) - 1, top);
+        h.record(100);
+        h.record(1L << 50);
+        h.record(Long.MAX_VALUE / 4);
+        assertEquals(Long.MAX_VALUE / 4, h.max());
+        assertEquals(Long.MAX_VALUE / 4, h.percentile(100));
+        assertEquals(100, h.percentile(30));
+        assertNotEquals(LatencyHistogram.indexOf(top), LatencyHistogram.indexOf(top + 1));
+    }
+
+    @Test
+    void percentilesMatchExactSortedValues() {
+        Random rnd = new Random(99);
+        LatencyHistogram h = new LatencyHistogram();
+        long[] values = new long[200_001];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = (long) (50_000 * Math.exp(rnd.nextGaussian() * 1.5));
+            h.record(values[i]);
+        }
+        Arrays.sort(values);
+        for (double p : new double[] {1, 50, 90, 99, 99.9, 100}) {
+            long exact = values[(int) Math.ceil(p / 100.0 * values.length) - 1];
+            long reported = h.percentile(p);
+            assertTrue(reported >= exact && reported - exact <= exact / 64, "p" + p + ": exact " + exact + ", reported " + reported);
+        }
+        assertEquals(values[values.length - 1], h.max());
+        assertEquals(values[0], h.min());
+        assertEquals(values.length, h.count());
+        assertEquals(Arrays.stream(values).average().getAsDouble(), h.mean(), 1.0);
+    }
+
+    @Test
+    void emptyAndResetHistogramsReportZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.percentile(99));
+        assertEquals(0, h.max());
+        h.record(-5);
+        assertEquals(0, h.max());
+        h.record(12345);
+        h.reset();
+        assertEquals(0, h.count());
+        assertEquals(0, h.percentile(50));
+        assertEquals(0.0, h.mean());
+    }
+}
@@ -0,0 +1,60 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.file.Path;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MidiFileIOTest {
+    @TempDir Path dir;
+
+    @Test
+    void notesAndTrackProgramsRoundTrip() throws Exception {
+        Path file = dir.resolve("song.mid");
+        // Notes on one track never overlap, so no key is retriggered before its note-off.
+        Random rnd = new Random(4);
+        NoteBuffer notes = new NoteBuffer();
+        for (int i = 0; i < 2000; i++) notes.add(i % 4, rnd.nextInt(PitchTable.rows()), (i / 4) * 0.5, (1 + rnd.nextInt(8)) / 16.0, 1 + rnd.nextInt(127));
+        Track[] tracks = ProjectFileTest.sampleTracks();
+        tracks[1].mute = false;
+        tracks[2].solo = false;
+        MidiFileIO.write(file, 140, tracks, notes, 1);
+
+        ProjectFile.Project read = MidiFileIO.read(file);
+        assertEquals(140, read.bpm);
+        assertEquals(ProjectFileTest.keys(notes), ProjectFileTest.keys(read.notes));
+        assertEquals(4, read.tracks.length, "notes use four tracks");
+        for (int i = 0; i < tracks.length; i++) {
+            assertEquals(tracks[i].program, read.tracks[i].program);
+            assertEquals(tracks[i].volume, read.tracks[i].volume);
+        }
+    }
+
+    @Test
+    void tempoAndMeterChangesRoundTrip() throws Exception {
+        Path file = dir.resolve("tempo.mid");
+        TempoMap tempo = TempoMap.parse("0 97\n16 140\n24 60 ramp\n40 90\nmeter 1 4/4\nmeter 3 3/4\nmeter 5 6/8");
+        NoteBuffer notes = new NoteBuffer();
+        notes.add(0, 10, 0.0, 1.0, 90);
+        MidiFileIO.write(file, tempo, new Track[0], notes, 1);
+
+        TempoMap read = MidiFileIO.read(file).tempo;
+        assertEquals(97.0, read.bpmAt(8.0));
+        assertEquals(90.0, read.bpmAt(50.0));
+        for (double beat : new double[] {9.0, 15.0, 20.0}) {
+            assertEquals(tempo.numeratorAt(beat), read.numeratorAt(beat), "beat " + beat);
+            assertEquals(tempo.denominatorAt(beat), read.denominatorAt(beat), "beat " + beat);
+        }
+        // The ramp comes back as quarter-beat steps that keep every step boundary on time.
+        for (double beat = 0.0; beat <= 48.0; beat += 0.25) assertEquals(tempo.nanosAt(beat), read.nanosAt(beat), 1e5, "beat " + beat);
+    }
+
+    @Test
+    void filesWithoutProgramChangesHaveNoTrackSettings() throws Exception {
+        Path file = dir.resolve("plain.mid");
+        NoteBuffer notes = new NoteBuffer();
+        notes.add(0, 10, 0.0, 1.0, 90);
+        MidiFileIO.write(file, 120, notes, 0);
+        assertEquals(0, MidiFileIO.read(file).tracks.length);
+    }
+}
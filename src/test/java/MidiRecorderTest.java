@@ -0,0 +1,122 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class MidiRecorderTest {
+    // Without a MidiManager the recorder stamps events with System.nanoTime; an unstarted 60 bpm
+    // scheduler then maps one second to one beat, so lengths read directly in seconds.
+    private final PlaybackScheduler clock = new PlaybackScheduler(new PlaybackScheduler.Output() {
+        @Override public long getMicrosecondPosition() { return System.nanoTime() / 1000; }
+        @Override public void scheduleNote(int channel, int midi, int velocity, long onMicros, long offMicros) {}
+        @Override public void scheduleMetronomeTick(boolean accent, long atMicros) {}
+    }, 60, 1e9, (from, to, offset, out) -> {});
+    private final MidiRecorder recorder = new MidiRecorder(null);
+    private final LoopbackDevice keys = new LoopbackDevice();
+    private final List<Note> out = new ArrayList<>();
+
+    @BeforeEach
+    void connect() {
+        recorder.connect(keys);
+        recorder.setArmed(true);
+    }
+
+    @Test
+    void heldKeyBecomesOneNoteWithItsVelocityAndDuration() throws Exception {
+        long t0 = System.nanoTime();
+        keys.noteOn(0, 60, 90);
+        Thread.sleep(50);
+        keys.noteOff(0, 60);
+        double held = (System.nanoTime() - t0) / 1e9;
+        assertEquals(2, recorder.drain(clock, 3, out));
+        assertEquals(1, out.size());
+        Note n = out.get(0);
+        assertEquals(3, n.track);
+        assertEquals(PitchTable.rowForMidi(60), n.row);
+        assertEquals(90, n.velocity);
+        assertTrue(n.length >= 0.050 - 0.001 && n.length <= held + 0.001, "length " + n.length + ", held " + held);
+    }
+
+    @Test
+    void staccatoKeepsItsLengthDownToTheSharedFloor() {
+        long t0 = System.nanoTime();
+        keys.noteOn(0, 60, 90);
+        keys.noteOff(0, 60);
+        double held = (System.nanoTime() - t0) / 1e9;
+        recorder.drain(clock, 0, out);
+        assertEquals(1, out.size());
+        assertTrue(out.get(0).length >= Note.MIN_LENGTH && out.get(0).length <= Math.max(Note.MIN_LENGTH, held + 0.001), "length " + out.get(0).length);
+    }
+
+    @Test
+    void noteOnWithZeroVelocityClosesAndChannelsStaySeparate() {
+        keys.noteOn(0, 64, 100);
+        keys.noteOn(1, 64, 50);
+        keys.noteOn(0, 64, 0);
+        recorder.drain(clock, 0, out);
+        assertEquals(1, out.size());
+        assertEquals(100, out.get(0).velocity);
+        recorder.flush(clock, 0, out);
+        assertEquals(2, out.size());
+        assertEquals(50, out.get(1).velocity);
+    }
+
+    @Test
+    void retriggerClosesThePreviousNote() {
+        keys.noteOn(0, 62, 70);
+        keys.noteOn(0, 62, 80);
+        keys.noteOff(0, 62);
+        recorder.drain(clock, 0, out);
+        assertEquals(2, out.size());
+        assertEquals(70, out.get(0).velocity);
+        assertEquals(80, out.get(1).velocity);
+        assertTrue(out.get(0).start <= out.get(1).start);
+    }
+
+    @Test
+    void drainLeavesHeldNotesOpenUntilFlush() {
+        keys.noteOn(0, 60, 100);
+        keys.noteOn(0, 67, 100);
+        keys.noteOff(0, 60);
+        recorder.drain(clock, 0, out);
+        assertEquals(1, out.size());
+        assertEquals(0, recorder.drain(clock, 0, out));
+        recorder.flush(clock, 0, out);
+        assertEquals(2, out.size());
+        assertEquals(PitchTable.rowForMidi(67), out.get(1).row);
+        recorder.flush(clock, 0, out);
+        assertEquals(2, out.size());
+    }
+
+    @Test
+    void ignoresInputWhileDisarmedOrDisconnected() {
+        recorder.setArmed(false);
+        keys.noteOn(0, 60, 100);
+        keys.noteOff(0, 60);
+        recorder.setArmed(true);
+        recorder.disconnect();
+        assertFalse(recorder.isConnected());
+        keys.noteOn(0, 60, 100);
+        keys.noteOff(0, 60);
+        assertEquals(0, recorder.drain(clock, 0, out));
+        assertTrue(out.isEmpty());
+    }
+
+    @Test
+    void keysOutsideThePitchTableAreDropped() {
+        keys.noteOn(0, 127, 100);
+        keys.noteOff(0, 127);
+        assertEquals(2, recorder.drain(clock, 0, out));
+        assertTrue(out.isEmpty());
+    }
+
+    @Test
+    void fullRingCountsDroppedEventsInsteadOfOverwriting() {
+        for (int i = 0; i < 10_000; i++) { keys.noteOn(0, 60, 100); keys.noteOff(0, 60); }
+        assertEquals(20_000 - (1 << 14), recorder.getDropped());
+        assertEquals(1 << 14, recorder.drain(clock, 0, out));
+        assertEquals(1 << 13, out.size());
+    }
+}
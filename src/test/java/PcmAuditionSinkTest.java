@@ -0,0 +1,29 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class PcmAuditionSinkTest {
+    @Test
+    void headlessSinkFallsBackUntilTheSnippetIsCached() throws Exception {
+        AtomicInteger fallback = new AtomicInteger();
+        PcmAuditionSink sink = new PcmAuditionSink((channel, program, midi, velocity, durationMs) -> fallback.incrementAndGet());
+        assertFalse(sink.hasAudioLine(), "surefire runs headless, so no line should be opened");
+
+        sink.play(0, 0, 60, 90, 200);
+        assertEquals(1, sink.getMisses());
+        assertEquals(1, fallback.get());
+
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (sink.getCachedBytes() == 0 && System.nanoTime() < deadline) Thread.sleep(10);
+        assertTrue(sink.getCachedBytes() > 0, "snippet was never rendered");
+
+        for (int i = 0; i < 20; i++) sink.play(0, 0, 60, 90, 200);
+        assertEquals(20, sink.getHits());
+        assertEquals(1, fallback.get());
+
+        sink.play(0, 0, 61, 90, 200);
+        assertEquals(2, sink.getMisses());
+        assertEquals(2, fallback.get());
+    }
+}
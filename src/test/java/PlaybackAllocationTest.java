@@ -0,0 +1,40 @@
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import org.junit.jupiter.api.Test;
+
+class PlaybackAllocationTest {
+    private static final int NOTES = 1000;
+
+    private int scheduled;
+
+    @Test
+    void loopCycleOfThousandNotesAllocatesNothing() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        NoteStore store = new NoteStore(PitchTable.rows());
+        for (int i = 0; i < NOTES; i++) store.add(new Note(i % 2, i % PitchTable.rows(), i / (double) NOTES, 0.5));
+        ArrangementSnapshot snap = store.publish();
+        int[] routing = {0, 1};
+        PlaybackScheduler.Output out = new PlaybackScheduler.Output() {
+            @Override public long getMicrosecondPosition() { return 0L; }
+            @Override public void scheduleNote(int channel, int midi, int velocity, long onMicros, long offMicros) { scheduled++; }
+            @Override public void scheduleMetronomeTick(boolean accent, long atMicros) {}
+        };
+        PlaybackScheduler scheduler = new PlaybackScheduler(out, 120, 4.0, (from, to, offset, sink) -> {});
+
+        for (int i = 0; i < 20_000; i++) PlaybackScheduler.collect(snap, routing, 0.0, 1.0, 0.0, scheduler);
+        scheduled = 0;
+        long overhead = threads.getCurrentThreadAllocatedBytes();
+        overhead = threads.getCurrentThreadAllocatedBytes() - overhead;
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 100; i++) PlaybackScheduler.collect(snap, routing, 0.0, 1.0, 0.0, scheduler);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before - overhead;
+
+        assertEquals(100 * NOTES, scheduled);
+        assertEquals(0L, allocated, "bytes allocated by 100 cycles of " + NOTES + " notes");
+    }
+}
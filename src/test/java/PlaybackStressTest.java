@@ -0,0 +1,64 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class PlaybackStressTest {
+    private static final int ANCHORS = 64;
+    private static final double BEATS = 16.0;
+
+    @Test
+    void continuousEditingDuringPlaybackMissesNoScheduledNote() throws Exception {
+        NoteStore store = new NoteStore(PitchTable.rows());
+        for (int i = 0; i < ANCHORS; i++) {
+            Note n = new Note(0, 0, i * BEATS / ANCHORS, 0.25);
+            n.velocity = i + 1;
+            store.add(n);
+        }
+        store.publish();
+
+        int[] hits = new int[ANCHORS + 1];
+        AtomicInteger churnScheduled = new AtomicInteger();
+        PlaybackScheduler.Output out = new PlaybackScheduler.Output() {
+            @Override public long getMicrosecondPosition() { return System.nanoTime() / 1000; }
+            @Override public void scheduleNote(int channel, int midi, int velocity, long onMicros, long offMicros) {
+                if (velocity <= ANCHORS) hits[velocity]++; else churnScheduled.incrementAndGet();
+            }
+            @Override public void scheduleMetronomeTick(boolean accent, long atMicros) {}
+        };
+        int[] routing = {0};
+        PlaybackScheduler scheduler = new PlaybackScheduler(out, 480, BEATS, (from, to, offset, sink) -> PlaybackScheduler.collect(store.snapshot(), routing, from, to, offset, sink));
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicInteger edits = new AtomicInteger();
+        Thread editor = new Thread(() -> {
+            Random rnd = new Random(11);
+            Note[] churn = new Note[2000];
+            for (int i = 0; i < churn.length; i++) { churn[i] = new Note(1 + rnd.nextInt(PitchTable.rows() - 1), rnd.nextDouble() * BEATS, 0.5); churn[i].velocity = 100; }
+            while (!done.get()) {
+                synchronized (store) {
+                    for (Note n : churn) {
+                        if (!store.contains(n)) store.add(n);
+                        else if (rnd.nextInt(8) == 0) store.remove(n);
+                        else store.move(n, 1 + rnd.nextInt(PitchTable.rows() - 1), rnd.nextDouble() * BEATS);
+                        edits.incrementAndGet();
+                    }
+                    store.publish();
+                }
+            }
+        }, "stress-editor");
+        editor.start();
+        try {
+            scheduler.run(pos -> {});
+        } finally {
+            done.set(true);
+            editor.join();
+        }
+
+        assertTrue(edits.get() > 0, "editor never ran during playback");
+        assertTrue(churnScheduled.get() > 0, "no edited note was scheduled");
+        for (int i = 1; i <= ANCHORS; i++) assertEquals(1, hits[i], "anchor note " + i + " scheduled " + hits[i] + " times");
+    }
+}
@@ -0,0 +1,125 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProjectFileTest {
+    @TempDir Path dir;
+
+    static NoteBuffer randomNotes(Random rnd, int count) {
+        NoteBuffer b = new NoteBuffer();
+        for (int i = 0; i < count; i++) b.add(rnd.nextInt(4), rnd.nextInt(PitchTable.rows()), rnd.nextInt(4096) / 16.0, 1.0 / 16 + rnd.nextInt(64) / 16.0, 1 + rnd.nextInt(127));
+        return b;
+    }
+
+    static List<String> keys(NoteBuffer b) {
+        List<String> out = new ArrayList<>();
+        for (int i = 0; i < b.size(); i++) out.add(b.track(i) + "/" + b.row(i) + "/" + b.start(i) + "/" + b.length(i) + "/" + b.velocity(i));
+        Collections.sort(out);
+        return out;
+    }
+
+    static Track[] sampleTracks() {
+        Track[] tracks = {new Track(0, "Keys", 4), new Track(1, "Bass \u00e9", 33), new Track(2, "Pad", 89)};
+        tracks[0].volume = 64;
+        tracks[1].mute = true;
+        tracks[2].solo = true;
+        return tracks;
+    }
+
+    static String describe(Track[] tracks) {
+        StringBuilder sb = new StringBuilder();
+        for (Track t : tracks) sb.append(t.index).append(':').append(t.name).append('/').append(t.program).append('/').append(t.volume).append('/').append(t.mute).append('/').append(t.solo).append('\n');
+        return sb.toString();
+    }
+
+    @Test
+    void notesAndTracksRoundTrip() throws Exception {
+        Path file = dir.resolve("song.wsp");
+        NoteBuffer notes = randomNotes(new Random(12), 5000);
+        ProjectFile.save(file, new ProjectFile.Project(133, notes, sampleTracks()));
+        ProjectFile.Project loaded = ProjectFile.load(file);
+        assertEquals(133, loaded.bpm);
+        assertEquals(keys(notes), keys(loaded.notes));
+        assertEquals(describe(sampleTracks()), describe(loaded.tracks));
+    }
+
+    static Clip sampleClip(String name, int seed) {
+        Random rnd = new Random(seed);
+        List<Note> notes = new ArrayList<>();
+        for (int i = 0; i < 12; i++) { Note n = new Note(20 + rnd.nextInt(30), 8.0 + rnd.nextInt(64) / 8.0, 0.125 + rnd.nextInt(8) / 8.0); n.velocity = 1 + rnd.nextInt(127); notes.add(n); }
+        return Clip.of(name, notes, 8.0, 4);
+    }
+
+    static String describe(Clip[] clips, ClipInstance[] instances) {
+        StringBuilder sb = new StringBuilder();
+        for (Clip c : clips) {
+            sb.append(c.name).append(' ').append(c.length).append(':');
+            for (int i = 0; i < c.size; i++) sb.append(' ').append(c.rows[i]).append('/').append(c.starts[i]).append('/').append(c.lengths[i]).append('/').append(c.velocities[i]);
+            sb.append('\n');
+        }
+        for (ClipInstance c : instances) sb.append(Arrays.asList(clips).indexOf(c.clip)).append(" @").append(c.start).append(" t").append(c.track).append(" x").append(c.transpose).append('\n');
+        return sb.toString();
+    }
+
+    @Test
+    void clipsAndInstancesRoundTripAndFlatten() throws Exception {
+        Path file = dir.resolve("clips.wsp");
+        Clip verse = sampleClip("Verse", 1), hook = sampleClip("Hook \u266a", 2), unused = sampleClip("Spare", 3);
+        ClipInstance[] instances = {new ClipInstance(verse, 0, 0.0, 0), new ClipInstance(hook, 2, 16.0, -5), new ClipInstance(verse, 1, 32.0, 12)};
+        NoteBuffer notes = randomNotes(new Random(9), 100);
+        ProjectFile.Project saved = new ProjectFile.Project(120, notes, sampleTracks(), new Clip[] {verse, hook, unused}, instances);
+        ProjectFile.save(file, saved);
+
+        ProjectFile.Project loaded = ProjectFile.load(file);
+        assertEquals(describe(saved.clips, saved.instances), describe(loaded.clips, loaded.instances));
+        assertSame(loaded.instances[0].clip, loaded.instances[2].clip, "instances of one clip share its definition");
+        assertEquals(keys(notes), keys(loaded.notes));
+        assertEquals(keys(saved.flatten()), keys(loaded.flatten()));
+        assertEquals(notes.size() + 12 * 3, loaded.flatten().size());
+    }
+
+    @Test
+    void tempoAndMeterChangesRoundTrip() throws Exception {
+        Path file = dir.resolve("tempo.wsp");
+        TempoMap tempo = TempoMap.parse("0 97.5\n16 140\n32 180 ramp\nmeter 1 4/4\nmeter 3 7/8");
+        ProjectFile.save(file, new ProjectFile.Project(tempo, randomNotes(new Random(3), 50), new Track[0], new Clip[0], new ClipInstance[0]));
+        ProjectFile.Project loaded = ProjectFile.load(file);
+        assertEquals(tempo.format(), loaded.tempo.format());
+        assertEquals(98, loaded.bpm);
+    }
+
+    @Test
+    void projectsWithoutSectionsLoadWithNoTracks() throws Exception {
+        Path file = dir.resolve("plain.wsp");
+        ProjectFile.save(file, 90, randomNotes(new Random(1), 10));
+        ProjectFile.Project loaded = ProjectFile.load(file);
+        assertEquals(TempoMap.constant(90).format(), loaded.tempo.format());
+        assertEquals(0, loaded.tracks.length);
+        assertEquals(0, loaded.clips.length);
+        assertSame(loaded.notes, loaded.flatten());
+    }
+
+    @Test
+    void unknownSectionsAreSkippedAndTruncatedOnesRejected() throws Exception {
+        Path file = dir.resolve("song.wsp");
+        ProjectFile.save(file, new ProjectFile.Project(120, randomNotes(new Random(2), 7), sampleTracks()));
+        ByteBuffer extra = ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN).putInt(0x12345678).putInt(5).put(new byte[8]);
+        Files.write(file, extra.array(), StandardOpenOption.APPEND);
+        assertEquals(describe(sampleTracks()), describe(ProjectFile.load(file).tracks));
+
+        ByteBuffer cut = ByteBuffer.allocate(12).order(ByteOrder.LITTLE_ENDIAN).putInt(0x12345678).putInt(100).putInt(0);
+        Files.write(file, cut.array(), StandardOpenOption.APPEND);
+        assertThrows(java.io.IOException.class, () -> ProjectFile.load(file));
+    }
+}
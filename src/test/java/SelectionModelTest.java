@@ -0,0 +1,85 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class SelectionModelTest {
+    private static Note[] notes(int n) {
+        Note[] notes = new Note[n];
+        for (int i = 0; i < n; i++) notes[i] = new Note(i % PitchTable.rows(), i * 0.25, 0.25);
+        return notes;
+    }
+
+    private static void assertSameMembers(Set<Note> expected, SelectionModel actual, Note[] universe) {
+        assertEquals(expected.size(), actual.size());
+        assertEquals(expected, new HashSet<>(actual));
+        for (int i = 0; i < actual.size(); i++) assertTrue(expected.contains(actual.get(i)));
+        for (Note n : universe) assertEquals(expected.contains(n), actual.contains(n));
+    }
+
+    @Test
+    void randomOperationsMatchHashSet() {
+        Note[] universe = notes(300);
+        Random rnd = new Random(18);
+        SelectionModel model = new SelectionModel();
+        Set<Note> ref = new HashSet<>();
+        for (int step = 0; step < 20_000; step++) {
+            Note n = universe[rnd.nextInt(universe.length)];
+            switch (rnd.nextInt(8)) {
+                case 0: case 1: case 2: assertEquals(ref.add(n), model.add(n)); break;
+                case 3: case 4: assertEquals(ref.remove(n), model.remove(n)); break;
+                case 5: {
+                    List<Note> batch = new ArrayList<>();
+                    for (int i = rnd.nextInt(40); i > 0; i--) batch.add(universe[rnd.nextInt(universe.length)]);
+                    assertEquals(ref.removeAll(batch), model.removeAll(batch));
+                    break;
+                }
+                case 6: {
+                    Set<Note> keep = new HashSet<>();
+                    for (int i = 100 + rnd.nextInt(200); i > 0; i--) keep.add(universe[rnd.nextInt(universe.length)]);
+                    assertEquals(ref.retainAll(keep), model.retainAll(keep));
+                    break;
+                }
+                default: {
+                    int row = rnd.nextInt(PitchTable.rows());
+                    assertEquals(ref.removeIf(x -> x.row == row), model.removeIf(x -> x.row == row));
+                }
+            }
+            if (rnd.nextInt(2000) == 0) { ref.clear(); model.clear(); }
+            assertSameMembers(ref, model, universe);
+        }
+    }
+
+    @Test
+    void iteratorRemoveVisitsEveryElementOnce() {
+        Note[] universe = notes(100);
+        SelectionModel model = new SelectionModel();
+        Set<Note> ref = new HashSet<>();
+        for (Note n : universe) { model.add(n); ref.add(n); }
+        Set<Note> seen = new HashSet<>();
+        for (Iterator<Note> it = model.iterator(); it.hasNext(); ) {
+            Note n = it.next();
+            assertTrue(seen.add(n), "visited twice: " + n);
+            if (n.row % 3 == 0) { it.remove(); ref.remove(n); }
+        }
+        assertEquals(100, seen.size());
+        assertSameMembers(ref, model, universe);
+    }
+
+    @Test
+    void iteratorRemoveNeedsNext() {
+        SelectionModel model = new SelectionModel();
+        model.add(new Note(0, 0.0, 1.0));
+        Iterator<Note> it = model.iterator();
+        assertThrows(IllegalStateException.class, it::remove);
+        it.next();
+        it.remove();
+        assertThrows(IllegalStateException.class, it::remove);
+        assertTrue(model.isEmpty());
+    }
+}
@@ -0,0 +1,159 @@
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class TempoMapTest {
+    private static final double NANOS_PER_MINUTE = 60_000_000_000.0;
+    private static final TempoMap MAP = TempoMap.parse(String.join("\n",
+        "0 120",
+        "16 120",
+        "32 180 ramp   # accelerate over four bars",
+        "48 90",
+        "meter 1 4/4",
+        "meter 3 3/4",
+        "meter 5 6/8"));
+
+    // Midpoint rule per tempo segment, so the step at beat 48 never falls inside a cell.
+    private static double integrated(TempoMap map, double beat) {
+        double sum = 0.0, from = 0.0;
+        for (double edge : new double[] {16.0, 32.0, 48.0, Double.POSITIVE_INFINITY}) {
+            double to = Math.min(beat, edge);
+            if (to <= from) break;
+            int steps = 50_000;
+            double h = (to - from) / steps;
+            for (int i = 0; i < steps; i++) sum += NANOS_PER_MINUTE / map.bpmAt(from + (i + 0.5) * h) * h;
+            from = to;
+        }
+        return sum;
+    }
+
+    @Test
+    void constantTempoIsLinear() {
+        TempoMap map = TempoMap.constant(120);
+        assertTrue(map.isCommonTime());
+        assertEquals(0.0, map.nanosAt(0.0));
+        assertEquals(500_000_000.0, map.nanosAt(1.0), 1e-3);
+        assertEquals(-1_000_000_000.0, map.nanosAt(-2.0), 1e-3);
+        assertEquals(8.0, map.beatAt(4_000_000_000.0), 1e-12);
+    }
+
+    @Test
+    void rampInterpolatesTheTempo() {
+        assertEquals(120.0, MAP.bpmAt(8.0));
+        assertEquals(120.0, MAP.bpmAt(16.0));
+        assertEquals(150.0, MAP.bpmAt(24.0), 1e-12);
+        assertEquals(180.0, MAP.bpmAt(32.0));
+        assertEquals(180.0, MAP.bpmAt(40.0));
+        assertEquals(90.0, MAP.bpmAt(48.0));
+        assertEquals(120.0, MAP.initialBpm());
+        assertFalse(MAP.isCommonTime());
+    }
+
+    @Test
+    void closedFormMatchesNumericIntegration() {
+        for (double beat : new double[] {1.0, 15.5, 16.0, 20.25, 31.0, 32.0, 40.0, 48.0, 63.75}) {
+            double expected = integrated(MAP, beat);
+            assertEquals(expected, MAP.nanosAt(beat), expected * 1e-9, "beat " + beat);
+        }
+    }
+
+    @Test
+    void nanosAndBeatsRoundTrip() {
+        Random rnd = new Random(22);
+        double previous = Double.NEGATIVE_INFINITY;
+        for (int i = 0; i < 10_000; i++) {
+            double beat = -4.0 + i * 0.0084 + rnd.nextDouble() * 0.004;
+            double t = MAP.nanosAt(beat);
+            assertTrue(t > previous, "nanosAt must increase at beat " + beat);
+            previous = t;
+            assertEquals(beat, MAP.beatAt(t), 1e-9, "beat " + beat);
+        }
+        for (int i = 0; i < 1000; i++) {
+            double t = rnd.nextDouble() * 40e9;
+            assertEquals(t, MAP.nanosAt(MAP.beatAt(t)), 1e-3, "nanos " + t);
+        }
+    }
+
+    @Test
+    void pulsesFollowTheMeter() {
+        List<String> pulses = new ArrayList<>();
+        MAP.forEachPulse(0.0, 20.0, (b, downbeat) -> pulses.add(b + (downbeat ? "!" : "")));
+        List<String> expected = new ArrayList<>();
+        for (int b = 0; b < 8; b++) expected.add((double) b + (b % 4 == 0 ? "!" : ""));
+        for (int b = 8; b < 14; b++) expected.add((double) b + ((b - 8) % 3 == 0 ? "!" : ""));
+        for (int k = 0; k < 12; k++) expected.add((14.0 + k * 0.5) + (k % 6 == 0 ? "!" : ""));
+        assertEquals(expected, pulses);
+
+        List<String> window = new ArrayList<>();
+        MAP.forEachPulse(9.5, 11.0, (b, downbeat) -> window.add(b + (downbeat ? "!" : "")));
+        assertEquals(List.of("10.0"), window);
+    }
+
+    @Test
+    void barsFollowTheMeter() {
+        List<Double> bars = new ArrayList<>();
+        MAP.forEachBar(0.0, 20.0, (b, downbeat) -> bars.add(b));
+        assertEquals(List.of(0.0, 4.0, 8.0, 11.0, 14.0, 17.0), bars);
+        for (int bar = 0; bar < 12; bar++) {
+            double start = MAP.barStart(bar);
+            assertEquals(bar, MAP.barAt(start));
+            assertEquals(bar, MAP.barAt(start + 0.25));
+            if (bar > 0) assertEquals(bar - 1, MAP.barAt(start - 0.25));
+        }
+        assertEquals(3, MAP.numeratorAt(9.0));
+        assertEquals(4, MAP.denominatorAt(9.0));
+        assertEquals(6, MAP.numeratorAt(15.0));
+        assertEquals(8, MAP.denominatorAt(15.0));
+    }
+
+    @Test
+    void steppedTempoKeepsEveryStepOnTime() {
+        List<double[]> steps = new ArrayList<>();
+        MAP.forEachTempo(0.5, (beat, bpm) -> steps.add(new double[] {beat, bpm}));
+        assertEquals(2 + 32 + 1, steps.size());
+        double nanos = 0.0;
+        for (int i = 0; i < steps.size(); i++) {
+            double from = steps.get(i)[0], to = i + 1 < steps.size() ? steps.get(i + 1)[0] : 64.0;
+            nanos += (to - from) * NANOS_PER_MINUTE / steps.get(i)[1];
+            assertEquals(MAP.nanosAt(to), nanos, 1e-3, "beat " + to);
+        }
+
+        List<String> meters = new ArrayList<>();
+        MAP.forEachMeter((beat, num, den) -> meters.add(beat + " " + num + "/" + den));
+        assertEquals(List.of("0.0 4/4", "8.0 3/4", "14.0 6/8"), meters);
+    }
+
+    @Test
+    void formatParsesBackToTheSameMap() {
+        String text = MAP.format();
+        assertEquals(text, TempoMap.parse(text).format());
+        assertTrue(text.contains("32 180 ramp\n"), text);
+        assertTrue(text.contains("meter 5 6/8\n"), text);
+        assertEquals("# <beat> <bpm> [ramp]   meter <bar> <n>/<d>\n0 120\nmeter 1 4/4\n", TempoMap.constant(120).format());
+    }
+
+    @Test
+    void withInitialTempoKeepsTheRampTarget() {
+        TempoMap ramp = TempoMap.parse("0 100\n8 200 ramp");
+        TempoMap faster = ramp.withInitialTempo(150);
+        assertEquals(150.0, faster.bpmAt(0.0));
+        assertEquals(175.0, faster.bpmAt(4.0), 1e-12);
+        assertEquals(200.0, faster.bpmAt(8.0), 1e-12);
+        assertEquals(140.0, MAP.withInitialTempo(140).bpmAt(8.0));
+        assertEquals(180.0, MAP.withInitialTempo(140).bpmAt(32.0));
+    }
+
+    @Test
+    void rejectsMalformedMaps() {
+        IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> TempoMap.parse("0 120\n4 fast"));
+        assertTrue(e.getMessage().startsWith("Line 2:"), e.getMessage());
+        assertThrows(IllegalArgumentException.class, () -> TempoMap.parse("4 120"));
+        assertThrows(IllegalArgumentException.class, () -> TempoMap.parse("0 120\n0 130"));
+        assertThrows(IllegalArgumentException.class, () -> TempoMap.parse("0 120\n8 400"));
+        assertThrows(IllegalArgumentException.class, () -> TempoMap.parse("0 120\nmeter 2 5/6"));
+        assertThrows(IllegalArgumentException.class, () -> TempoMap.parse("0 120\nmeter 3 3/4\nmeter 3 4/4"));
+    }
+}